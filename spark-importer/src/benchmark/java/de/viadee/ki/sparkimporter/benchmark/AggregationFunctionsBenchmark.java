@@ -0,0 +1,55 @@
+package de.viadee.ki.sparkimporter.benchmark;
+
+import de.viadee.ki.sparkimporter.util.SparkImporterVariables;
+import org.apache.spark.sql.Dataset;
+import org.apache.spark.sql.Row;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.apache.spark.sql.functions.callUDF;
+import static org.apache.spark.sql.functions.col;
+
+/**
+ * Runs the aggregation functions registered by SparkRunner.registerUDFs() grouped by process instance.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class AggregationFunctionsBenchmark extends SparkBenchmarkState {
+
+    @Param({"3"})
+    public int revisions;
+
+    private Dataset<Row> variableUpdates;
+
+    @Override
+    protected void createDatasets() {
+        variableUpdates = cache(BenchmarkDatasets.variableUpdates(sparkSession, processInstances, variables, revisions));
+    }
+
+    @Benchmark
+    public long allButEmptyString() {
+        return evaluate(variableUpdates
+                .groupBy(SparkImporterVariables.VAR_PROCESS_INSTANCE_ID, SparkImporterVariables.VAR_PROCESS_INSTANCE_VARIABLE_NAME)
+                .agg(callUDF("AllButEmptyString", col(SparkImporterVariables.VAR_TEXT)),
+                        callUDF("AllButEmptyString", col(SparkImporterVariables.VAR_LONG)),
+                        callUDF("AllButEmptyString", col(SparkImporterVariables.VAR_DOUBLE))));
+    }
+
+    @Benchmark
+    public long processState() {
+        return evaluate(variableUpdates
+                .groupBy(SparkImporterVariables.VAR_PROCESS_INSTANCE_ID)
+                .agg(callUDF("ProcessState", col(SparkImporterVariables.VAR_STATE))));
+    }
+}
@@ -0,0 +1,131 @@
+package de.viadee.ki.sparkimporter.benchmark;
+
+import de.viadee.ki.sparkimporter.util.SparkImporterVariables;
+import org.apache.spark.sql.Column;
+import org.apache.spark.sql.Dataset;
+import org.apache.spark.sql.Row;
+import org.apache.spark.sql.SparkSession;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.apache.spark.sql.functions.*;
+
+/**
+ * Generates the input datasets of the benchmarked steps. All values are derived from the row number, so the data is
+ * the same in each run and can be scaled by the number of process instances.
+ */
+public class BenchmarkDatasets {
+
+    public static final String VARIABLE_PREFIX = "var";
+
+    // variable types in the order they are assigned to the variables
+    private static final String[] VARIABLE_TYPES = {"string", "long", "double", "boolean", "date", "serializable"};
+
+    private BenchmarkDatasets() {
+    }
+
+    /**
+     * @return the process variables and their types as determined by DetermineProcessVariablesStep
+     */
+    public static Map<String, String> processVariables(int variables) {
+        Map<String, String> processVariables = new LinkedHashMap<>();
+        for(int i = 0; i < variables; i++) {
+            processVariables.put(VARIABLE_PREFIX + i, VARIABLE_TYPES[i % VARIABLE_TYPES.length]);
+        }
+        return processVariables;
+    }
+
+    /**
+     * Process level input of AddVariableColumnsStep: one process instance row and a number of revisions of each
+     * variable per process instance.
+     */
+    public static Dataset<Row> variableUpdates(SparkSession sparkSession, int processInstances, int variables, int revisions) {
+        Dataset<Row> processInstanceRows = sparkSession.range(processInstances)
+                .select(
+                        processInstanceId(col("id")).as(SparkImporterVariables.VAR_PROCESS_INSTANCE_ID),
+                        when(col("id").mod(4).equalTo(0), lit(SparkImporterVariables.PROCESS_STATE_ACTIVE))
+                                .otherwise(lit(SparkImporterVariables.PROCESS_STATE_COMPLETED)).as(SparkImporterVariables.VAR_STATE),
+                        lit(null).cast("string").as(SparkImporterVariables.VAR_PROCESS_INSTANCE_VARIABLE_NAME),
+                        lit(null).cast("string").as(SparkImporterVariables.VAR_PROCESS_INSTANCE_VARIABLE_TYPE),
+                        lit(null).cast("string").as(SparkImporterVariables.VAR_PROCESS_INSTANCE_VARIABLE_REVISION),
+                        lit(null).cast("string").as(SparkImporterVariables.VAR_LONG),
+                        lit(null).cast("string").as(SparkImporterVariables.VAR_DOUBLE),
+                        lit(null).cast("string").as(SparkImporterVariables.VAR_TEXT),
+                        lit(null).cast("string").as(SparkImporterVariables.VAR_TEXT2)
+                );
+
+        long variableRows = (long) processInstances * variables * revisions;
+        Column processInstance = floor(col("id").divide(variables * revisions));
+        Column variable = col("id").mod(variables);
+        Column revision = floor(col("id").divide(variables)).mod(revisions);
+        Column type = variableType(variable);
+
+        Dataset<Row> variableRowsDataset = sparkSession.range(variableRows)
+                .select(
+                        processInstanceId(processInstance).as(SparkImporterVariables.VAR_PROCESS_INSTANCE_ID),
+                        lit(null).cast("string").as(SparkImporterVariables.VAR_STATE),
+                        concat(lit(VARIABLE_PREFIX), variable.cast("string")).as(SparkImporterVariables.VAR_PROCESS_INSTANCE_VARIABLE_NAME),
+                        type.as(SparkImporterVariables.VAR_PROCESS_INSTANCE_VARIABLE_TYPE),
+                        revision.cast("string").as(SparkImporterVariables.VAR_PROCESS_INSTANCE_VARIABLE_REVISION),
+                        when(type.isin("long", "boolean", "date"), col("id").cast("string")).as(SparkImporterVariables.VAR_LONG),
+                        when(type.equalTo("double"), col("id").divide(7).cast("string")).as(SparkImporterVariables.VAR_DOUBLE),
+                        when(type.equalTo("string"), concat(lit("text"), col("id").cast("string"))).as(SparkImporterVariables.VAR_TEXT),
+                        when(type.equalTo("serializable"), concat(lit("object"), col("id").cast("string"))).as(SparkImporterVariables.VAR_TEXT2)
+                );
+
+        return processInstanceRows.union(variableRowsDataset);
+    }
+
+    /**
+     * Input of CreateColumnsFromJsonStep: one row per process instance with a column per variable, every second
+     * variable containing a flat JSON document with the given number of fields.
+     */
+    public static Dataset<Row> aggregatedWithJson(SparkSession sparkSession, int processInstances, int variables, int jsonFields) {
+        Column[] columns = new Column[variables + 1];
+        columns[0] = processInstanceId(col("id")).as(SparkImporterVariables.VAR_PROCESS_INSTANCE_ID);
+        for(int i = 0; i < variables; i++) {
+            if(i % 2 == 0) {
+                Column[] jsonParts = new Column[jsonFields * 2 + 1];
+                for(int f = 0; f < jsonFields; f++) {
+                    jsonParts[f * 2] = lit((f == 0 ? "{" : "\",") + "\"field" + f + "\":\"");
+                    jsonParts[f * 2 + 1] = col("id").plus(f).cast("string");
+                }
+                jsonParts[jsonFields * 2] = lit("\"}");
+                columns[i + 1] = concat(jsonParts).as(VARIABLE_PREFIX + i);
+            } else {
+                columns[i + 1] = concat(lit("value"), col("id").cast("string")).as(VARIABLE_PREFIX + i);
+            }
+        }
+        return sparkSession.range(processInstances).select(columns);
+    }
+
+    /**
+     * Input of FillActivityInstancesHistoryStep: a number of activity instances per process instance, each variable
+     * is only set in one of them.
+     */
+    public static Dataset<Row> activityInstances(SparkSession sparkSession, int processInstances, int activitiesPerInstance, int variables) {
+        Column activity = col("id").mod(activitiesPerInstance);
+        Column[] columns = new Column[variables + 3];
+        columns[0] = processInstanceId(floor(col("id").divide(activitiesPerInstance))).as(SparkImporterVariables.VAR_PROCESS_INSTANCE_ID);
+        columns[1] = concat(lit("act-"), col("id").cast("string")).as(SparkImporterVariables.VAR_ACT_INST_ID);
+        columns[2] = from_unixtime(lit(1514764800L).plus(activity.multiply(60))).as(SparkImporterVariables.VAR_START_TIME);
+        for(int i = 0; i < variables; i++) {
+            columns[i + 3] = when(activity.equalTo(i % activitiesPerInstance), concat(lit("value"), col("id").cast("string")))
+                    .as(VARIABLE_PREFIX + i);
+        }
+        return sparkSession.range((long) processInstances * activitiesPerInstance).select(columns);
+    }
+
+    private static Column processInstanceId(Column number) {
+        return concat(lit("pi-"), number.cast("string"));
+    }
+
+    private static Column variableType(Column variable) {
+        Column type = lit(VARIABLE_TYPES[0]);
+        for(int i = VARIABLE_TYPES.length - 1; i > 0; i--) {
+            type = when(variable.mod(VARIABLE_TYPES.length).equalTo(i), lit(VARIABLE_TYPES[i])).otherwise(type);
+        }
+        return type;
+    }
+}
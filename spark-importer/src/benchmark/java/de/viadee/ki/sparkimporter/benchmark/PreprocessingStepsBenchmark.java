@@ -0,0 +1,74 @@
+package de.viadee.ki.sparkimporter.benchmark;
+
+import de.viadee.ki.sparkimporter.processing.steps.dataprocessing.AddVariableColumnsStep;
+import de.viadee.ki.sparkimporter.processing.steps.dataprocessing.CreateColumnsFromJsonStep;
+import de.viadee.ki.sparkimporter.processing.steps.dataprocessing.FillActivityInstancesHistoryStep;
+import de.viadee.ki.sparkimporter.processing.steps.dataprocessing.TypeCastStep;
+import de.viadee.ki.sparkimporter.util.SparkImporterVariables;
+import org.apache.spark.sql.Dataset;
+import org.apache.spark.sql.Row;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs the expensive preprocessing steps on generated data. Each invocation runs the step and evaluates its result.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class PreprocessingStepsBenchmark extends SparkBenchmarkState {
+
+    @Param({"3"})
+    public int revisions;
+
+    @Param({"5"})
+    public int jsonFields;
+
+    @Param({"10"})
+    public int activitiesPerInstance;
+
+    private Dataset<Row> variableUpdates;
+    private Dataset<Row> aggregatedWithJson;
+    private Dataset<Row> variableColumns;
+    private Dataset<Row> activityInstances;
+
+    @Override
+    protected void createDatasets() {
+        variableUpdates = cache(BenchmarkDatasets.variableUpdates(sparkSession, processInstances, variables, revisions));
+        aggregatedWithJson = cache(BenchmarkDatasets.aggregatedWithJson(sparkSession, processInstances, variables, jsonFields));
+        // TypeCastStep runs on the variable and revision columns created by AddVariableColumnsStep
+        variableColumns = cache(new AddVariableColumnsStep().runPreprocessingStep(variableUpdates, false, SparkImporterVariables.DATA_LEVEL_PROCESS, new HashMap<>()));
+        activityInstances = cache(BenchmarkDatasets.activityInstances(sparkSession, processInstances, activitiesPerInstance, variables));
+    }
+
+    @Benchmark
+    public long addVariableColumns() {
+        return evaluate(new AddVariableColumnsStep().runPreprocessingStep(variableUpdates, false, SparkImporterVariables.DATA_LEVEL_PROCESS, new HashMap<>()));
+    }
+
+    @Benchmark
+    public long createColumnsFromJson() {
+        return evaluate(new CreateColumnsFromJsonStep().runPreprocessingStep(aggregatedWithJson, false, SparkImporterVariables.DATA_LEVEL_PROCESS, new HashMap<>()));
+    }
+
+    @Benchmark
+    public long typeCast() {
+        return evaluate(new TypeCastStep().runPreprocessingStep(variableColumns, false, SparkImporterVariables.DATA_LEVEL_PROCESS, new HashMap<>()));
+    }
+
+    @Benchmark
+    public long fillActivityInstancesHistory() {
+        return evaluate(new FillActivityInstancesHistoryStep().runPreprocessingStep(activityInstances, false, SparkImporterVariables.DATA_LEVEL_ACTIVITY, new HashMap<>()));
+    }
+}
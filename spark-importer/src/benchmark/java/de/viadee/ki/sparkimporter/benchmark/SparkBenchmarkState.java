@@ -0,0 +1,100 @@
+package de.viadee.ki.sparkimporter.benchmark;
+
+import de.viadee.ki.sparkimporter.configuration.preprocessing.VariableConfiguration;
+import de.viadee.ki.sparkimporter.configuration.util.ConfigurationUtils;
+import de.viadee.ki.sparkimporter.runner.SparkRunner;
+import de.viadee.ki.sparkimporter.util.SparkBroadcastHelper;
+import de.viadee.ki.sparkimporter.util.SparkImporterLogger;
+import de.viadee.ki.sparkimporter.util.SparkImporterVariables;
+import org.apache.commons.io.FileUtils;
+import org.apache.spark.sql.Dataset;
+import org.apache.spark.sql.Row;
+import org.apache.spark.sql.SparkSession;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Map;
+
+/**
+ * Local SparkSession set up like a CSV import run: UDFs registered, a configuration with the types of the generated
+ * process variables and the process variables broadcasted as done by DetermineProcessVariablesStep.
+ *
+ * The size of the generated data is set with the JMH parameters, e.g. -p processInstances=1000000.
+ */
+@State(Scope.Benchmark)
+public abstract class SparkBenchmarkState {
+
+    @Param({"10000"})
+    public int processInstances;
+
+    @Param({"20"})
+    public int variables;
+
+    protected SparkSession sparkSession;
+
+    private File workingDirectory;
+
+    @Setup(Level.Trial)
+    public void setupSpark() throws IOException {
+        sparkSession = SparkSession.builder()
+                .master(System.getProperty("spark.master", "local[*]"))
+                .appName(getClass().getSimpleName())
+                .config("spark.ui.enabled", "false")
+                .getOrCreate();
+        SparkRunner.registerUDFs(sparkSession);
+
+        workingDirectory = Files.createTempDirectory("spark-importer-benchmark").toFile();
+        SparkImporterVariables.setRunningMode(SparkRunner.RUNNING_MODE.CSV_IMPORT_AND_PROCESSING);
+        SparkImporterVariables.setWorkingDirectory(workingDirectory.getPath());
+        SparkImporterVariables.setTargetFolder(workingDirectory.getPath() + "/output");
+        SparkImporterVariables.setRevCountEnabled(true);
+        SparkImporterLogger.setLogDirectory(workingDirectory.getPath());
+
+        Map<String, String> processVariables = BenchmarkDatasets.processVariables(variables);
+        ConfigurationUtils.getInstance().createEmptyConfig();
+        for(String variable : processVariables.keySet()) {
+            VariableConfiguration variableConfiguration = new VariableConfiguration();
+            variableConfiguration.setVariableName(variable);
+            variableConfiguration.setVariableType(processVariables.get(variable));
+            variableConfiguration.setUseVariable(true);
+            ConfigurationUtils.getInstance().getConfiguration().getPreprocessingConfiguration().getVariableConfiguration().add(variableConfiguration);
+        }
+
+        SparkBroadcastHelper.getInstance().broadcastVariable(SparkBroadcastHelper.BROADCAST_VARIABLE.PROCESS_VARIABLES_ESCALATED, processVariables);
+
+        // JMH does not define an order for setup methods of super and sub classes, so the datasets are created here
+        createDatasets();
+    }
+
+    protected abstract void createDatasets();
+
+    @TearDown(Level.Trial)
+    public void tearDownSpark() {
+        sparkSession.close();
+        FileUtils.deleteQuietly(workingDirectory);
+    }
+
+    /**
+     * Generated datasets are cached, so the benchmarks only measure the steps themselves.
+     */
+    protected Dataset<Row> cache(Dataset<Row> dataset) {
+        dataset = dataset.cache();
+        dataset.count();
+        return dataset;
+    }
+
+    /**
+     * Evaluates all columns of the given dataset without collecting it to the driver. Unlike count() this does not
+     * let the optimizer prune the columns added by a step.
+     */
+    protected static long evaluate(Dataset<Row> dataset) {
+        return dataset.queryExecution().toRdd().count();
+    }
+}
@@ -0,0 +1,151 @@
+package de.viadee.ki.sparkimporter.processing;
+
+import de.viadee.ki.sparkimporter.processing.steps.PipelineStep;
+import de.viadee.ki.sparkimporter.util.SparkImporterLogger;
+import org.apache.spark.sql.Dataset;
+import org.apache.spark.sql.Row;
+import org.apache.spark.sql.SparkSession;
+import org.apache.spark.sql.execution.CachedData;
+import org.apache.spark.storage.RDDInfo;
+import org.apache.spark.storage.StorageLevel;
+import scala.Option;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Persists the datasets of a pipeline run that are consumed by more than one step, so Spark does not compute their
+ * lineage again for every consumer. The datasets are the initial dataset and the results of the steps. As steps only
+ * extend the lineage of their input, a persisted dataset is released once all of its consumers and all steps building
+ * on their results have finished.
+ */
+public class DatasetPersistencePlanner {
+
+    private final StorageLevel storageLevel;
+
+    // steps which still may evaluate a dataset, for all datasets consumed more than once
+    private final Map<String, Set<String>> pendingSteps = new HashMap<>();
+
+    private final Map<String, Dataset<Row>> persistedDatasets = new HashMap<>();
+
+    public DatasetPersistencePlanner(List<PipelineStep> pipelineSteps, StorageLevel storageLevel) {
+        this.storageLevel = storageLevel;
+        plan(pipelineSteps);
+    }
+
+    private void plan(List<PipelineStep> pipelineSteps) {
+        Map<String, List<String>> consumers = new HashMap<>();
+        Map<String, List<String>> successors = new HashMap<>();
+        consumers.put(PreprocessingRunner.DATASET_INITIAL, new ArrayList<>());
+        for(PipelineStep ps : pipelineSteps) {
+            consumers.put(ps.getId(), new ArrayList<>());
+            successors.put(ps.getId(), new ArrayList<>());
+        }
+
+        for(PipelineStep ps : pipelineSteps) {
+            List<String> consumedDatasets = new ArrayList<>(ps.getPredecessors());
+            consumedDatasets.retainAll(consumers.keySet());
+            for(String predecessor : consumedDatasets) {
+                successors.get(predecessor).add(ps.getId());
+            }
+            if(consumedDatasets.isEmpty()) {
+                consumedDatasets.add(PreprocessingRunner.DATASET_INITIAL);
+            }
+            if(ps.getPreprocessingStep() != null) {
+                consumedDatasets.addAll(ps.getPreprocessingStep().getConsumedHelperDatasets());
+            }
+            for(String dataset : new HashSet<>(consumedDatasets)) {
+                if(consumers.containsKey(dataset)) {
+                    consumers.get(dataset).add(ps.getId());
+                }
+            }
+        }
+
+        for(String dataset : consumers.keySet()) {
+            if(consumers.get(dataset).size() > 1) {
+                // all consumers and the steps building on their results
+                Set<String> steps = new HashSet<>();
+                LinkedList<String> stepsToVisit = new LinkedList<>(consumers.get(dataset));
+                while(!stepsToVisit.isEmpty()) {
+                    String step = stepsToVisit.removeFirst();
+                    if(steps.add(step)) {
+                        stepsToVisit.addAll(successors.get(step));
+                    }
+                }
+                pendingSteps.put(dataset, steps);
+                SparkImporterLogger.getInstance().writeInfo("Dataset '" + dataset + "' is consumed by " + consumers.get(dataset).size() + " steps " + consumers.get(dataset) + " and will be persisted (" + storageLevel.description() + ").");
+            }
+        }
+    }
+
+    /**
+     * Persists the given dataset if it is consumed by more than one step.
+     *
+     * @param name the step ID or DATASET_INITIAL
+     * @return the dataset to be handed to the consumers
+     */
+    public synchronized Dataset<Row> datasetCreated(String name, Dataset<Row> dataset) {
+        if(dataset != null && pendingSteps.containsKey(name) && !persistedDatasets.containsKey(name)) {
+            persistedDatasets.put(name, dataset.persist(storageLevel));
+        }
+        return dataset;
+    }
+
+    /**
+     * Releases all persisted datasets no longer needed after the given step.
+     */
+    public synchronized void stepFinished(String stepId) {
+        for(String dataset : new ArrayList<>(pendingSteps.keySet())) {
+            Set<String> steps = pendingSteps.get(dataset);
+            steps.remove(stepId);
+            if(steps.isEmpty()) {
+                pendingSteps.remove(dataset);
+                release(dataset);
+            }
+        }
+    }
+
+    /**
+     * Releases all datasets which are still persisted, e.g. as some of their consumers have not been run.
+     */
+    public synchronized void releaseAll() {
+        for(String dataset : new ArrayList<>(persistedDatasets.keySet())) {
+            release(dataset);
+        }
+        pendingSteps.clear();
+    }
+
+    private void release(String name) {
+        Dataset<Row> dataset = persistedDatasets.remove(name);
+        if(dataset == null) {
+            return;
+        }
+        logStorageInfo(name, dataset);
+        dataset.unpersist();
+    }
+
+    private void logStorageInfo(String name, Dataset<Row> dataset) {
+        SparkSession sparkSession = dataset.sparkSession();
+        Option<CachedData> cachedData = sparkSession.sharedState().cacheManager().lookupCachedData(dataset);
+        if(cachedData.isEmpty()) {
+            return;
+        }
+
+        int rddId = cachedData.get().cachedRepresentation().cachedColumnBuffers().id();
+        for(RDDInfo rddInfo : sparkSession.sparkContext().getRDDStorageInfo()) {
+            if(rddInfo.id() == rddId) {
+                SparkImporterLogger.getInstance().writeInfo("Unpersisting dataset '" + name + "': "
+                        + rddInfo.numCachedPartitions() + "/" + rddInfo.numPartitions() + " partitions cached, "
+                        + (rddInfo.memSize() / 1024) + " KB in memory" + (storageLevel.useOffHeap() ? " (off-heap), " : ", ")
+                        + (rddInfo.diskSize() / 1024) + " KB on disk.");
+                return;
+            }
+        }
+        SparkImporterLogger.getInstance().writeInfo("Unpersisting dataset '" + name + "' which has not been cached.");
+    }
+}
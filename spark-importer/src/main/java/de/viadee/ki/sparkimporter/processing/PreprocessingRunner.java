@@ -1,13 +1,26 @@
 package de.viadee.ki.sparkimporter.processing;
 
+import de.viadee.ki.sparkimporter.processing.cache.StepResultCache;
+import de.viadee.ki.sparkimporter.processing.metrics.StepMetricsListener;
 import de.viadee.ki.sparkimporter.processing.steps.PipelineStep;
+import de.viadee.ki.sparkimporter.util.SparkImporterLogger;
+import de.viadee.ki.sparkimporter.util.SparkImporterVariables;
+import de.viadee.ki.sparkimporter.util.StepResultSnapshotWriter;
+import org.apache.spark.SparkContext;
 import org.apache.spark.sql.Dataset;
 import org.apache.spark.sql.Row;
+import org.apache.spark.sql.SparkSession;
+import org.apache.spark.storage.StorageLevel;
 
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 public class PreprocessingRunner {
 
@@ -17,7 +30,9 @@ public class PreprocessingRunner {
 
     public final static String DATASET_INITIAL = "initial";
 
-    public static final Map<String, Dataset<Row>> helper_datasets = new HashMap<>();
+    public final static String SCHEDULER_POOL_PREFIX = "pipeline_branch_";
+
+    public static final Map<String, Dataset<Row>> helper_datasets = new ConcurrentHashMap<>();
 
     public static boolean writeStepResultsIntoFile = false;
 
@@ -25,23 +40,283 @@ public class PreprocessingRunner {
 
     public static boolean minimalPipelineToBeBuild = false;
 
+    private static final String OUTPUT_STEPS_PACKAGE = "de.viadee.ki.sparkimporter.processing.steps.output";
+
+    private StepResultCache stepResultCache = null;
+
+    private DatasetPersistencePlanner persistencePlanner = null;
+
+    private StepMetricsListener stepMetricsListener = null;
+
     public PreprocessingRunner(){}
 
+    /**
+     * Runs all added steps. The steps have to be added in an order in which every step comes after the steps it
+     * depends on (see PipelineManager.getOrderedPipeline()). A chain of steps is run one step after another. If the
+     * pipeline branches, independent branches are submitted concurrently, each in its own Spark scheduler pool.
+     * Datasets consumed by more than one step are persisted while they are needed (see DatasetPersistencePlanner).
+     *
+     * A branched pipeline can have several steps without successors. Only the result of the last of the added steps is
+     * returned, the results of the other ones are only available through their own output (e.g. a step writing to disc).
+     *
+     * @param dataset the initial dataset
+     * @param dataLevel the data level of the run
+     * @return the result of the last step of the pipeline
+     */
     public Dataset<Row> run(Dataset<Row> dataset, String dataLevel) {
+        persistencePlanner = createPersistencePlanner();
+        dataset = persistencePlanner.datasetCreated(DATASET_INITIAL, dataset);
+
         helper_datasets.clear();
         helper_datasets.put(DATASET_INITIAL + "_" + dataLevel, dataset);
 
-        for(PipelineStep ps : this.pipelineSteps) {
+        try {
+            if(!isBranched()) {
+                if(stepResultCache != null) {
+                    return runCachedPipeline(dataset, dataLevel);
+                }
+                for(PipelineStep ps : this.pipelineSteps) {
+                    dataset = runStep(ps, dataset, dataLevel);
+                }
+                return dataset;
+            }
+
+            if(stepResultCache != null) {
+                SparkImporterLogger.getInstance().writeInfo("Step results are only cached for pipelines without branches.");
+            }
+            return runBranchedPipeline(dataset, dataLevel);
+        } finally {
+            StepResultSnapshotWriter.getInstance().awaitCompletion();
+            persistencePlanner.releaseAll();
+        }
+    }
+
+    private Dataset<Row> runStep(PipelineStep ps, Dataset<Row> dataset, String dataLevel) {
+        SparkContext sparkContext = SparkSession.builder().getOrCreate().sparkContext();
+        final long startMillis = System.currentTimeMillis();
+        if(stepMetricsListener != null) {
+            stepMetricsListener.stepStarted(sparkContext, ps);
+        }
+
+        try {
             if(ps.getPreprocessingStep() != null)
             dataset = ps.getPreprocessingStep().runPreprocessingStep(dataset, writeStepResultsIntoFile, dataLevel, ps.getStepParameters());
+        } finally {
+            if(stepMetricsListener != null) {
+                stepMetricsListener.stepFinished(sparkContext, ps, System.currentTimeMillis() - startMillis);
+            }
         }
+
+        dataset = persistencePlanner.datasetCreated(ps.getId(), dataset);
+        persistencePlanner.stepFinished(ps.getId());
         return dataset;
     }
 
+    private DatasetPersistencePlanner createPersistencePlanner() {
+        StorageLevel storageLevel = StorageLevel.NONE();
+        if(!SparkImporterVariables.STORAGE_LEVEL_NONE.equalsIgnoreCase(SparkImporterVariables.getPersistStorageLevel())) {
+            try {
+                storageLevel = StorageLevel.fromString(SparkImporterVariables.getPersistStorageLevel().toUpperCase());
+            } catch (IllegalArgumentException e) {
+                SparkImporterLogger.getInstance().writeWarn("Unknown storage level '" + SparkImporterVariables.getPersistStorageLevel() + "'. Datasets used by more than one step are not persisted.");
+            }
+        }
+        if(storageLevel.useOffHeap() && !SparkSession.builder().getOrCreate().sparkContext().getConf().getBoolean("spark.memory.offHeap.enabled", false)) {
+            SparkImporterLogger.getInstance().writeWarn("Storage level " + storageLevel.description() + " requires spark.memory.offHeap.enabled and spark.memory.offHeap.size to be set.");
+        }
+        return new DatasetPersistencePlanner(storageLevel.equals(StorageLevel.NONE()) ? new ArrayList<>() : this.pipelineSteps, storageLevel);
+    }
+
+    /**
+     * Runs a chain of steps and continues after the last step whose result is already cached. Steps writing data
+     * to a sink as well as all following ones and the last step of the pipeline always run.
+     */
+    private Dataset<Row> runCachedPipeline(Dataset<Row> dataset, String dataLevel) {
+        int cacheableSteps = this.pipelineSteps.size() - 1;
+        for(int i = 0; i < cacheableSteps; i++) {
+            if(this.pipelineSteps.get(i).getClassName() != null && this.pipelineSteps.get(i).getClassName().startsWith(OUTPUT_STEPS_PACKAGE)) {
+                cacheableSteps = i;
+                break;
+            }
+        }
+
+        List<String> stepKeys = new ArrayList<>();
+        String previousKey = stepResultCache.getInitialKey();
+        for(int i = 0; i < cacheableSteps; i++) {
+            previousKey = stepResultCache.keyOfStep(previousKey, this.pipelineSteps.get(i));
+            stepKeys.add(previousKey);
+        }
+
+        int firstStepToRun = 0;
+        for(int i = cacheableSteps - 1; i >= 0; i--) {
+            if(stepResultCache.contains(stepKeys.get(i))) {
+                SparkImporterLogger.getInstance().writeInfo("Continuing with cached result of step '" + this.pipelineSteps.get(i).getId() + "'.");
+                dataset = stepResultCache.load(stepKeys.get(i));
+                firstStepToRun = i + 1;
+                break;
+            }
+        }
+
+        for(int i = firstStepToRun; i < this.pipelineSteps.size(); i++) {
+            dataset = runStep(this.pipelineSteps.get(i), dataset, dataLevel);
+            if(i < cacheableSteps && dataset != null) {
+                dataset = stepResultCache.store(stepKeys.get(i), dataset, dataLevel);
+            }
+        }
+        return dataset;
+    }
+
+    private Dataset<Row> runBranchedPipeline(Dataset<Row> initialDataset, String dataLevel) {
+        Map<String, PipelineStep> stepsById = new HashMap<>();
+        Map<String, List<PipelineStep>> successors = new HashMap<>();
+        Map<String, Integer> openPredecessors = new HashMap<>();
+        for(PipelineStep ps : this.pipelineSteps) {
+            stepsById.put(ps.getId(), ps);
+            successors.put(ps.getId(), new ArrayList<>());
+        }
+        for(PipelineStep ps : this.pipelineSteps) {
+            int open = 0;
+            for(String predecessor : ps.getPredecessors()) {
+                if(stepsById.containsKey(predecessor)) {
+                    successors.get(predecessor).add(ps);
+                    open++;
+                }
+            }
+            openPredecessors.put(ps.getId(), open);
+        }
+
+        // each starting step and each additional successor of a step opens a new branch running in its own scheduler pool
+        Map<String, String> schedulerPools = new HashMap<>();
+        int branches = 0;
+        for(PipelineStep ps : this.pipelineSteps) {
+            if(!schedulerPools.containsKey(ps.getId())) {
+                schedulerPools.put(ps.getId(), SCHEDULER_POOL_PREFIX + branches++);
+            }
+            boolean firstSuccessor = true;
+            for(PipelineStep successor : successors.get(ps.getId())) {
+                if(schedulerPools.containsKey(successor.getId())) {
+                    continue;
+                }
+                if(firstSuccessor && successor.getPredecessors().get(0).equals(ps.getId())) {
+                    schedulerPools.put(successor.getId(), schedulerPools.get(ps.getId()));
+                    firstSuccessor = false;
+                } else if(successor.getPredecessors().get(0).equals(ps.getId())) {
+                    schedulerPools.put(successor.getId(), SCHEDULER_POOL_PREFIX + branches++);
+                }
+            }
+        }
+
+        SparkSession sparkSession = SparkSession.builder().getOrCreate();
+        if(!"FAIR".equals(sparkSession.sparkContext().getConf().get("spark.scheduler.mode", "FIFO"))) {
+            SparkImporterLogger.getInstance().writeInfo("The pipeline contains " + branches + " branches. Set spark.scheduler.mode to FAIR to let them share the cluster evenly.");
+        }
+
+        Map<String, Dataset<Row>> stepResults = new ConcurrentHashMap<>();
+        ExecutorService executorService = Executors.newFixedThreadPool(branches);
+        ExecutorCompletionService<PipelineStep> completionService = new ExecutorCompletionService<>(executorService);
+
+        int submittedSteps = 0;
+        for(PipelineStep ps : this.pipelineSteps) {
+            if(openPredecessors.get(ps.getId()) == 0) {
+                submitStep(completionService, ps, initialDataset, stepResults, schedulerPools.get(ps.getId()), dataLevel);
+                submittedSteps++;
+            }
+        }
+
+        List<String> lastSteps = new ArrayList<>();
+        for(PipelineStep ps : this.pipelineSteps) {
+            if(successors.get(ps.getId()).isEmpty()) {
+                lastSteps.add(ps.getId());
+            }
+        }
+        String resultStep = this.pipelineSteps.get(this.pipelineSteps.size() - 1).getId();
+        if(lastSteps.size() > 1) {
+            SparkImporterLogger.getInstance().writeInfo("The pipeline ends with the steps " + lastSteps + ". The result of step '" + resultStep
+                    + "' is returned, the results of the other ones are only available through their own output.");
+        }
+
+        try {
+            for(int finishedSteps = 0; finishedSteps < submittedSteps; finishedSteps++) {
+                PipelineStep finishedStep = completionService.take().get();
+
+                for(PipelineStep successor : successors.get(finishedStep.getId())) {
+                    int open = openPredecessors.get(successor.getId()) - 1;
+                    openPredecessors.put(successor.getId(), open);
+                    if(open == 0) {
+                        submitStep(completionService, successor, initialDataset, stepResults, schedulerPools.get(successor.getId()), dataLevel);
+                        submittedSteps++;
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Pipeline execution has been interrupted.", e);
+        } catch (ExecutionException e) {
+            SparkImporterLogger.getInstance().writeError("A pipeline step failed: " + e.getCause().getMessage());
+            throw new IllegalStateException("A pipeline step failed.", e.getCause());
+        } finally {
+            executorService.shutdownNow();
+        }
+
+        return stepResults.get(resultStep);
+    }
+
+    private void submitStep(ExecutorCompletionService<PipelineStep> completionService, PipelineStep ps, Dataset<Row> initialDataset,
+                            Map<String, Dataset<Row>> stepResults, String schedulerPool, String dataLevel) {
+        // the primary predecessor provides the input, the results of the other ones can be accessed in helper_datasets
+        final Dataset<Row> input = ps.getPredecessors().isEmpty() ? initialDataset : stepResults.get(ps.getPredecessors().get(0));
+        if(input == null && !ps.getPredecessors().isEmpty()) {
+            String message = "Step '" + ps.getId() + "' cannot run as its predecessor '" + ps.getPredecessors().get(0) + "' returned no result.";
+            SparkImporterLogger.getInstance().writeError(message);
+            throw new IllegalStateException(message);
+        }
+
+        completionService.submit(() -> {
+            SparkSession.builder().getOrCreate().sparkContext().setLocalProperty("spark.scheduler.pool", schedulerPool);
+
+            Dataset<Row> output = runStep(ps, input, dataLevel);
+            if(output != null) {
+                stepResults.put(ps.getId(), output);
+                helper_datasets.put(ps.getId() + "_" + dataLevel, output);
+            }
+            return ps;
+        });
+    }
+
+    private boolean isBranched() {
+        List<String> stepIds = new ArrayList<>();
+        Map<String, Integer> successorCount = new HashMap<>();
+        int startingSteps = 0;
+        for(PipelineStep ps : this.pipelineSteps) {
+            stepIds.add(ps.getId());
+        }
+        for(PipelineStep ps : this.pipelineSteps) {
+            List<String> predecessors = ps.getPredecessors();
+            predecessors.retainAll(stepIds);
+            if(predecessors.isEmpty()) {
+                startingSteps++;
+            } else if(predecessors.size() > 1) {
+                return true;
+            }
+            for(String predecessor : predecessors) {
+                successorCount.merge(predecessor, 1, Integer::sum);
+            }
+        }
+        return startingSteps > 1 || successorCount.values().stream().anyMatch(count -> count > 1);
+    }
+
     public void addPreprocessorStep(PipelineStep step) {
         this.pipelineSteps.add(step);
     }
 
+    public void setStepResultCache(StepResultCache stepResultCache) {
+        this.stepResultCache = stepResultCache;
+    }
+
+    public void setStepMetricsListener(StepMetricsListener stepMetricsListener) {
+        this.stepMetricsListener = stepMetricsListener;
+    }
+
     public static synchronized int getNextCounter() {
         return ++stepCounter;
     }
@@ -0,0 +1,97 @@
+package de.viadee.ki.sparkimporter.processing.aggregation;
+
+import de.viadee.ki.sparkimporter.util.SparkImporterVariables;
+import org.apache.spark.sql.Column;
+import org.apache.spark.sql.SparkSession;
+import org.apache.spark.sql.catalyst.FunctionIdentifier;
+import org.apache.spark.sql.catalyst.expressions.Expression;
+import org.apache.spark.sql.catalyst.expressions.ExpressionInfo;
+import scala.collection.Seq;
+import scala.runtime.AbstractFunction1;
+
+import java.util.Arrays;
+import java.util.function.Function;
+
+import static org.apache.spark.sql.functions.*;
+
+/**
+ * Aggregation functions used by the pipeline steps. They are built from Spark's own expressions, so Spark can use the
+ * hash based aggregation and generate code for them instead of calling a UserDefinedAggregateFunction per row.
+ *
+ * The functions are registered under the names of the former UDAFs (AllButEmptyString and ProcessState), so they can
+ * still be used in aggregation maps, with callUDF and in SQL.
+ */
+public final class AggregationFunctions {
+
+    public static final String ALL_BUT_EMPTY_STRING = "AllButEmptyString";
+    public static final String PROCESS_STATE = "ProcessState";
+
+    // Camunda process instance states in ascending precedence, the aggregated state is the one with the highest index
+    private static final String[] PROCESS_STATES = {
+            SparkImporterVariables.PROCESS_STATE_ACTIVE,
+            SparkImporterVariables.PROCESS_STATE_SUSPENDED,
+            SparkImporterVariables.PROCESS_STATE_COMPLETED,
+            SparkImporterVariables.PROCESS_STATE_EXTERNALLY_TERMINATED,
+            SparkImporterVariables.PROCESS_STATE_INTERNALLY_TERMINATED
+    };
+
+    private AggregationFunctions() {
+    }
+
+    /**
+     * Registers the aggregation functions in the function registry of the given session.
+     */
+    public static void register(SparkSession sparkSession) {
+        registerFunction(sparkSession, ALL_BUT_EMPTY_STRING, "Returns the first value which is neither null nor empty, an empty string if there is none.", AggregationFunctions::allButEmptyString);
+        registerFunction(sparkSession, PROCESS_STATE, "Returns the state with the highest precedence (ACTIVE < SUSPENDED < COMPLETED < EXTERNALLY_TERMINATED < INTERNALLY_TERMINATED), ACTIVE if there is none.", AggregationFunctions::processState);
+    }
+
+    /**
+     * @return the first value of the group which is neither null nor an empty string, an empty string if there is none
+     */
+    public static Column allButEmptyString(Column column) {
+        Column value = column.cast("string");
+        return coalesce(first(when(value.notEqual(""), value), true), lit(""));
+    }
+
+    /**
+     * @return the state of the group with the highest precedence, ACTIVE if the group contains no known state. The
+     * states are aggregated as their index in the precedence order, so the buffer only holds an int and merging two
+     * buffers is a max.
+     */
+    public static Column processState(Column column) {
+        Column state = column.cast("string");
+        Column ordinal = lit(null).cast("int");
+        for(int i = PROCESS_STATES.length - 1; i >= 0; i--) {
+            ordinal = when(state.equalTo(PROCESS_STATES[i]), lit(i)).otherwise(ordinal);
+        }
+
+        Column[] states = new Column[PROCESS_STATES.length];
+        for(int i = 0; i < PROCESS_STATES.length; i++) {
+            states[i] = lit(PROCESS_STATES[i]);
+        }
+        return coalesce(array(states).apply(max(ordinal)), lit(SparkImporterVariables.PROCESS_STATE_ACTIVE));
+    }
+
+    /**
+     * @return the index of the given state in the precedence order used by processState, -1 if it is not a known state
+     */
+    public static int processStateOrdinal(String state) {
+        return Arrays.asList(PROCESS_STATES).indexOf(state);
+    }
+
+    private static void registerFunction(SparkSession sparkSession, String name, String usage, Function<Column, Column> function) {
+        sparkSession.sessionState().functionRegistry().registerFunction(
+                new FunctionIdentifier(name),
+                new ExpressionInfo(AggregationFunctions.class.getName(), null, name, usage, ""),
+                new AbstractFunction1<Seq<Expression>, Expression>() {
+                    @Override
+                    public Expression apply(Seq<Expression> children) {
+                        if(children.size() != 1) {
+                            throw new IllegalArgumentException(name + " expects exactly one argument, got " + children.size() + ".");
+                        }
+                        return function.apply(new Column(children.head())).expr();
+                    }
+                });
+    }
+}
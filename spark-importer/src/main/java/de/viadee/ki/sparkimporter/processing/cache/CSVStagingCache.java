@@ -0,0 +1,101 @@
+package de.viadee.ki.sparkimporter.processing.cache;
+
+import de.viadee.ki.sparkimporter.util.SparkImporterLogger;
+import org.apache.commons.io.FileUtils;
+import org.apache.spark.sql.Dataset;
+import org.apache.spark.sql.Row;
+import org.apache.spark.sql.SaveMode;
+import org.apache.spark.sql.SparkSession;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Local Parquet copy of an imported CSV file after the initial cleanup, so repeated runs on the same file do not parse
+ * it again. The key of an entry is derived from the path, size and modification time of the file, the delimiter and
+ * the schema mode. A changed file therefore gets a new entry and the entry of its former version is removed.
+ */
+public class CSVStagingCache {
+
+    private static final String DATA_DIRECTORY = "data";
+    private static final String SOURCE_FILE = "_SOURCE";
+
+    private final String cacheDirectory;
+    private final long maxCacheSizeInBytes;
+    private final String source;
+    private final String key;
+
+    // entries used in the current run are never evicted
+    private final Set<String> usedKeys = new HashSet<>();
+
+    public CSVStagingCache(String cacheDirectory, long maxCacheSizeInMB, String inputPath, String delimiter, String schemaMode) {
+        this.cacheDirectory = cacheDirectory;
+        this.maxCacheSizeInBytes = maxCacheSizeInMB * 1024 * 1024;
+        this.source = inputPath + "|" + delimiter + "|" + schemaMode;
+        this.key = CacheEntries.md5(CacheEntries.fingerprintOfInput(inputPath) + "|" + delimiter + "|" + schemaMode);
+    }
+
+    public boolean contains() {
+        return new File(cacheDirectory, key + "/" + DATA_DIRECTORY + "/_SUCCESS").exists();
+    }
+
+    public Dataset<Row> load() {
+        File entry = new File(cacheDirectory, key);
+        CacheEntries.touch(entry);
+        usedKeys.add(key);
+
+        return SparkSession.builder().getOrCreate().read().parquet(new File(entry, DATA_DIRECTORY).getPath());
+    }
+
+    /**
+     * Writes the cleaned up CSV data into the cache and removes the entries of former versions of the file.
+     *
+     * @return the dataset read back from the cache, so the pipeline does not parse the CSV file again, or the given
+     * dataset if it could not be cached
+     */
+    public Dataset<Row> store(Dataset<Row> dataset) {
+        File entry = new File(cacheDirectory, key);
+        FileUtils.deleteQuietly(entry);
+
+        try {
+            dataset.write().mode(SaveMode.Overwrite).parquet(new File(entry, DATA_DIRECTORY).getPath());
+            FileUtils.writeStringToFile(new File(entry, SOURCE_FILE), source, StandardCharsets.UTF_8);
+        } catch (Exception e) {
+            SparkImporterLogger.getInstance().writeWarn("Could not stage CSV file as Parquet, continuing with the CSV file. Exception: " + e.getMessage());
+            FileUtils.deleteQuietly(entry);
+            return dataset;
+        }
+
+        CacheEntries.touch(entry);
+        usedKeys.add(key);
+        removeOutdatedEntries();
+        CacheEntries.evict(cacheDirectory, maxCacheSizeInBytes, usedKeys, "CSV staging cache");
+
+        return SparkSession.builder().getOrCreate().read().parquet(new File(entry, DATA_DIRECTORY).getPath());
+    }
+
+    private void removeOutdatedEntries() {
+        File[] entries = new File(cacheDirectory).listFiles(File::isDirectory);
+        if(entries == null) {
+            return;
+        }
+
+        for(File entry : entries) {
+            if(entry.getName().equals(key)) {
+                continue;
+            }
+            File sourceFile = new File(entry, SOURCE_FILE);
+            try {
+                if(sourceFile.exists() && source.equals(FileUtils.readFileToString(sourceFile, StandardCharsets.UTF_8))) {
+                    FileUtils.deleteQuietly(entry);
+                    SparkImporterLogger.getInstance().writeInfo("Removed outdated staged CSV file " + entry.getName() + " from CSV staging cache.");
+                }
+            } catch (IOException e) {
+                SparkImporterLogger.getInstance().writeWarn("Could not read source of staged CSV file " + entry.getName() + ": " + e.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package de.viadee.ki.sparkimporter.processing.cache;
+
+import de.viadee.ki.sparkimporter.util.SparkImporterLogger;
+import de.viadee.ki.sparkimporter.util.SparkImporterUtils;
+import org.apache.commons.io.FileUtils;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.LocatedFileStatus;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.RemoteIterator;
+import org.apache.spark.sql.SparkSession;
+
+import java.io.File;
+import java.io.IOException;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Helpers shared by the local caches. Each entry of a cache is a folder named by its key, the time of its last use is
+ * kept in a marker file inside the folder.
+ */
+class CacheEntries {
+
+    private static final String LAST_ACCESS_FILE = "_LAST_ACCESS";
+
+    private CacheEntries() {
+    }
+
+    static void touch(File entry) {
+        try {
+            FileUtils.touch(new File(entry, LAST_ACCESS_FILE));
+        } catch (IOException e) {
+            SparkImporterLogger.getInstance().writeWarn("Could not update last access of cache entry " + entry.getName() + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Removes the least recently used entries until the cache fits into its maximum size. Entries used in the current
+     * run are never removed.
+     *
+     * @param cacheName name of the cache used in the log messages
+     */
+    static void evict(String cacheDirectory, long maxCacheSizeInBytes, Set<String> usedKeys, String cacheName) {
+        File[] entries = new File(cacheDirectory).listFiles(File::isDirectory);
+        if(entries == null) {
+            return;
+        }
+
+        Map<File, Long> sizes = new HashMap<>();
+        long totalSize = 0;
+        for(File entry : entries) {
+            long size = FileUtils.sizeOfDirectory(entry);
+            sizes.put(entry, size);
+            totalSize += size;
+        }
+
+        // least recently used entries first
+        List<File> evictionCandidates = new ArrayList<>(Arrays.asList(entries));
+        evictionCandidates.sort(Comparator.comparingLong(CacheEntries::lastAccess));
+
+        for(File entry : evictionCandidates) {
+            if(totalSize <= maxCacheSizeInBytes) {
+                break;
+            }
+            if(usedKeys.contains(entry.getName())) {
+                continue;
+            }
+            FileUtils.deleteQuietly(entry);
+            totalSize -= sizes.get(entry);
+            SparkImporterLogger.getInstance().writeInfo("Evicted " + entry.getName() + " from " + cacheName + " (" + (sizes.get(entry) / 1024 / 1024) + " MB).");
+        }
+
+        if(totalSize > maxCacheSizeInBytes) {
+            SparkImporterLogger.getInstance().writeWarn(cacheName + " exceeds its maximum size as the entries of the current run need " + (totalSize / 1024 / 1024) + " MB.");
+        }
+    }
+
+    private static long lastAccess(File entry) {
+        File lastAccessFile = new File(entry, LAST_ACCESS_FILE);
+        return lastAccessFile.exists() ? lastAccessFile.lastModified() : entry.lastModified();
+    }
+
+    /**
+     * Fingerprints the input by the names, sizes and modification times of all files below the given path.
+     */
+    static String fingerprintOfInput(String inputPath) {
+        List<String> files = new ArrayList<>();
+        try {
+            Path path = new Path(inputPath);
+            FileSystem fileSystem = path.getFileSystem(SparkSession.builder().getOrCreate().sparkContext().hadoopConfiguration());
+            FileStatus status = fileSystem.getFileStatus(path);
+            if(status.isDirectory()) {
+                RemoteIterator<LocatedFileStatus> iterator = fileSystem.listFiles(path, true);
+                while(iterator.hasNext()) {
+                    LocatedFileStatus file = iterator.next();
+                    files.add(file.getPath().toString() + ":" + file.getLen() + ":" + file.getModificationTime());
+                }
+            } else {
+                files.add(status.getPath().toString() + ":" + status.getLen() + ":" + status.getModificationTime());
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not determine fingerprint of input " + inputPath, e);
+        }
+        Collections.sort(files);
+        return String.join(";", files);
+    }
+
+    static String md5(String value) {
+        try {
+            return SparkImporterUtils.getInstance().md5CecksumOfObject(value);
+        } catch (IOException | NoSuchAlgorithmException e) {
+            throw new IllegalStateException("Could not create cache key", e);
+        }
+    }
+}
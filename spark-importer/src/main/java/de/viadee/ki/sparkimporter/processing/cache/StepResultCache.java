@@ -0,0 +1,262 @@
+package de.viadee.ki.sparkimporter.processing.cache;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import de.viadee.ki.sparkimporter.configuration.Configuration;
+import de.viadee.ki.sparkimporter.configuration.util.ConfigurationUtils;
+import de.viadee.ki.sparkimporter.processing.PreprocessingRunner;
+import de.viadee.ki.sparkimporter.processing.steps.PipelineStep;
+import de.viadee.ki.sparkimporter.util.SparkBroadcastHelper;
+import de.viadee.ki.sparkimporter.util.SparkImporterLogger;
+import de.viadee.ki.sparkimporter.util.SparkImporterVariables;
+import org.apache.commons.io.FileUtils;
+import org.apache.spark.sql.Dataset;
+import org.apache.spark.sql.Row;
+import org.apache.spark.sql.SaveMode;
+import org.apache.spark.sql.SparkSession;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Local Parquet cache for the results of pipeline steps. The key of a step result is derived from the fingerprint and
+ * schema of the input data, the global settings of the run, the preprocessing configuration and the class and parameters of
+ * the step and all steps before it. A rerun with an unchanged pipeline prefix therefore continues from the cached
+ * result of the last unchanged step.
+ *
+ * Helper datasets and broadcast variables usually stay the same over several steps. They are only written with the
+ * entry of the step which changed them, later entries reference that entry.
+ */
+public class StepResultCache {
+
+    private static final String DATA_DIRECTORY = "data";
+    private static final String HELPER_DATASETS_DIRECTORY = "helper";
+    private static final String BROADCAST_VARIABLES_FILE = "broadcast_variables.ser";
+    private static final String REFERENCES_FILE = "references.json";
+
+    private final String cacheDirectory;
+    private final long maxCacheSizeInBytes;
+    private final String initialKey;
+    private final String configurationFingerprint;
+    private final Gson gson = new Gson();
+
+    // entries used in the current run are never evicted
+    private final Set<String> usedKeys = new HashSet<>();
+
+    // helper datasets and broadcast variables as last stored or loaded and the keys of the entries containing them
+    private final Map<String, Dataset<Row>> cachedHelperDatasets = new HashMap<>();
+    private byte[] cachedBroadcastVariables = null;
+    private References cachedReferences = new References();
+
+    public StepResultCache(String cacheDirectory, long maxCacheSizeInMB, String inputPath, String inputSchema, String dataLevel) {
+        this.cacheDirectory = cacheDirectory;
+        this.maxCacheSizeInBytes = maxCacheSizeInMB * 1024 * 1024;
+        this.configurationFingerprint = fingerprintOfConfiguration();
+        this.initialKey = CacheEntries.md5(CacheEntries.fingerprintOfInput(inputPath)
+                + "|" + inputSchema
+                + "|" + dataLevel
+                + "|" + SparkImporterVariables.getProcessFilterDefinitionId()
+                + "|" + SparkImporterVariables.getPipelineMode()
+                + "|" + SparkImporterVariables.isRevCountEnabled()
+                + "|" + SparkImporterVariables.isDevTypeCastCheckEnabled()
+                + "|" + SparkImporterVariables.isDevProcessStateColumnWorkaroundEnabled());
+    }
+
+    /**
+     * @return the key of the initial dataset, used as previous key for the first step
+     */
+    public String getInitialKey() {
+        return initialKey;
+    }
+
+    public String keyOfStep(String previousKey, PipelineStep step) {
+        return CacheEntries.md5(previousKey
+                + "|" + step.getClassName()
+                + "|" + gson.toJson(step.getStepParameters())
+                + "|" + configurationFingerprint);
+    }
+
+    public boolean contains(String key) {
+        File entry = new File(cacheDirectory, key);
+        if(!new File(entry, DATA_DIRECTORY + "/_SUCCESS").exists()) {
+            return false;
+        }
+
+        // the entries referenced can have been evicted
+        References references = readReferences(key);
+        if(references == null || references.broadcastVariables == null
+                || !new File(new File(cacheDirectory, references.broadcastVariables), BROADCAST_VARIABLES_FILE).exists()) {
+            return false;
+        }
+        for(Map.Entry<String, String> helperDataset : references.helperDatasets.entrySet()) {
+            if(!new File(helperDatasetPath(helperDataset.getValue(), helperDataset.getKey()), "_SUCCESS").exists()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Loads a cached step result and restores the broadcast variables and helper datasets as they were after the step.
+     */
+    @SuppressWarnings("unchecked")
+    public Dataset<Row> load(String key) {
+        SparkSession sparkSession = SparkSession.builder().getOrCreate();
+        File entry = new File(cacheDirectory, key);
+        References references = readReferences(key);
+
+        try {
+            byte[] broadcastVariablesBytes = FileUtils.readFileToByteArray(new File(new File(cacheDirectory, references.broadcastVariables), BROADCAST_VARIABLES_FILE));
+            try (ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(broadcastVariablesBytes))) {
+                Map<SparkBroadcastHelper.BROADCAST_VARIABLE, Object> broadcastVariables = (Map<SparkBroadcastHelper.BROADCAST_VARIABLE, Object>) ois.readObject();
+                for(SparkBroadcastHelper.BROADCAST_VARIABLE name : broadcastVariables.keySet()) {
+                    SparkBroadcastHelper.getInstance().broadcastVariable(name, broadcastVariables.get(name));
+                }
+            }
+            cachedBroadcastVariables = broadcastVariablesBytes;
+        } catch (IOException | ClassNotFoundException e) {
+            throw new IllegalStateException("Could not read broadcast variables of cached step result " + key, e);
+        }
+
+        cachedHelperDatasets.clear();
+        for(Map.Entry<String, String> helperDataset : references.helperDatasets.entrySet()) {
+            Dataset<Row> dataset = sparkSession.read().parquet(helperDatasetPath(helperDataset.getValue(), helperDataset.getKey()).getPath());
+            PreprocessingRunner.helper_datasets.put(helperDataset.getKey(), dataset);
+            cachedHelperDatasets.put(helperDataset.getKey(), dataset);
+        }
+        cachedReferences = references;
+
+        markUsed(key, references);
+
+        return sparkSession.read().parquet(new File(entry, DATA_DIRECTORY).getPath());
+    }
+
+    /**
+     * Writes a step result together with the current broadcast variables and helper datasets into the cache.
+     *
+     * @return the dataset read back from the cache, so following steps do not recompute the lineage, or the given
+     * dataset if it could not be cached
+     */
+    public Dataset<Row> store(String key, Dataset<Row> dataset, String dataLevel) {
+        SparkSession sparkSession = SparkSession.builder().getOrCreate();
+        File entry = new File(cacheDirectory, key);
+        FileUtils.deleteQuietly(entry);
+
+        References references = new References();
+        Map<String, Dataset<Row>> helperDatasets = new HashMap<>();
+        byte[] broadcastVariables;
+        try {
+            for(String helperDatasetName : PreprocessingRunner.helper_datasets.keySet()) {
+                if(helperDatasetName.equals(PreprocessingRunner.DATASET_INITIAL + "_" + dataLevel)) {
+                    continue;
+                }
+                Dataset<Row> helperDataset = PreprocessingRunner.helper_datasets.get(helperDatasetName);
+                helperDatasets.put(helperDatasetName, helperDataset);
+                if(helperDataset == cachedHelperDatasets.get(helperDatasetName)) {
+                    // unchanged since the last entry, so it is referenced
+                    references.helperDatasets.put(helperDatasetName, cachedReferences.helperDatasets.get(helperDatasetName));
+                } else {
+                    helperDataset
+                            .write()
+                            .mode(SaveMode.Overwrite)
+                            .parquet(helperDatasetPath(key, helperDatasetName).getPath());
+                    references.helperDatasets.put(helperDatasetName, key);
+                }
+            }
+
+            dataset.write().mode(SaveMode.Overwrite).parquet(new File(entry, DATA_DIRECTORY).getPath());
+
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (ObjectOutputStream oos = new ObjectOutputStream(bytes)) {
+                oos.writeObject(new HashMap<>(SparkBroadcastHelper.getInstance().getBroadcastVariables()));
+            }
+            broadcastVariables = bytes.toByteArray();
+            if(Arrays.equals(broadcastVariables, cachedBroadcastVariables)) {
+                references.broadcastVariables = cachedReferences.broadcastVariables;
+            } else {
+                FileUtils.writeByteArrayToFile(new File(entry, BROADCAST_VARIABLES_FILE), broadcastVariables);
+                references.broadcastVariables = key;
+            }
+
+            FileUtils.writeStringToFile(new File(entry, REFERENCES_FILE), gson.toJson(references), StandardCharsets.UTF_8);
+        } catch (Exception e) {
+            SparkImporterLogger.getInstance().writeWarn("Could not write step result into cache, continuing without caching it. Exception: " + e.getMessage());
+            FileUtils.deleteQuietly(entry);
+            return dataset;
+        }
+
+        cachedHelperDatasets.clear();
+        cachedHelperDatasets.putAll(helperDatasets);
+        cachedBroadcastVariables = broadcastVariables;
+        cachedReferences = references;
+
+        markUsed(key, references);
+        CacheEntries.evict(cacheDirectory, maxCacheSizeInBytes, usedKeys, "step result cache");
+
+        return sparkSession.read().parquet(new File(entry, DATA_DIRECTORY).getPath());
+    }
+
+    /**
+     * Updates the last access of the entry and of the entries it references, so a referenced entry is not evicted
+     * before the entries depending on it.
+     */
+    private void markUsed(String key, References references) {
+        Set<String> keys = new HashSet<>();
+        keys.add(key);
+        keys.add(references.broadcastVariables);
+        keys.addAll(references.helperDatasets.values());
+
+        for(String usedKey : keys) {
+            CacheEntries.touch(new File(cacheDirectory, usedKey));
+        }
+        usedKeys.addAll(keys);
+    }
+
+    private File helperDatasetPath(String key, String helperDatasetName) {
+        return new File(cacheDirectory, key + "/" + HELPER_DATASETS_DIRECTORY + "/" + helperDatasetName);
+    }
+
+    private References readReferences(String key) {
+        File referencesFile = new File(cacheDirectory, key + "/" + REFERENCES_FILE);
+        if(!referencesFile.exists()) {
+            return null;
+        }
+        try {
+            return gson.fromJson(FileUtils.readFileToString(referencesFile, StandardCharsets.UTF_8), References.class);
+        } catch (IOException | JsonParseException e) {
+            SparkImporterLogger.getInstance().writeWarn("Could not read references of cached step result " + key + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    private String fingerprintOfConfiguration() {
+        Configuration configuration = ConfigurationUtils.getInstance().getConfiguration();
+        if(configuration == null || configuration.getPreprocessingConfiguration() == null) {
+            return "";
+        }
+
+        // the pipeline steps themselves are part of the step keys, so a change in a later step keeps the keys of the earlier ones
+        JsonObject preprocessingConfiguration = gson.toJsonTree(configuration.getPreprocessingConfiguration()).getAsJsonObject();
+        preprocessingConfiguration.remove("pipeline_step_configuration");
+        return preprocessingConfiguration.toString();
+    }
+
+    /**
+     * Keys of the entries containing the broadcast variables and the helper datasets of an entry.
+     */
+    private static class References {
+        private String broadcastVariables = null;
+        private Map<String, String> helperDatasets = new HashMap<>();
+    }
+}
@@ -3,6 +3,8 @@ package de.viadee.ki.sparkimporter.processing.interfaces;
 import org.apache.spark.sql.Dataset;
 import org.apache.spark.sql.Row;
 
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 
 public interface PreprocessingStepInterface {
@@ -14,4 +16,14 @@ public interface PreprocessingStepInterface {
      * @return the resulting dataset of the processing step
      */
     Dataset<Row> runPreprocessingStep(Dataset<Row> dataSet, boolean writeStepResultIntoFile, String dataLevel, Map<String, Object> parameters);
+
+    /**
+     * Names (without data level) of the datasets in PreprocessingRunner.helper_datasets the step reads besides its
+     * input. Datasets consumed by more than one step are persisted during the run.
+     *
+     * @return the names of the consumed helper datasets
+     */
+    default List<String> getConsumedHelperDatasets() {
+        return Collections.emptyList();
+    }
 }
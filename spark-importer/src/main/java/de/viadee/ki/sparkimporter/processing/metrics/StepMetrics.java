@@ -0,0 +1,126 @@
+package de.viadee.ki.sparkimporter.processing.metrics;
+
+/**
+ * Metrics of one pipeline step, aggregated over all Spark tasks of the jobs the step triggered.
+ */
+public class StepMetrics {
+
+    private final String stepId;
+    private final String className;
+
+    private long wallTimeMillis = 0;
+    private int jobs = 0;
+    private int stages = 0;
+    private int tasks = 0;
+    private long inputRecords = 0;
+    private long outputRecords = 0;
+    private long shuffleReadBytes = 0;
+    private long shuffleReadRecords = 0;
+    private long shuffleWriteBytes = 0;
+    private long shuffleWriteRecords = 0;
+    private long memoryBytesSpilled = 0;
+    private long diskBytesSpilled = 0;
+    private long executorRunTimeMillis = 0;
+    private long jvmGcTimeMillis = 0;
+    private long peakExecutionMemory = 0;
+
+    public StepMetrics(String stepId, String className) {
+        this.stepId = stepId;
+        this.className = className;
+    }
+
+    public synchronized void addJob(int stages) {
+        this.jobs++;
+        this.stages += stages;
+    }
+
+    public synchronized void addTask(long inputRecords, long outputRecords, long shuffleReadBytes, long shuffleReadRecords,
+                                     long shuffleWriteBytes, long shuffleWriteRecords, long memoryBytesSpilled,
+                                     long diskBytesSpilled, long executorRunTimeMillis, long jvmGcTimeMillis,
+                                     long peakExecutionMemory) {
+        this.tasks++;
+        this.inputRecords += inputRecords;
+        this.outputRecords += outputRecords;
+        this.shuffleReadBytes += shuffleReadBytes;
+        this.shuffleReadRecords += shuffleReadRecords;
+        this.shuffleWriteBytes += shuffleWriteBytes;
+        this.shuffleWriteRecords += shuffleWriteRecords;
+        this.memoryBytesSpilled += memoryBytesSpilled;
+        this.diskBytesSpilled += diskBytesSpilled;
+        this.executorRunTimeMillis += executorRunTimeMillis;
+        this.jvmGcTimeMillis += jvmGcTimeMillis;
+        this.peakExecutionMemory = Math.max(this.peakExecutionMemory, peakExecutionMemory);
+    }
+
+    public String getStepId() {
+        return stepId;
+    }
+
+    public String getClassName() {
+        return className;
+    }
+
+    public long getWallTimeMillis() {
+        return wallTimeMillis;
+    }
+
+    public void setWallTimeMillis(long wallTimeMillis) {
+        this.wallTimeMillis = wallTimeMillis;
+    }
+
+    public int getJobs() {
+        return jobs;
+    }
+
+    public int getStages() {
+        return stages;
+    }
+
+    public int getTasks() {
+        return tasks;
+    }
+
+    public long getInputRecords() {
+        return inputRecords;
+    }
+
+    public long getOutputRecords() {
+        return outputRecords;
+    }
+
+    public long getShuffleReadBytes() {
+        return shuffleReadBytes;
+    }
+
+    public long getShuffleReadRecords() {
+        return shuffleReadRecords;
+    }
+
+    public long getShuffleWriteBytes() {
+        return shuffleWriteBytes;
+    }
+
+    public long getShuffleWriteRecords() {
+        return shuffleWriteRecords;
+    }
+
+    public long getMemoryBytesSpilled() {
+        return memoryBytesSpilled;
+    }
+
+    public long getDiskBytesSpilled() {
+        return diskBytesSpilled;
+    }
+
+    public long getExecutorRunTimeMillis() {
+        return executorRunTimeMillis;
+    }
+
+    public long getJvmGcTimeMillis() {
+        return jvmGcTimeMillis;
+    }
+
+    public long getPeakExecutionMemory() {
+        return peakExecutionMemory;
+    }
+}
@@ -0,0 +1,165 @@
+package de.viadee.ki.sparkimporter.processing.metrics;
+
+import com.google.gson.GsonBuilder;
+import de.viadee.ki.sparkimporter.processing.steps.PipelineStep;
+import de.viadee.ki.sparkimporter.util.SparkImporterLogger;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.spark.SparkContext;
+import org.apache.spark.executor.TaskMetrics;
+import org.apache.spark.scheduler.SparkListener;
+import org.apache.spark.scheduler.SparkListenerApplicationEnd;
+import org.apache.spark.scheduler.SparkListenerJobStart;
+import org.apache.spark.scheduler.SparkListenerTaskEnd;
+import scala.collection.JavaConversions;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * Attributes Spark jobs to the pipeline step that triggered them. Every step runs in a job group named after its ID
+ * (see PreprocessingRunner), the listener sums up the metrics of all tasks of the jobs in that group. As steps
+ * evaluate lazily, the work of a step is attributed to the step running the next action on its result.
+ *
+ * When the application ends, the metrics are written as JSON and in the Prometheus text format into the target folder.
+ */
+public class StepMetricsListener extends SparkListener {
+
+    public static final String METRICS_FILE_JSON = "step_metrics.json";
+    public static final String METRICS_FILE_PROMETHEUS = "step_metrics.prom";
+
+    private final String targetFolder;
+    private final Configuration hadoopConfiguration;
+
+    // metrics in the order the steps have been started
+    private final Map<String, StepMetrics> stepMetrics = new ConcurrentHashMap<>();
+    private final List<String> stepIds = new ArrayList<>();
+    private final Map<Integer, StepMetrics> stageMetrics = new ConcurrentHashMap<>();
+
+    public StepMetricsListener(String targetFolder, Configuration hadoopConfiguration) {
+        this.targetFolder = targetFolder;
+        this.hadoopConfiguration = hadoopConfiguration;
+    }
+
+    /**
+     * Sets the job group of the current thread to the step, so all jobs triggered by it are attributed to it.
+     */
+    public void stepStarted(SparkContext sparkContext, PipelineStep ps) {
+        synchronized (stepIds) {
+            if(!stepMetrics.containsKey(ps.getId())) {
+                stepIds.add(ps.getId());
+                stepMetrics.put(ps.getId(), new StepMetrics(ps.getId(), ps.getClassName()));
+            }
+        }
+        sparkContext.setJobGroup(ps.getId(), ps.getClassName(), false);
+    }
+
+    public void stepFinished(SparkContext sparkContext, PipelineStep ps, long wallTimeMillis) {
+        sparkContext.clearJobGroup();
+        stepMetrics.get(ps.getId()).setWallTimeMillis(wallTimeMillis);
+    }
+
+    @Override
+    public void onJobStart(SparkListenerJobStart jobStart) {
+        if(jobStart.properties() == null) {
+            return;
+        }
+        String jobGroup = jobStart.properties().getProperty("spark.jobGroup.id");
+        StepMetrics metrics = jobGroup != null ? stepMetrics.get(jobGroup) : null;
+        if(metrics != null) {
+            metrics.addJob(jobStart.stageIds().size());
+            for(Object stageId : JavaConversions.seqAsJavaList(jobStart.stageIds())) {
+                stageMetrics.put((Integer) stageId, metrics);
+            }
+        }
+    }
+
+    @Override
+    public void onTaskEnd(SparkListenerTaskEnd taskEnd) {
+        StepMetrics metrics = stageMetrics.get(taskEnd.stageId());
+        TaskMetrics taskMetrics = taskEnd.taskMetrics();
+        if(metrics == null || taskMetrics == null) {
+            return;
+        }
+        metrics.addTask(
+                taskMetrics.inputMetrics().recordsRead(),
+                taskMetrics.outputMetrics().recordsWritten(),
+                taskMetrics.shuffleReadMetrics().totalBytesRead(),
+                taskMetrics.shuffleReadMetrics().recordsRead(),
+                taskMetrics.shuffleWriteMetrics().bytesWritten(),
+                taskMetrics.shuffleWriteMetrics().recordsWritten(),
+                taskMetrics.memoryBytesSpilled(),
+                taskMetrics.diskBytesSpilled(),
+                taskMetrics.executorRunTime(),
+                taskMetrics.jvmGCTime(),
+                taskMetrics.peakExecutionMemory());
+    }
+
+    @Override
+    public void onApplicationEnd(SparkListenerApplicationEnd applicationEnd) {
+        // all task events have been processed at this point
+        List<StepMetrics> metrics = new ArrayList<>();
+        synchronized (stepIds) {
+            for(String stepId : stepIds) {
+                metrics.add(stepMetrics.get(stepId));
+            }
+        }
+        if(metrics.isEmpty()) {
+            return;
+        }
+
+        writeFile(METRICS_FILE_JSON, new GsonBuilder().setPrettyPrinting().create().toJson(metrics));
+        writeFile(METRICS_FILE_PROMETHEUS, toPrometheusText(metrics));
+        SparkImporterLogger.getInstance().writeInfo("Step metrics written to " + targetFolder + "/" + METRICS_FILE_JSON + " and " + METRICS_FILE_PROMETHEUS);
+    }
+
+    private String toPrometheusText(List<StepMetrics> metrics) {
+        StringBuilder sb = new StringBuilder();
+        appendMetric(sb, metrics, "wall_time_seconds", "Wall time of the step.", m -> m.getWallTimeMillis() / 1000.0);
+        appendMetric(sb, metrics, "jobs", "Number of Spark jobs triggered by the step.", m -> (double) m.getJobs());
+        appendMetric(sb, metrics, "tasks", "Number of Spark tasks run for the step.", m -> (double) m.getTasks());
+        appendMetric(sb, metrics, "input_records", "Records read from data sources.", m -> (double) m.getInputRecords());
+        appendMetric(sb, metrics, "output_records", "Records written to data sinks.", m -> (double) m.getOutputRecords());
+        appendMetric(sb, metrics, "shuffle_read_bytes", "Bytes read in shuffles.", m -> (double) m.getShuffleReadBytes());
+        appendMetric(sb, metrics, "shuffle_read_records", "Records read in shuffles.", m -> (double) m.getShuffleReadRecords());
+        appendMetric(sb, metrics, "shuffle_write_bytes", "Bytes written in shuffles.", m -> (double) m.getShuffleWriteBytes());
+        appendMetric(sb, metrics, "shuffle_write_records", "Records written in shuffles.", m -> (double) m.getShuffleWriteRecords());
+        appendMetric(sb, metrics, "memory_spilled_bytes", "Bytes spilled from memory.", m -> (double) m.getMemoryBytesSpilled());
+        appendMetric(sb, metrics, "disk_spilled_bytes", "Bytes spilled to disk.", m -> (double) m.getDiskBytesSpilled());
+        appendMetric(sb, metrics, "executor_run_time_seconds", "Summed run time of all tasks.", m -> m.getExecutorRunTimeMillis() / 1000.0);
+        appendMetric(sb, metrics, "jvm_gc_time_seconds", "Summed JVM garbage collection time of all tasks.", m -> m.getJvmGcTimeMillis() / 1000.0);
+        appendMetric(sb, metrics, "peak_execution_memory_bytes", "Peak execution memory of a single task.", m -> (double) m.getPeakExecutionMemory());
+        return sb.toString();
+    }
+
+    private void appendMetric(StringBuilder sb, List<StepMetrics> metrics, String name, String help, Function<StepMetrics, Double> value) {
+        String metricName = "sparkimporter_step_" + name;
+        sb.append("# HELP ").append(metricName).append(" ").append(help).append("\n");
+        sb.append("# TYPE ").append(metricName).append(" gauge\n");
+        for(StepMetrics m : metrics) {
+            sb.append(metricName)
+                    .append("{step=\"").append(m.getStepId().replace("\"", "\\\""))
+                    .append("\",class=\"").append(m.getClassName())
+                    .append("\"} ").append(value.apply(m)).append("\n");
+        }
+    }
+
+    private void writeFile(String fileName, String content) {
+        Path path = new Path(targetFolder, fileName);
+        try {
+            FileSystem fileSystem = path.getFileSystem(hadoopConfiguration);
+            try (FSDataOutputStream out = fileSystem.create(path, true)) {
+                out.write(content.getBytes(StandardCharsets.UTF_8));
+            }
+        } catch (IOException e) {
+            SparkImporterLogger.getInstance().writeError("Could not write step metrics to " + path + ": " + e.getMessage());
+        }
+    }
+}
@@ -3,6 +3,7 @@ package de.viadee.ki.sparkimporter.processing.steps;
 import de.viadee.ki.sparkimporter.exceptions.FaultyConfigurationException;
 import de.viadee.ki.sparkimporter.util.SparkImporterLogger;
 
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
@@ -13,12 +14,18 @@ public class PipelineManager {
     private List<PipelineStep> pipelineSteps;
     LinkedList<PipelineStep> orderedPipeline = new LinkedList<>();
 
+    private final Map<String, PipelineStep> pipelineStepsById = new HashMap<>();
+    private final Map<String, List<PipelineStep>> successors = new HashMap<>();
+
     public PipelineManager(List<PipelineStep> pipelineSteps) throws FaultyConfigurationException {
         this.pipelineSteps = pipelineSteps;
         buildPipeline();
         SparkImporterLogger.getInstance().writeInfo("Resulting pipeline from configuration: " + orderedPipeline.toString());
     }
 
+    /**
+     * @return all steps of the pipeline in an order in which every step comes after all steps it depends on
+     */
     public LinkedList<PipelineStep> getOrderedPipeline() {
         return orderedPipeline;
     }
@@ -26,61 +33,67 @@ public class PipelineManager {
     private void buildPipeline() throws FaultyConfigurationException {
 
         // check for unique IDs
-        Map<String, String> pipelineStepsIdCheck = new HashMap<>();
+        for(PipelineStep ps : pipelineSteps) {
+            if(pipelineStepsById.containsKey(ps.getId())) {
+                String message = "Duplicate step IDs found in step configuration!";
+                SparkImporterLogger.getInstance().writeError(message);
+                throw new FaultyConfigurationException(message);
+            }
+            pipelineStepsById.put(ps.getId(), ps);
+            successors.put(ps.getId(), new ArrayList<>());
+        }
 
-        // first element, search for the ones without a predecessor (should only be one)
+        // count the unresolved predecessors of each step and check that all of them exist
+        Map<String, Integer> openPredecessors = new HashMap<>();
+        int startingSteps = 0;
         for(PipelineStep ps : pipelineSteps) {
-            if(!ps.hasPredecessor()) {
-                if(orderedPipeline.size() > 0) {
-                    SparkImporterLogger.getInstance().writeError("More that one starting processing step found!");
-                } else {
-                    orderedPipeline.add(ps);
+            for(String predecessor : ps.getPredecessors()) {
+                if(!pipelineStepsById.containsKey(predecessor)) {
+                    String message = "Step '" + ps.getId() + "' depends on step '" + predecessor + "' which is not part of the pipeline. Please check the step configuration!";
+                    SparkImporterLogger.getInstance().writeError(message);
+                    throw new FaultyConfigurationException(message);
                 }
+                successors.get(predecessor).add(ps);
+            }
+            openPredecessors.put(ps.getId(), ps.getPredecessors().size());
+            if(!ps.hasPredecessor()) {
+                startingSteps++;
             }
-            pipelineStepsIdCheck.put(ps.getId(), ps.getClassName());
         }
-        if(orderedPipeline.size() == 0) {
+
+        if(startingSteps == 0) {
             String message = "No starting processing step found!";
             SparkImporterLogger.getInstance().writeError(message);
             throw new FaultyConfigurationException(message);
+        } else if(startingSteps > 1) {
+            SparkImporterLogger.getInstance().writeInfo("Found " + startingSteps + " starting processing steps. All of them are working on the initial dataset.");
         }
 
-        // check for unique IDs - continued
-        if(pipelineSteps.size() != pipelineStepsIdCheck.size()) {
-            String message = "Duplicate step IDs found in step configuration!";
-            SparkImporterLogger.getInstance().writeError(message);
-            throw new FaultyConfigurationException(message);
+        // add steps in configuration order as soon as all steps they depend on have been added
+        LinkedList<PipelineStep> readySteps = new LinkedList<>();
+        for(PipelineStep ps : pipelineSteps) {
+            if(!ps.hasPredecessor()) {
+                readySteps.add(ps);
+            }
         }
 
-        // add other steps
-        while(orderedPipeline.size() != pipelineSteps.size()) {
-
-            boolean elementFound = false;
-
-            pipelineloop:
-            for(PipelineStep ps : pipelineSteps) {
-                if (!orderedPipeline.contains(ps)) {
-                    int listIndex = 0;
-
-                    graphloop:
-                    for (PipelineStep psgraph : orderedPipeline) {
-                        if (ps.hasPredecessor() && ps.getDependsOn().equals(psgraph.getId())) {
-                            orderedPipeline.add(listIndex+1, ps);
-                            elementFound = true;
-                            continue pipelineloop;
-                        }
-                        listIndex++;
-                    }
-
+        while(!readySteps.isEmpty()) {
+            PipelineStep ps = readySteps.removeFirst();
+            orderedPipeline.add(ps);
 
+            for(PipelineStep successor : successors.get(ps.getId())) {
+                int open = openPredecessors.get(successor.getId()) - 1;
+                openPredecessors.put(successor.getId(), open);
+                if(open == 0) {
+                    readySteps.add(successor);
                 }
             }
+        }
 
-            if(!elementFound) {
-                String errorMessage = "Could not add all steps to pipeline. Please check the step configuration! Pipeline before exception: " + orderedPipeline.toString();
-                SparkImporterLogger.getInstance().writeError(errorMessage);
-                throw new FaultyConfigurationException(errorMessage);
-            }
+        if(orderedPipeline.size() != pipelineSteps.size()) {
+            String errorMessage = "Could not add all steps to pipeline as there is a circular dependency. Please check the step configuration! Pipeline before exception: " + orderedPipeline.toString();
+            SparkImporterLogger.getInstance().writeError(errorMessage);
+            throw new FaultyConfigurationException(errorMessage);
         }
     }
 }
@@ -4,6 +4,8 @@ import de.viadee.ki.sparkimporter.configuration.preprocessing.Step;
 import de.viadee.ki.sparkimporter.processing.interfaces.PreprocessingStepInterface;
 import de.viadee.ki.sparkimporter.util.SparkImporterLogger;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 
@@ -67,6 +69,25 @@ public class PipelineStep {
         return this.dependsOn != null && !this.dependsOn.equals("");
     }
 
+    /**
+     * A step can depend on multiple steps by listing their IDs comma separated in dependsOn. The first one is the
+     * primary predecessor whose result is passed into the step, the results of the other ones are available in
+     * PreprocessingRunner.helper_datasets under their step ID.
+     *
+     * @return the IDs of all steps this step depends on
+     */
+    public List<String> getPredecessors() {
+        List<String> predecessors = new ArrayList<>();
+        if(hasPredecessor()) {
+            for(String predecessor : dependsOn.split(",")) {
+                if(!predecessor.trim().equals("") && !predecessors.contains(predecessor.trim())) {
+                    predecessors.add(predecessor.trim());
+                }
+            }
+        }
+        return predecessors;
+    }
+
     public PreprocessingStepInterface getPreprocessingStep() {
         return preprocessingStep;
     }
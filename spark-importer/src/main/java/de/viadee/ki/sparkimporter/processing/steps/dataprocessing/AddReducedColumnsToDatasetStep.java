@@ -17,6 +17,11 @@ import java.util.stream.Stream;
 
 public class AddReducedColumnsToDatasetStep implements PreprocessingStepInterface {
 
+    @Override
+    public List<String> getConsumedHelperDatasets() {
+        return Arrays.asList(PreprocessingRunner.DATASET_INITIAL, "startColumns");
+    }
+
     @Override
     public Dataset<Row> runPreprocessingStep(Dataset<Row> dataset, boolean writeStepResultIntoFile, String dataLevel, Map<String, Object> parameters) {
 
@@ -4,7 +4,9 @@ import de.viadee.ki.sparkimporter.processing.interfaces.PreprocessingStepInterfa
 import de.viadee.ki.sparkimporter.util.SparkBroadcastHelper;
 import de.viadee.ki.sparkimporter.util.SparkImporterUtils;
 import de.viadee.ki.sparkimporter.util.SparkImporterVariables;
+import org.apache.spark.sql.Column;
 import org.apache.spark.sql.Dataset;
+import org.apache.spark.sql.RelationalGroupedDataset;
 import org.apache.spark.sql.Row;
 
 import java.util.*;
@@ -15,6 +17,8 @@ import static org.apache.spark.sql.functions.*;
 
 public class AddVariableColumnsStep implements PreprocessingStepInterface {
 
+    private static final String VARIABLE_VALUE = "variable_value";
+
     @Override
     public Dataset<Row> runPreprocessingStep(Dataset<Row> dataset, boolean writeStepResultIntoFile, String dataLevel, Map<String, Object> parameters) {
 
@@ -162,26 +166,65 @@ public class AddVariableColumnsStep implements PreprocessingStepInterface {
 
     private Dataset<Row> doAddVariableColumns(Dataset<Row> dataset, boolean writeStepResultIntoFile, String dataLevel) {
         Map<String, String> varMap = (Map<String, String>) SparkBroadcastHelper.getInstance().getBroadcastVariable(SparkBroadcastHelper.BROADCAST_VARIABLE.PROCESS_VARIABLES_ESCALATED);
-        Set<String> variables = varMap.keySet();
-
-        for(String v : variables) {
-            dataset = dataset.withColumn(v, when(dataset.col(SparkImporterVariables.VAR_PROCESS_INSTANCE_VARIABLE_NAME).equalTo(v),
-                    when(dataset.col(SparkImporterVariables.VAR_PROCESS_INSTANCE_VARIABLE_TYPE).equalTo("string"), dataset.col(SparkImporterVariables.VAR_TEXT))
-                            .when(dataset.col(SparkImporterVariables.VAR_PROCESS_INSTANCE_VARIABLE_TYPE).equalTo("null"), dataset.col(SparkImporterVariables.VAR_TEXT))
-                            .when(dataset.col(SparkImporterVariables.VAR_PROCESS_INSTANCE_VARIABLE_TYPE).equalTo("boolean"), dataset.col(SparkImporterVariables.VAR_LONG))
-                            .when(dataset.col(SparkImporterVariables.VAR_PROCESS_INSTANCE_VARIABLE_TYPE).equalTo("integer"), dataset.col(SparkImporterVariables.VAR_LONG))
-                            .when(dataset.col(SparkImporterVariables.VAR_PROCESS_INSTANCE_VARIABLE_TYPE).equalTo("long"), dataset.col(SparkImporterVariables.VAR_LONG))
-                            .when(dataset.col(SparkImporterVariables.VAR_PROCESS_INSTANCE_VARIABLE_TYPE).equalTo("double"), dataset.col(SparkImporterVariables.VAR_DOUBLE))
-                            .when(dataset.col(SparkImporterVariables.VAR_PROCESS_INSTANCE_VARIABLE_TYPE).equalTo("date"), dataset.col(SparkImporterVariables.VAR_LONG))
-                            .otherwise(dataset.col(SparkImporterVariables.VAR_TEXT2)))
-                    .otherwise(null));
-
-            //rev count is only relevant on process level
-            if(dataLevel.equals(SparkImporterVariables.DATA_LEVEL_PROCESS) && SparkImporterVariables.isRevCountEnabled()) {
-                dataset = dataset.withColumn(v+"_rev",
-                        when(dataset.col(SparkImporterVariables.VAR_PROCESS_INSTANCE_VARIABLE_NAME).equalTo(v), dataset.col(SparkImporterVariables.VAR_PROCESS_INSTANCE_VARIABLE_REVISION))
-                                .otherwise("0"));
+        List<Object> variables = new ArrayList<>(varMap.keySet());
+
+        //rev count is only relevant on process level
+        boolean addRevisionColumns = dataLevel.equals(SparkImporterVariables.DATA_LEVEL_PROCESS) && SparkImporterVariables.isRevCountEnabled();
+
+        if(!variables.isEmpty()) {
+            //pick the column containing the value according to the variable type once per row
+            Column type = dataset.col(SparkImporterVariables.VAR_PROCESS_INSTANCE_VARIABLE_TYPE);
+            dataset = dataset.withColumn(VARIABLE_VALUE,
+                    when(type.isin("string", "null"), dataset.col(SparkImporterVariables.VAR_TEXT))
+                            .when(type.isin("boolean", "integer", "long", "date"), dataset.col(SparkImporterVariables.VAR_LONG))
+                            .when(type.equalTo("double"), dataset.col(SparkImporterVariables.VAR_DOUBLE))
+                            .otherwise(dataset.col(SparkImporterVariables.VAR_TEXT2)));
+
+            //all other columns stay as they are, the name column is only kept for the process state workaround
+            List<String> valueColumns = Arrays.asList(
+                    SparkImporterVariables.VAR_PROCESS_INSTANCE_VARIABLE_NAME,
+                    SparkImporterVariables.VAR_PROCESS_INSTANCE_VARIABLE_TYPE,
+                    SparkImporterVariables.VAR_PROCESS_INSTANCE_VARIABLE_REVISION,
+                    SparkImporterVariables.VAR_DOUBLE,
+                    SparkImporterVariables.VAR_LONG,
+                    SparkImporterVariables.VAR_TEXT,
+                    SparkImporterVariables.VAR_TEXT2,
+                    VARIABLE_VALUE);
+            List<String> groupColumns = new ArrayList<>();
+            for(String column : dataset.columns()) {
+                if(!valueColumns.contains(column)
+                        || (column.equals(SparkImporterVariables.VAR_PROCESS_INSTANCE_VARIABLE_NAME) && SparkImporterVariables.isDevProcessStateColumnWorkaroundEnabled())) {
+                    groupColumns.add(column);
+                }
+            }
+
+            //one aggregation for all variables instead of one projection per variable, so the plan does not grow with each variable.
+            //as the variable updates have been aggregated before, there is at most one value per variable in each group.
+            RelationalGroupedDataset pivot = dataset
+                    .groupBy(groupColumns.stream().map(dataset::col).toArray(Column[]::new))
+                    .pivot(SparkImporterVariables.VAR_PROCESS_INSTANCE_VARIABLE_NAME, variables);
+            if(addRevisionColumns) {
+                //with more than one aggregation pivot names the columns <variable>_<aggregation>
+                dataset = pivot.agg(
+                        first(VARIABLE_VALUE, true).as(VARIABLE_VALUE),
+                        first(SparkImporterVariables.VAR_PROCESS_INSTANCE_VARIABLE_REVISION, true).as("rev"));
+            } else {
+                dataset = pivot.agg(first(VARIABLE_VALUE, true));
+            }
+
+            List<Column> columns = new ArrayList<>();
+            for(String column : groupColumns) {
+                columns.add(dataset.col(column));
+            }
+            for(Object v : variables) {
+                if(addRevisionColumns) {
+                    columns.add(dataset.col(v + "_" + VARIABLE_VALUE).as((String) v));
+                    columns.add(coalesce(dataset.col(v + "_rev"), lit("0")).as(v + "_rev"));
+                } else {
+                    columns.add(dataset.col((String) v));
+                }
             }
+            dataset = dataset.select(columns.toArray(new Column[0]));
         }
 
         //drop unnecesssary columns
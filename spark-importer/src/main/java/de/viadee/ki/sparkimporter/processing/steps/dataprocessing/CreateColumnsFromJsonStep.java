@@ -2,8 +2,9 @@ package de.viadee.ki.sparkimporter.processing.steps.dataprocessing;
 
 import com.fasterxml.jackson.core.JsonFactory;
 import com.fasterxml.jackson.core.JsonParser;
-import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.core.JsonToken;
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
 import de.viadee.ki.sparkimporter.configuration.Configuration;
 import de.viadee.ki.sparkimporter.configuration.preprocessing.PreprocessingConfiguration;
 import de.viadee.ki.sparkimporter.configuration.preprocessing.VariableConfiguration;
@@ -14,8 +15,10 @@ import de.viadee.ki.sparkimporter.util.SparkBroadcastHelper;
 import de.viadee.ki.sparkimporter.util.SparkImporterLogger;
 import de.viadee.ki.sparkimporter.util.SparkImporterUtils;
 import de.viadee.ki.sparkimporter.util.SparkImporterVariables;
-import org.apache.spark.api.java.function.FlatMapFunction;
+import org.apache.spark.api.java.function.MapFunction;
+import org.apache.spark.api.java.function.MapPartitionsFunction;
 import org.apache.spark.sql.Dataset;
+import org.apache.spark.sql.Encoders;
 import org.apache.spark.sql.Row;
 import org.apache.spark.sql.RowFactory;
 import org.apache.spark.sql.SparkSession;
@@ -25,14 +28,23 @@ import org.apache.spark.sql.types.Metadata;
 import org.apache.spark.sql.types.StructField;
 import org.apache.spark.sql.types.StructType;
 
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
 import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
 import java.util.*;
+import java.util.function.BiConsumer;
 
 import static de.viadee.ki.sparkimporter.util.SparkImporterVariables.VAR_PROCESS_INSTANCE_VARIABLE_NAME;
 import static de.viadee.ki.sparkimporter.util.SparkImporterVariables.VAR_PROCESS_INSTANCE_VARIABLE_TYPE;
 
 public class CreateColumnsFromJsonStep implements PreprocessingStepInterface {
 
+    // thread-safe, so one instance per executor JVM is used for all values
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
     @Override
     public Dataset<Row> runPreprocessingStep(Dataset<Row> dataset, boolean writeStepResultIntoFile, String dataLevel, Map<String, Object> parameterss) {
 
@@ -66,126 +78,67 @@ public class CreateColumnsFromJsonStep implements PreprocessingStepInterface {
             }
         }
 
-        final String[] finalVars = vars;
+        final List<String> finalVars = vars != null ? Arrays.asList(vars) : new ArrayList<>();
 
         String[] columns = dataset.columns();
         StructType schema = dataset.schema();
-        StructType newColumnsSchema = new StructType().add("column", DataTypes.StringType);
-
-        //first iteration to collect all columns to be added
-        Dataset<Row> newColumnsDataset = dataset.flatMap((FlatMapFunction<Row, Row>) row -> {
-            List<Row> newColumns = new ArrayList<>();
-            for (String c : columns) {
-                if (SparkImporterVariables.getPipelineMode().equals(SparkImporterVariables.PIPELINE_MODE_PREDICT) || Arrays.asList(finalVars).contains(c)) {
-                    //it was a variable, so try to parse as json
-                    ObjectMapper mapper = new ObjectMapper();
-                    JsonFactory factory = mapper.getFactory();
-                    JsonParser parser = null;
-                    JsonNode jsonParsed = null;
-                    try {
-                        String varColumn = row.getAs(c);
-                        if(varColumn != null) {
-                            parser = factory.createParser(varColumn);
-                            jsonParsed = mapper.readTree(parser);
-                        }
-                    } catch (IOException e) {
-                        // do nothing as we check if the result is null later
-                    }
 
-                    //check if parsing was successful and if so, handle it
-                    if (jsonParsed != null && jsonParsed.fieldNames().hasNext()) {
-                        //it is a json with fields
-                        Iterator<String> fieldNames = jsonParsed.fieldNames();
-                        while (fieldNames.hasNext()) {
-                            String fieldName = fieldNames.next();
-                            JsonNode value = jsonParsed.get(fieldName);
-                            //handle only first level and no object or array elements
-                            if (!value.isObject() && !value.isArray()) {
-                                String columnName = c + "_" + fieldName;
-                                newColumns.add(RowFactory.create(columnName));
-                            }
-                        }
-                    }
-                }
+        //indexes of the columns which might contain json, determined once instead of for each row
+        List<Integer> jsonColumnIndexList = new ArrayList<>();
+        for(int i = 0; i < columns.length; i++) {
+            if (SparkImporterVariables.getPipelineMode().equals(SparkImporterVariables.PIPELINE_MODE_PREDICT) || finalVars.contains(columns[i])) {
+                jsonColumnIndexList.add(i);
             }
-            return newColumns.iterator();
-        }, RowEncoder.apply(newColumnsSchema));
+        }
+        final int[] jsonColumnIndexes = jsonColumnIndexList.stream().mapToInt(Integer::intValue).toArray();
 
-        //get distinct names of new columns
-        newColumnsDataset = newColumnsDataset.select(newColumnsDataset.col("column")).distinct();
+        List<String> newColumns = discoverJsonColumns(dataset, jsonColumnIndexes);
 
-        List<Row> newColumnsAsRow = Arrays.asList((Row[]) newColumnsDataset.select(newColumnsDataset.col("column")).collect());
-        List<String> newColumns = new ArrayList<>();
+        //create new schema for resulting dataset and remember the position of each json field in the resulting rows
         StructType newSchema = schema;
-
-        //create new schema for resulting dataset
-        for(Row newColumnRow : newColumnsAsRow) {
-            newColumns.add(newColumnRow.getString(0));
-            newSchema = newSchema.add(newColumnRow.getString(0), DataTypes.StringType);
+        List<Map<String, Integer>> jsonFieldPositions = new ArrayList<>();
+        for(int jsonColumnIndex : jsonColumnIndexes) {
+            jsonFieldPositions.add(new HashMap<>());
         }
-        final StructType newSchema1 = newSchema;
-
-        //iterate through dataset and add all columns determined in step before
-        dataset = dataset.map(row -> {
-            List<String> newRowStrings = new ArrayList<>();
-            Map<String, String> newColumnValues = new HashMap<>();
-
-            for(String c : columns) {
-                String columnValue = null;
-                if (SparkImporterVariables.getPipelineMode().equals(SparkImporterVariables.PIPELINE_MODE_PREDICT) || Arrays.asList(finalVars).contains(c)) {
-                    //it was a variable, so try to parse as json
-                    ObjectMapper mapper = new ObjectMapper();
-                    JsonFactory factory = mapper.getFactory();
-                    JsonParser parser = null;
-                    JsonNode jsonParsed = null;
-                    try {
-                        parser = factory.createParser((String)row.getAs(c));
-                        jsonParsed = mapper.readTree(parser);
-                    } catch (IOException e) {
-                        //do nothing
-                    }
-
-                    // remember initial value
-                    columnValue = row.getAs(c);
-                    newColumnValues.put(c, columnValue);
-
-                    if(jsonParsed != null && jsonParsed.fieldNames().hasNext()) {
-
-                        //also remember initial value
-                        columnValue = row.getAs(c);
-                        newColumnValues.put(c, columnValue);
-
-                        //it is a json with fields
-                        Iterator<String> fieldNames = jsonParsed.fieldNames();
-                        while(fieldNames.hasNext()) {
-                            String fieldName = fieldNames.next();
-                            JsonNode value = jsonParsed.get(fieldName);
-                            if(!value.isObject() && !value.isArray()) {
-                                //handle only first level and no object or array elements
-                                String columnName = c + "_" + fieldName;
-                                if(newColumns.contains(columnName)) {
-                                    newColumnValues.put(columnName, value.asText());
-                                } else {
-                                    //should not happen found column not detected in step before
-                                    SparkImporterLogger.getInstance().writeError("Found column in json not found in step before: "+columnName);
-                                }
-                            }
-                        }
-                    }
-                } else {
-                    //it was a column, just use the value as it is
-                    columnValue = row.getAs(c);
-                    newColumnValues.put(c, columnValue);
+        for(String newColumn : newColumns) {
+            for(int j = 0; j < jsonColumnIndexes.length; j++) {
+                String prefix = columns[jsonColumnIndexes[j]] + "_";
+                if(newColumn.startsWith(prefix)) {
+                    jsonFieldPositions.get(j).put(newColumn.substring(prefix.length()), newSchema.size());
                 }
             }
+            newSchema = newSchema.add(newColumn, DataTypes.StringType);
+        }
+        final int rowLength = newSchema.size();
 
-            for(String f : newSchema1.fieldNames()) {
-                newRowStrings.add(newColumnValues.get(f));
+        //iterate through dataset and write the values of the json fields directly into their position of the new row
+        dataset = dataset.map((MapFunction<Row, Row>) row -> {
+            Object[] values = new Object[rowLength];
+            for(int i = 0; i < columns.length; i++) {
+                values[i] = row.get(i);
             }
 
-            return RowFactory.create(newRowStrings.toArray());
-        }, RowEncoder.apply(newSchema1));
+            for(int j = 0; j < jsonColumnIndexes.length; j++) {
+                Object columnValue = values[jsonColumnIndexes[j]];
+                Map<String, Integer> fieldPositions = jsonFieldPositions.get(j);
+                if(columnValue instanceof String && !fieldPositions.isEmpty()) {
+                    boolean isJson = parseJsonFields((String) columnValue, (fieldName, fieldValue) -> {
+                        Integer position = fieldPositions.get(fieldName);
+                        if(position != null) {
+                            values[position] = fieldValue;
+                        }
+                    });
+                    if(!isJson) {
+                        //the value is no valid json, so no field values are taken from it
+                        for(int position : fieldPositions.values()) {
+                            values[position] = null;
+                        }
+                    }
+                }
+            }
 
+            return RowFactory.create(values);
+        }, RowEncoder.apply(newSchema));
 
         if (SparkImporterVariables.getPipelineMode().equals(SparkImporterVariables.PIPELINE_MODE_LEARN)) {
             //create new Dataset
@@ -224,7 +177,7 @@ public class CreateColumnsFromJsonStep implements PreprocessingStepInterface {
 
             SparkSession sparkSession = SparkSession.builder().getOrCreate();
             Dataset<Row> helpDataSet = sparkSession.createDataFrame(filteredVariablesRows, schemaVars).toDF().orderBy(VAR_PROCESS_INSTANCE_VARIABLE_NAME);
-            SparkImporterUtils.getInstance().writeDatasetToCSV(helpDataSet, "variable_types_after_json_escalated");
+            SparkImporterUtils.getInstance().writeMetadataToCSV(helpDataSet, "variable_types_after_json_escalated");
 
             if(writeStepResultIntoFile) {
                 SparkImporterUtils.getInstance().writeDatasetToCSV(dataset, "create_columns_from_json");
@@ -234,6 +187,109 @@ public class CreateColumnsFromJsonStep implements PreprocessingStepInterface {
         return dataset;
     }
 
+    /**
+     * Determines the columns to be created from json fields. Depending on the json field discovery option the fields
+     * are collected from all rows, from a sample of the rows or taken from the file written by an earlier run.
+     */
+    private List<String> discoverJsonColumns(Dataset<Row> dataset, int[] jsonColumnIndexes) {
+        String discovery = SparkImporterVariables.getJsonFieldDiscovery();
+        File jsonFieldsFile = new File(SparkImporterVariables.getWorkingDirectory(), SparkImporterVariables.JSON_FIELDS_FILE);
+
+        if(SparkImporterVariables.JSON_FIELD_DISCOVERY_PERSISTED.equals(discovery)) {
+            if(jsonFieldsFile.exists()) {
+                try (Reader reader = new FileReader(jsonFieldsFile)) {
+                    List<String> newColumns = Arrays.asList(new Gson().fromJson(reader, String[].class));
+                    SparkImporterLogger.getInstance().writeInfo("Using " + newColumns.size() + " json fields from " + jsonFieldsFile.getPath() + ".");
+                    return newColumns;
+                } catch (IOException | JsonParseException e) {
+                    SparkImporterLogger.getInstance().writeWarn("Could not read json fields from " + jsonFieldsFile.getPath() + ", discovering them from the data. Exception: " + e.getMessage());
+                }
+            } else {
+                SparkImporterLogger.getInstance().writeInfo("No json fields found at " + jsonFieldsFile.getPath() + ", discovering them from the data.");
+            }
+        } else if(discovery != null && discovery.startsWith(SparkImporterVariables.JSON_FIELD_DISCOVERY_SAMPLE)) {
+            try {
+                double fraction = Double.parseDouble(discovery.substring(SparkImporterVariables.JSON_FIELD_DISCOVERY_SAMPLE.length()));
+                if(fraction > 0 && fraction < 1) {
+                    dataset = dataset.sample(false, fraction);
+                }
+            } catch (NumberFormatException e) {
+                SparkImporterLogger.getInstance().writeWarn("Invalid json field discovery sample '" + discovery + "'. All data is scanned for json fields.");
+            }
+        } else if(!SparkImporterVariables.JSON_FIELD_DISCOVERY_FULL.equals(discovery)) {
+            SparkImporterLogger.getInstance().writeWarn("Unknown json field discovery '" + discovery + "'. All data is scanned for json fields.");
+        }
+
+        String[] columns = dataset.columns();
+
+        //collect the fields found in each partition, so each field is only shuffled once per partition
+        Dataset<String> newColumnsDataset = dataset.mapPartitions((MapPartitionsFunction<Row, String>) rows -> {
+            Set<String> newColumns = new HashSet<>();
+            while(rows.hasNext()) {
+                Row row = rows.next();
+                for(int jsonColumnIndex : jsonColumnIndexes) {
+                    Object columnValue = row.get(jsonColumnIndex);
+                    if(columnValue instanceof String) {
+                        Set<String> fieldNames = new HashSet<>();
+                        if(parseJsonFields((String) columnValue, (fieldName, fieldValue) -> fieldNames.add(fieldName))) {
+                            for(String fieldName : fieldNames) {
+                                newColumns.add(columns[jsonColumnIndex] + "_" + fieldName);
+                            }
+                        }
+                    }
+                }
+            }
+            return newColumns.iterator();
+        }, Encoders.STRING());
+
+        //get distinct names of new columns
+        List<String> newColumns = newColumnsDataset.distinct().collectAsList();
+
+        if(SparkImporterVariables.getPipelineMode().equals(SparkImporterVariables.PIPELINE_MODE_LEARN)) {
+            try (Writer writer = new FileWriter(jsonFieldsFile)) {
+                new Gson().toJson(newColumns, writer);
+            } catch (IOException e) {
+                SparkImporterLogger.getInstance().writeWarn("Could not write json fields to " + jsonFieldsFile.getPath() + ": " + e.getMessage());
+            }
+        }
+
+        return newColumns;
+    }
+
+    /**
+     * Reads the first level fields of a json object with a streaming parser. Object and array values are skipped.
+     *
+     * @return false if the value is no json object with at least one field. Field values might have been passed to the
+     * consumer before an invalid part of the value has been reached.
+     */
+    private static boolean parseJsonFields(String value, BiConsumer<String, String> fieldConsumer) {
+        try (JsonParser parser = JSON_FACTORY.createParser(value)) {
+            if(parser.nextToken() != JsonToken.START_OBJECT) {
+                return false;
+            }
+
+            boolean hasFields = false;
+            JsonToken token;
+            while((token = parser.nextToken()) == JsonToken.FIELD_NAME) {
+                String fieldName = parser.getCurrentName();
+                token = parser.nextToken();
+                hasFields = true;
+                if(token == JsonToken.START_OBJECT || token == JsonToken.START_ARRAY) {
+                    //handle only first level and no object or array elements
+                    parser.skipChildren();
+                } else if(token == JsonToken.VALUE_NUMBER_FLOAT) {
+                    //same representation as a parsed double
+                    fieldConsumer.accept(fieldName, String.valueOf(parser.getDoubleValue()));
+                } else {
+                    fieldConsumer.accept(fieldName, parser.getText());
+                }
+            }
+            return hasFields && token == JsonToken.END_OBJECT;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
     private Dataset<Row> doFilterJsonVariables(Dataset<Row> dataset) {
         //read all variables to filter again. They contain also variables that resulted from Json parsing and are not columns, so they can just be dropped
         List<String> variablesToFilter = new ArrayList<>();
@@ -237,7 +237,7 @@ public class DetermineProcessVariablesStep implements PreprocessingStepInterface
 
         SparkImporterLogger.getInstance().writeInfo("Found " + helpDataSet.count() + " process variables.");
 
-        SparkImporterUtils.getInstance().writeDatasetToCSV(helpDataSet, "variable_types_escalated");
+        SparkImporterUtils.getInstance().writeMetadataToCSV(helpDataSet, "variable_types_escalated");
 
         return dataset;
     }
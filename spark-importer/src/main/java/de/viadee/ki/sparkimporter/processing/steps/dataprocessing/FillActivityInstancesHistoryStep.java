@@ -4,16 +4,18 @@ import de.viadee.ki.sparkimporter.processing.interfaces.PreprocessingStepInterfa
 import de.viadee.ki.sparkimporter.util.SparkBroadcastHelper;
 import de.viadee.ki.sparkimporter.util.SparkImporterUtils;
 import de.viadee.ki.sparkimporter.util.SparkImporterVariables;
+import org.apache.spark.sql.Column;
 import org.apache.spark.sql.Dataset;
 import org.apache.spark.sql.Row;
-import org.apache.spark.sql.RowFactory;
-import org.apache.spark.sql.catalyst.encoders.RowEncoder;
+import org.apache.spark.sql.expressions.Window;
+import org.apache.spark.sql.expressions.WindowSpec;
 
 import java.util.Arrays;
-import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
+import static org.apache.spark.sql.functions.first;
 import static org.apache.spark.sql.functions.when;
 
 public class FillActivityInstancesHistoryStep implements PreprocessingStepInterface {
@@ -24,65 +26,34 @@ public class FillActivityInstancesHistoryStep implements PreprocessingStepInterf
         // get variables
         Map<String, String> varMap = (Map<String, String>) SparkBroadcastHelper.getInstance().getBroadcastVariable(SparkBroadcastHelper.BROADCAST_VARIABLE.PROCESS_VARIABLES_ESCALATED);
 
-        //convert to String array so it is serializable and can be used in map function
         Set<String> variables = varMap.keySet();
-        String[] vars = new String[variables.size()];
-        int vc = 0;
-        for(String v : variables) {
-            vars[vc++] = v;
-        }
+        List<String> columns = Arrays.asList(dataset.columns());
 
         // make empty values actually null
         for(String v : variables) {
-            if(Arrays.asList(dataset.columns()).contains(v)) {
+            if(columns.contains(v)) {
                 dataset = dataset.withColumn(v, when(dataset.col(v).equalTo(""), null).otherwise(dataset.col(v)));
             }
         }
 
-        Map<String, String> valuesToWrite = new HashMap<>();
-        final String[] lastProcessInstanceId = {""};
-        String[] columns = dataset.columns();
-
-        //repartition py process instance and order by start_time for this operation
-        dataset = dataset.repartition(dataset.col(SparkImporterVariables.VAR_PROCESS_INSTANCE_ID)).sortWithinPartitions(SparkImporterVariables.VAR_START_TIME);
-
-        //iterate through dataset and fill up values in each process instance
-        dataset = dataset.map(row -> {
-            String currentProcessInstanceId = row.getAs(SparkImporterVariables.VAR_PROCESS_INSTANCE_ID);
-            String[] newRow = new String[columns.length];
-
-            //check if we switch to a new process instance
-            if(!lastProcessInstanceId[0].equals(currentProcessInstanceId)) {
-                // new process instance
-                valuesToWrite.clear();
-                lastProcessInstanceId[0] = currentProcessInstanceId;
+        //all activity instances of a process instance up to the current one ordered by start_time
+        WindowSpec processInstanceHistory = Window
+                .partitionBy(SparkImporterVariables.VAR_PROCESS_INSTANCE_ID)
+                .orderBy(SparkImporterVariables.VAR_START_TIME)
+                .rowsBetween(Window.unboundedPreceding(), Window.currentRow());
+
+        //fill up values in each process instance with the first value set in an earlier activity instance,
+        //all columns are computed in one projection so the data is only shuffled and sorted once
+        Column[] filledColumns = new Column[columns.size()];
+        for(int i = 0; i < columns.size(); i++) {
+            String c = columns.get(i);
+            if(variables.contains(c)) {
+                filledColumns[i] = first(dataset.col(c), true).over(processInstanceHistory).as(c);
+            } else {
+                filledColumns[i] = dataset.col(c);
             }
-
-            int columnCount = 0;
-            for(String c : columns) {
-                String columnValue = null;
-                if(Arrays.asList(vars).contains(c)) {
-                    //it was a variable
-                    if(valuesToWrite.get(c) != null) {
-                        // we already have a value for the current process instance, so we use it
-                        columnValue = valuesToWrite.get(c);
-                    } else {
-                        // we don't have a value yet for the current process instance
-                        String currentValue = row.getAs(c);
-                        if(currentValue != null) {
-                            valuesToWrite.put(c, currentValue);
-                            columnValue = currentValue;
-                        }
-                    }
-                } else {
-                    //it was a column, just use the value as it is
-                    columnValue = row.getAs(c);
-                }
-                newRow[columnCount++] = columnValue;
-            }
-
-            return RowFactory.create(newRow);
-        }, RowEncoder.apply(dataset.schema()));
+        }
+        dataset = dataset.select(filledColumns);
 
         if(writeStepResultIntoFile) {
             SparkImporterUtils.getInstance().writeDatasetToCSV(dataset, "fill_activity_instances_history");
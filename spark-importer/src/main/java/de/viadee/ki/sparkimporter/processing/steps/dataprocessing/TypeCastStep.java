@@ -10,21 +10,28 @@ import de.viadee.ki.sparkimporter.util.SparkBroadcastHelper;
 import de.viadee.ki.sparkimporter.util.SparkImporterLogger;
 import de.viadee.ki.sparkimporter.util.SparkImporterUtils;
 import de.viadee.ki.sparkimporter.util.SparkImporterVariables;
+import org.apache.spark.sql.Column;
 import org.apache.spark.sql.Dataset;
 import org.apache.spark.sql.Row;
 import org.apache.spark.sql.types.DataType;
 import org.apache.spark.sql.types.DataTypes;
 import org.apache.spark.sql.types.StructField;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import static org.apache.spark.sql.functions.*;
 
 public class TypeCastStep implements PreprocessingStepInterface {
 
+    private static final String CAST_ERROR = "CAST_ERROR?";
+
     @Override
     public Dataset<Row> runPreprocessingStep(Dataset<Row> dataset, boolean writeStepResultIntoFile, String dataLevel, Map<String, Object> parameters) {
 
@@ -58,6 +65,15 @@ public class TypeCastStep implements PreprocessingStepInterface {
             }
         }
 
+        // cast expressions of all columns, they are applied in one projection
+        Map<String, Column> castedColumns = new HashMap<>();
+
+        // columns with a changed datatype to be checked for cast errors and their configured datatype
+        Map<String, String> columnsToCheck = new LinkedHashMap<>();
+
+        // revision columns of former variables to be cast, revisions columns only exist on process level
+        Set<String> revisionColumnsToCast = new HashSet<>();
+
         for(String column : dataset.columns()) {
 
             // skip revision columns as they are handled for each variable column
@@ -87,36 +103,40 @@ public class TypeCastStep implements PreprocessingStepInterface {
 
             newDataType = mapDataType(datasetFields, column, configurationDataType);
 
+            // cast without checking the cast result, entries are null is spark can't cast it
+            castedColumns.put(column, castColumn(dataset, column, newDataType, configurationParseFormat));
+
             // only check for cast errors if dev feature is enabled and if a change in the datatype has been done
             if(SparkImporterVariables.isDevTypeCastCheckEnabled() && !newDataType.equals(getCurrentDataType(datasetFields, column))) {
-                // add a column with casted value to be able to check the cast results
-                dataset = castColumn(dataset, column, column+"_casted", newDataType, configurationParseFormat);
-
-                // add a column for cast results and write CAST_ERROR? in it if there might be a cast error
-                dataset = dataset.withColumn(column+"_castresult",
-                        when(dataset.col(column).isNotNull().and(dataset.col(column).notEqual(lit(""))),
-                                when(dataset.col(column+"_casted").isNull(), lit("CAST_ERROR?"))
-                                        .otherwise(lit(""))
-                        ).otherwise(lit(""))
-                );
-
-                // check for cast errors and write warning to application log
-                if(dataset.filter(column+"_castresult == 'CAST_ERROR?'").count() > 0) {
-                    SparkImporterLogger.getInstance().writeWarn("Column '" + column + "' seems to have cast errors. Please check the data type (is defined as '" + configurationDataType + "')");
-                } else {
-                    // drop help columns as there are no cast errors for this column and rename casted column to actual column name
-                    dataset = dataset.drop(column, column+"_castresult").withColumnRenamed(column+"_casted", column);
-                }
-            } else {
-                // cast without checking the cast result, entries are null is spark can't cast it
-                dataset = castColumn(dataset, column, column, newDataType, configurationParseFormat);
+                columnsToCheck.put(column, configurationDataType);
             }
 
-            // cast revision columns for former variables, revisions columns only exist on process level
             if(dataLevel.equals(SparkImporterVariables.DATA_LEVEL_PROCESS) && SparkImporterVariables.isRevCountEnabled() && isVariableColumn) {
-                dataset = dataset.withColumn(column+"_rev", dataset.col(column+"_rev").cast("integer"));
+                revisionColumnsToCast.add(column + "_rev");
+            }
+        }
+
+        Set<String> columnsWithCastErrors = findColumnsWithCastErrors(dataset, columnsToCheck, castedColumns);
+
+        List<Column> columns = new ArrayList<>();
+        List<Column> castCheckColumns = new ArrayList<>();
+        for(String column : dataset.columns()) {
+            if(revisionColumnsToCast.contains(column)) {
+                columns.add(dataset.col(column).cast("integer").as(column));
+            } else if(!castedColumns.containsKey(column)) {
+                columns.add(dataset.col(column));
+            } else if(columnsWithCastErrors.contains(column)) {
+                // keep the original column and add the casted values and the cast results to be able to check them
+                columns.add(dataset.col(column));
+                castCheckColumns.add(castedColumns.get(column).as(column + "_casted"));
+                castCheckColumns.add(castResult(dataset.col(column), castedColumns.get(column)).as(column + "_castresult"));
+            } else {
+                columns.add(castedColumns.get(column).as(column));
             }
         }
+        columns.addAll(castCheckColumns);
+
+        dataset = dataset.select(columns.toArray(new Column[0]));
 
         if(writeStepResultIntoFile) {
             SparkImporterUtils.getInstance().writeDatasetToCSV(dataset, "type_cast_columns");
@@ -126,29 +146,68 @@ public class TypeCastStep implements PreprocessingStepInterface {
         return dataset;
     }
 
-    private Dataset castColumn(Dataset<Row> dataset, String columnToCast, String castColumnName, DataType newDataType, String parseFormat) {
+    /**
+     * Counts for all given columns in one aggregation how many values could not be cast and writes a warning for each
+     * column with cast errors.
+     *
+     * @return the columns with cast errors
+     */
+    private Set<String> findColumnsWithCastErrors(Dataset<Row> dataset, Map<String, String> columnsToCheck, Map<String, Column> castedColumns) {
+        Set<String> columnsWithCastErrors = new HashSet<>();
+        if(columnsToCheck.isEmpty()) {
+            return columnsWithCastErrors;
+        }
+
+        List<Column> castErrorCounts = new ArrayList<>();
+        for(String column : columnsToCheck.keySet()) {
+            castErrorCounts.add(count(when(castResult(dataset.col(column), castedColumns.get(column)).equalTo(CAST_ERROR), true)));
+        }
+        Row castErrors = dataset.agg(castErrorCounts.get(0), castErrorCounts.subList(1, castErrorCounts.size()).toArray(new Column[0])).head();
+
+        int i = 0;
+        for(String column : columnsToCheck.keySet()) {
+            if(castErrors.getLong(i++) > 0) {
+                SparkImporterLogger.getInstance().writeWarn("Column '" + column + "' seems to have cast errors. Please check the data type (is defined as '" + columnsToCheck.get(column) + "')");
+                columnsWithCastErrors.add(column);
+            }
+        }
+
+        return columnsWithCastErrors;
+    }
+
+    /**
+     * @return CAST_ERROR? if there is a value which could not be cast, otherwise an empty string
+     */
+    private Column castResult(Column column, Column castedColumn) {
+        return when(column.isNotNull().and(column.notEqual(lit(""))),
+                when(castedColumn.isNull(), lit(CAST_ERROR))
+                        .otherwise(lit(""))
+        ).otherwise(lit(""));
+    }
+
+    private Column castColumn(Dataset<Row> dataset, String columnToCast, DataType newDataType, String parseFormat) {
 
-        Dataset<Row> newDataset = dataset;
+        Column castedColumn;
 
         if(newDataType.equals(DataTypes.DateType)) {
             if(parseFormat != null && !parseFormat.equals("")) {
                 // parse format given in config, so use it
-                newDataset = dataset.withColumn(castColumnName, when(callUDF("isalong", dataset.col(columnToCast)), to_date(from_unixtime(callUDF("timestampstringtolong", dataset.col(columnToCast))), parseFormat)).otherwise(to_date(dataset.col(columnToCast), parseFormat)));
+                castedColumn = when(callUDF("isalong", dataset.col(columnToCast)), to_date(from_unixtime(callUDF("timestampstringtolong", dataset.col(columnToCast))), parseFormat)).otherwise(to_date(dataset.col(columnToCast), parseFormat));
             } else {
-                newDataset = dataset.withColumn(castColumnName, when(callUDF("isalong", dataset.col(columnToCast)), to_date(from_unixtime(callUDF("timestampstringtolong", dataset.col(columnToCast))))).otherwise(to_date(dataset.col(columnToCast))));
+                castedColumn = when(callUDF("isalong", dataset.col(columnToCast)), to_date(from_unixtime(callUDF("timestampstringtolong", dataset.col(columnToCast))))).otherwise(to_date(dataset.col(columnToCast)));
             }
         } else if(newDataType.equals(DataTypes.TimestampType)) {
             if(parseFormat != null && !parseFormat.equals("")) {
                 // parse format given in config, so use it
-                newDataset = dataset.withColumn(castColumnName, when(callUDF("isalong", dataset.col(columnToCast)), to_timestamp(from_unixtime(callUDF("timestampstringtolong", dataset.col(columnToCast))), parseFormat)).otherwise(to_timestamp(dataset.col(columnToCast), parseFormat)));
+                castedColumn = when(callUDF("isalong", dataset.col(columnToCast)), to_timestamp(from_unixtime(callUDF("timestampstringtolong", dataset.col(columnToCast))), parseFormat)).otherwise(to_timestamp(dataset.col(columnToCast), parseFormat));
             } else {
-                newDataset = dataset.withColumn(castColumnName, when(callUDF("isalong", dataset.col(columnToCast)), to_timestamp(from_unixtime(callUDF("timestampstringtolong", dataset.col(columnToCast))))).otherwise(to_timestamp(dataset.col(columnToCast))));
+                castedColumn = when(callUDF("isalong", dataset.col(columnToCast)), to_timestamp(from_unixtime(callUDF("timestampstringtolong", dataset.col(columnToCast))))).otherwise(to_timestamp(dataset.col(columnToCast)));
             }
         } else {
-            newDataset = dataset.withColumn(castColumnName, dataset.col(columnToCast).cast(newDataType));
+            castedColumn = dataset.col(columnToCast).cast(newDataType);
         }
 
-        return newDataset;
+        return castedColumn;
     }
 
     private DataType getCurrentDataType(List<StructField> datasetFields, String column) {
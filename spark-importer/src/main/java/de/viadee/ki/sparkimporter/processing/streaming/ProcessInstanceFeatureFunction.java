@@ -0,0 +1,166 @@
+package de.viadee.ki.sparkimporter.processing.streaming;
+
+import de.viadee.ki.sparkimporter.processing.aggregation.AggregationFunctions;
+import de.viadee.ki.sparkimporter.util.SparkImporterLogger;
+import de.viadee.ki.sparkimporter.util.SparkImporterVariables;
+import org.apache.spark.api.java.function.FlatMapGroupsWithStateFunction;
+import org.apache.spark.sql.Row;
+import org.apache.spark.sql.RowFactory;
+import org.apache.spark.sql.streaming.GroupState;
+import org.apache.spark.sql.types.DataTypes;
+import org.apache.spark.sql.types.StructField;
+import org.apache.spark.sql.types.StructType;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Updates the state of a process instance with its newly imported rows and emits a row with its current features: the
+ * process state, the process columns AddReducedColumnsToDatasetStep adds to the batch result and the latest value of
+ * each variable by revision. The state is removed once the process instance has not been updated within the timeout.
+ * It is kept after the process instance has ended, as the import writes the topics independently and a variable update
+ * can arrive in a later micro-batch than the end of its process instance. Such a late row is merged into the final
+ * features instead of starting a new process instance with only this variable.
+ */
+public class ProcessInstanceFeatureFunction implements FlatMapGroupsWithStateFunction<String, Row, ProcessInstanceFeatureState, Row> {
+
+    public static final String VAR_FEATURE_TIME = "feature_time_";
+
+    // columns which are not process columns: the key, the state and the columns of variable updates
+    private static final List<String> NON_PROCESS_COLUMNS = Arrays.asList(
+            SparkImporterVariables.VAR_PROCESS_INSTANCE_ID,
+            SparkImporterVariables.VAR_STATE,
+            SparkImporterVariables.VAR_PROCESS_INSTANCE_VARIABLE_NAME,
+            SparkImporterVariables.VAR_PROCESS_INSTANCE_VARIABLE_TYPE,
+            SparkImporterVariables.VAR_PROCESS_INSTANCE_VARIABLE_REVISION,
+            SparkImporterVariables.VAR_PROCESS_INSTANCE_VARIABLE_INSTANCE_ID,
+            SparkImporterVariables.VAR_LONG,
+            SparkImporterVariables.VAR_DOUBLE,
+            SparkImporterVariables.VAR_TEXT,
+            SparkImporterVariables.VAR_TEXT2,
+            SparkImporterVariables.VAR_TIMESTAMP,
+            SparkImporterVariables.VAR_SEQUENCE_COUNTER
+    );
+
+    // variables which are not part of the features and have already been reported, per executor
+    private static final Set<String> REPORTED_VARIABLES = ConcurrentHashMap.newKeySet();
+
+    private final List<String> processColumns;
+    private final List<String> variables;
+    private final long timeoutMillis;
+
+    /**
+     * @param inputColumns columns of the imported data
+     * @param variables variables which become a column of the features, others are ignored
+     * @param timeoutMillis time after which the state of a process instance without updates is removed
+     */
+    public ProcessInstanceFeatureFunction(String[] inputColumns, Collection<String> variables, long timeoutMillis) {
+        List<String> processColumns = new ArrayList<>();
+        for(String column : inputColumns) {
+            if(!NON_PROCESS_COLUMNS.contains(column)) {
+                processColumns.add(column);
+            }
+        }
+        Collections.sort(processColumns);
+        this.processColumns = processColumns;
+
+        this.variables = new ArrayList<>(new TreeSet<>(variables));
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    public StructType getOutputSchema() {
+        List<StructField> fields = new ArrayList<>();
+        fields.add(DataTypes.createStructField(SparkImporterVariables.VAR_PROCESS_INSTANCE_ID, DataTypes.StringType, false));
+        fields.add(DataTypes.createStructField(SparkImporterVariables.VAR_STATE, DataTypes.StringType, true));
+        for(String column : processColumns) {
+            fields.add(DataTypes.createStructField(column, DataTypes.StringType, true));
+        }
+        for(String variable : variables) {
+            fields.add(DataTypes.createStructField(variable, DataTypes.StringType, true));
+        }
+        fields.add(DataTypes.createStructField(VAR_FEATURE_TIME, DataTypes.LongType, false));
+        return DataTypes.createStructType(fields);
+    }
+
+    @Override
+    public Iterator<Row> call(String processInstanceId, Iterator<Row> rows, GroupState<ProcessInstanceFeatureState> state) {
+        if(state.hasTimedOut()) {
+            state.remove();
+            return Collections.emptyIterator();
+        }
+
+        ProcessInstanceFeatureState features = state.exists() ? state.get() : new ProcessInstanceFeatureState();
+
+        while(rows.hasNext()) {
+            Row row = rows.next();
+            String processState = row.getAs(SparkImporterVariables.VAR_STATE);
+            String variableName = row.getAs(SparkImporterVariables.VAR_PROCESS_INSTANCE_VARIABLE_NAME);
+
+            if(processState != null) {
+                // process instance event, the process columns are taken from these as in AddReducedColumnsToDatasetStep
+                if(AggregationFunctions.processStateOrdinal(processState) > AggregationFunctions.processStateOrdinal(features.getProcessState())) {
+                    features.setProcessState(processState);
+                }
+                for(String column : processColumns) {
+                    String value = row.getAs(column);
+                    if(value != null && !value.isEmpty()) {
+                        features.getProcessValues().put(column, value);
+                    }
+                }
+            } else if(variableName != null && variables.contains(variableName)) {
+                features.updateVariable(variableName, getVariableValue(row),
+                        parseLong(row.getAs(SparkImporterVariables.VAR_PROCESS_INSTANCE_VARIABLE_REVISION)),
+                        parseLong(row.getAs(SparkImporterVariables.VAR_TIMESTAMP)));
+            } else if(variableName != null && REPORTED_VARIABLES.add(variableName)) {
+                SparkImporterLogger.getInstance().writeWarn("Variable '" + variableName + "' is not part of the features and is ignored. Variables first imported after the start of the feature stream are added by restarting it.");
+            }
+        }
+
+        // an ended process instance is kept until the timeout as well, so late rows are merged into its features
+        state.update(features);
+        state.setTimeoutDuration(timeoutMillis);
+
+        return Collections.singletonList(createFeatureRow(processInstanceId, features)).iterator();
+    }
+
+    private Row createFeatureRow(String processInstanceId, ProcessInstanceFeatureState features) {
+        Object[] values = new Object[processColumns.size() + variables.size() + 3];
+        int i = 0;
+        values[i++] = processInstanceId;
+        values[i++] = features.getProcessState() != null ? features.getProcessState() : SparkImporterVariables.PROCESS_STATE_ACTIVE;
+        for(String column : processColumns) {
+            values[i++] = features.getProcessValues().get(column);
+        }
+        for(String variable : variables) {
+            values[i++] = features.getVariableValues().get(variable);
+        }
+        values[i] = System.currentTimeMillis();
+        return RowFactory.create(values);
+    }
+
+    /**
+     * @return the value of the column matching the variable type, as chosen by AddVariableColumnsStep
+     */
+    private static String getVariableValue(Row row) {
+        String type = row.getAs(SparkImporterVariables.VAR_PROCESS_INSTANCE_VARIABLE_TYPE);
+        if("string".equals(type) || "null".equals(type)) {
+            return row.getAs(SparkImporterVariables.VAR_TEXT);
+        } else if("boolean".equals(type) || "integer".equals(type) || "long".equals(type) || "date".equals(type)) {
+            return row.getAs(SparkImporterVariables.VAR_LONG);
+        } else if("double".equals(type)) {
+            return row.getAs(SparkImporterVariables.VAR_DOUBLE);
+        }
+        return row.getAs(SparkImporterVariables.VAR_TEXT2);
+    }
+
+    private static long parseLong(String value) {
+        if(value == null) {
+            return 0;
+        }
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+}
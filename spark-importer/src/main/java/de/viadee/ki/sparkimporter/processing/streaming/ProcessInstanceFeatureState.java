@@ -0,0 +1,52 @@
+package de.viadee.ki.sparkimporter.processing.streaming;
+
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * State kept per process instance by the feature stream: the process columns, the process state and the latest value
+ * of each variable together with the revision and timestamp it has been written with.
+ */
+public class ProcessInstanceFeatureState implements Serializable {
+
+    private String processState = null;
+
+    private final Map<String, String> processValues = new HashMap<>();
+
+    private final Map<String, String> variableValues = new HashMap<>();
+
+    private final Map<String, long[]> variableVersions = new HashMap<>();
+
+    public String getProcessState() {
+        return processState;
+    }
+
+    public void setProcessState(String processState) {
+        this.processState = processState;
+    }
+
+    public Map<String, String> getProcessValues() {
+        return processValues;
+    }
+
+    public Map<String, String> getVariableValues() {
+        return variableValues;
+    }
+
+    /**
+     * Sets the value of the variable if the given revision and timestamp are not older than the ones of its current
+     * value.
+     *
+     * @return true if the value has been set
+     */
+    public boolean updateVariable(String variableName, String value, long revision, long timestamp) {
+        long[] version = variableVersions.get(variableName);
+        if(version != null && (revision < version[0] || (revision == version[0] && timestamp < version[1]))) {
+            return false;
+        }
+        variableVersions.put(variableName, new long[]{revision, timestamp});
+        variableValues.put(variableName, value);
+        return true;
+    }
+}
@@ -4,10 +4,12 @@ import com.beust.jcommander.JCommander;
 import com.beust.jcommander.ParameterException;
 import de.viadee.ki.sparkimporter.exceptions.FaultyConfigurationException;
 import de.viadee.ki.sparkimporter.processing.PreprocessingRunner;
+import de.viadee.ki.sparkimporter.processing.cache.CSVStagingCache;
 import de.viadee.ki.sparkimporter.processing.steps.PipelineStep;
 import de.viadee.ki.sparkimporter.processing.steps.dataprocessing.*;
 import de.viadee.ki.sparkimporter.processing.steps.importing.InitialCleanupStep;
 import de.viadee.ki.sparkimporter.processing.steps.output.WriteToDiscStep;
+import de.viadee.ki.sparkimporter.util.CSVImportSchemas;
 import de.viadee.ki.sparkimporter.util.SparkImporterCSVArguments;
 import de.viadee.ki.sparkimporter.util.SparkImporterLogger;
 import de.viadee.ki.sparkimporter.util.SparkImporterUtils;
@@ -58,6 +60,19 @@ public class CSVImportAndProcessingRunner extends SparkRunner {
         SparkImporterLogger.setLogDirectory(ARGS.getLogDirectory());
         
         SparkImporterVariables.setProcessFilterDefinitionId(ARGS.getProcessDefinitionFilterId());
+        SparkImporterVariables.setStepResultCacheEnabled(ARGS.isStepResultCacheEnabled());
+        SparkImporterVariables.setStepResultCacheDirectory(ARGS.getStepResultCacheDirectory());
+        SparkImporterVariables.setStepResultCacheMaxSize(ARGS.getStepResultCacheMaxSize());
+        SparkImporterVariables.setPersistStorageLevel(ARGS.getPersistStorageLevel());
+        SparkImporterVariables.setStepMetricsEnabled(ARGS.isStepMetricsEnabled());
+        SparkImporterVariables.setJsonFieldDiscovery(ARGS.getJsonFieldDiscovery());
+        SparkImporterVariables.setIncremental(ARGS.isIncremental());
+        SparkImporterVariables.setPartitionBy(ARGS.getPartitionBy());
+        SparkImporterVariables.setTargetFileSize(ARGS.getTargetFileSize());
+        SparkImporterVariables.setSortColumns(ARGS.getSortColumns());
+        SparkImporterVariables.setCompression(ARGS.getCompression());
+        SparkImporterVariables.setStepResultsFormat(ARGS.getStepResultsFormat());
+        SparkImporterVariables.setStepResultsSample(ARGS.getStepResultsSample());
 
         dataLevel = SparkImporterVariables.DATA_LEVEL_PROCESS;
 
@@ -73,7 +88,8 @@ public class CSVImportAndProcessingRunner extends SparkRunner {
         PreprocessingRunner.writeStepResultsIntoFile = ARGS.isWriteStepResultsToCSV();
 
         // Delete destination files, required to avoid exception during runtime
-        if(SparkImporterVariables.getSaveMode().equals(SaveMode.Overwrite)) {
+        // an incremental run merges its result into the one written before
+        if(SparkImporterVariables.getSaveMode().equals(SaveMode.Overwrite) && !ARGS.isIncremental()) {
             FileUtils.deleteQuietly(new File(ARGS.getFileDestination()));
         }
 
@@ -100,17 +116,29 @@ public class CSVImportAndProcessingRunner extends SparkRunner {
         return pipelineSteps;
     }
 
+    @Override
+    protected String getInputPath() {
+        return ARGS.getFileSource();
+    }
+
     @Override
     protected Dataset<Row> loadInitialDataset() {
 
-        //Load source CSV file
-        Dataset<Row> dataset = sparkSession.read()
-                .option("inferSchema", "true")
-                .option("delimiter", ARGS.getDelimiter())
-                .option("header", "true")
-                .option("ignoreLeadingWhiteSpace", "false")
-                .option("ignoreTrailingWhiteSpace", "false")
-                .csv(ARGS.getFileSource());
+        CSVStagingCache stagingCache = null;
+        if(ARGS.isCsvStagingCacheEnabled()) {
+            String stagingCacheDirectory = ARGS.getCsvStagingCacheDirectory() != null ? ARGS.getCsvStagingCacheDirectory() : ARGS.getWorkingDirectory() + "/csv_staging_cache";
+            stagingCache = new CSVStagingCache(stagingCacheDirectory, ARGS.getCsvStagingCacheMaxSize(),
+                    ARGS.getFileSource(), ARGS.getDelimiter(), ARGS.getSchemaMode());
+
+            if(stagingCache.contains()) {
+                SparkImporterLogger.getInstance().writeInfo("Loading staged copy of CSV file " + ARGS.getFileSource());
+                return stagingCache.load();
+            }
+        }
+
+        //Load source CSV file with the schema determined by the schema mode
+        Dataset<Row> dataset = CSVImportSchemas.read(sparkSession, ARGS.getFileSource(), ARGS.getDelimiter(),
+                ARGS.getSchemaMode(), ARGS.getWorkingDirectory());
 
         // write imported CSV structure to file for debugging
         if (SparkImporterCSVArguments.getInstance().isWriteStepResultsToCSV()) {
@@ -120,6 +148,10 @@ public class CSVImportAndProcessingRunner extends SparkRunner {
         InitialCleanupStep initialCleanupStep = new InitialCleanupStep();
         dataset = initialCleanupStep.runPreprocessingStep(dataset, false, SparkImporterVariables.DATA_LEVEL_PROCESS, null);
 
+        if(stagingCache != null) {
+            dataset = stagingCache.store(dataset);
+        }
+
         return dataset;
     }
 }
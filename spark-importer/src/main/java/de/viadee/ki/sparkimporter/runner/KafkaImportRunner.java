@@ -7,12 +7,18 @@ import de.viadee.ki.sparkimporter.processing.steps.PipelineStep;
 import de.viadee.ki.sparkimporter.processing.steps.importing.ColumnsPreparationStep;
 import de.viadee.ki.sparkimporter.processing.steps.importing.InitialCleanupStep;
 import de.viadee.ki.sparkimporter.processing.steps.output.WriteToDataSinkStep;
+import de.viadee.ki.sparkimporter.util.KafkaEventSchemas;
+import de.viadee.ki.sparkimporter.util.KafkaOffsetStore;
+import de.viadee.ki.sparkimporter.util.KafkaRateController;
 import de.viadee.ki.sparkimporter.util.SparkImporterKafkaImportArguments;
 import de.viadee.ki.sparkimporter.util.SparkImporterLogger;
 import de.viadee.ki.sparkimporter.util.SparkImporterVariables;
 import org.apache.commons.io.FileUtils;
 import org.apache.kafka.clients.consumer.ConsumerConfig;
 import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.KafkaConsumer;
+import org.apache.kafka.common.PartitionInfo;
+import org.apache.kafka.common.TopicPartition;
 import org.apache.kafka.common.serialization.StringDeserializer;
 import org.apache.spark.api.java.JavaRDD;
 import org.apache.spark.api.java.JavaSparkContext;
@@ -25,39 +31,28 @@ import org.apache.spark.streaming.Duration;
 import org.apache.spark.streaming.api.java.JavaInputDStream;
 import org.apache.spark.streaming.api.java.JavaStreamingContext;
 import org.apache.spark.streaming.kafka010.ConsumerStrategies;
+import org.apache.spark.streaming.kafka010.HasOffsetRanges;
 import org.apache.spark.streaming.kafka010.KafkaUtils;
 import org.apache.spark.streaming.kafka010.LocationStrategies;
+import org.apache.spark.streaming.kafka010.OffsetRange;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
 import java.util.*;
-import java.util.concurrent.CountDownLatch;
-import java.util.stream.Collectors;
 
 public class KafkaImportRunner extends SparkRunner {
 
     private static final Logger LOG = LoggerFactory.getLogger(KafkaImportRunner.class);
     public static SparkImporterKafkaImportArguments ARGS;
 
-    private final static String TOPIC_PROCESS_INSTANCE = "processInstance";
-    private final static String TOPIC_VARIABLE_UPDATE = "variableUpdate";
-    private final static String TOPIC_ACTIVITY_INSTANCE = "activityInstance";
+    private KafkaOffsetStore offsetStore;
 
-    private final Map<String, Object> kafkaConsumerConfigPI  = new HashMap<>();
-    private final Map<String, Object> kafkaConsumerConfigVU  = new HashMap<>();
-    private final Map<String, Object> kafkaConsumerConfigAI  = new HashMap<>();
+    // names of the topics imported for the data level and the events they contain
+    private final Map<String, String> topicEvents = new LinkedHashMap<>();
 
-    private JavaRDD<String> masterRdd = null;
-    private Dataset<Row> masterDataset = null;
-
-    private List<String> receivedQueues = new ArrayList<>();
-
-    private List<String> emptyQueues = new ArrayList<>();
-    private CountDownLatch countDownLatch;
-
-    //how many queues are we querying and expecting to be empty in batch mode
-    private int EXPECTED_QUEUES_TO_BE_EMPTIED_IN_BATCH_MODE = 2; // default for process
+    // offset ranges read in batch mode, stored once the data has been written
+    private OffsetRange[] batchOffsetRanges = null;
 
     @Override
     protected void initialize(String[] arguments) {
@@ -76,7 +71,11 @@ public class KafkaImportRunner extends SparkRunner {
             System.exit(1);
         }
 
-        EXPECTED_QUEUES_TO_BE_EMPTIED_IN_BATCH_MODE = (ARGS.getDataLevel().equals(SparkImporterVariables.DATA_LEVEL_PROCESS) ? 2 : 3);
+        topicEvents.put(ARGS.getProcessInstanceTopic(), KafkaEventSchemas.TOPIC_PROCESS_INSTANCE);
+        topicEvents.put(ARGS.getVariableUpdateTopic(), KafkaEventSchemas.TOPIC_VARIABLE_UPDATE);
+        if(ARGS.getDataLevel().equals(SparkImporterVariables.DATA_LEVEL_ACTIVITY)) {
+            topicEvents.put(ARGS.getActivityInstanceTopic(), KafkaEventSchemas.TOPIC_ACTIVITY_INSTANCE);
+        }
 
         SparkImporterVariables.setRunningMode(RUNNING_MODE.KAFKA_IMPORT);
 
@@ -87,6 +86,12 @@ public class KafkaImportRunner extends SparkRunner {
         SparkImporterVariables.setOutputFormat(ARGS.getOutputFormat());
         SparkImporterVariables.setSaveMode(ARGS.getSaveMode() == SparkImporterVariables.SAVE_MODE_APPEND ? SaveMode.Append : SaveMode.Overwrite);
         SparkImporterVariables.setProcessFilterDefinitionId(ARGS.getProcessDefinitionFilterId());
+        SparkImporterVariables.setPartitionBy(ARGS.getPartitionBy());
+        SparkImporterVariables.setTargetFileSize(ARGS.getTargetFileSize());
+        SparkImporterVariables.setSortColumns(ARGS.getSortColumns());
+        SparkImporterVariables.setCompression(ARGS.getCompression());
+        SparkImporterVariables.setStepResultsFormat(ARGS.getStepResultsFormat());
+        SparkImporterVariables.setStepResultsSample(ARGS.getStepResultsSample());
 
         dataLevel = ARGS.getDataLevel();
 
@@ -96,53 +101,151 @@ public class KafkaImportRunner extends SparkRunner {
         if(SparkImporterVariables.getSaveMode().equals(SaveMode.Overwrite)) {
         	FileUtils.deleteQuietly(new File(ARGS.getFileDestination()));
         }
-        
+
+        offsetStore = new KafkaOffsetStore(ARGS.getCheckpointDirectory() != null ? ARGS.getCheckpointDirectory() : ARGS.getWorkingDirectory());
+        if(SparkImporterVariables.getSaveMode().equals(SaveMode.Overwrite)) {
+            offsetStore.reset();
+        }
+
+        // when streaming, each micro-batch is added to the data imported before
+        if(!ARGS.isBatchMode()) {
+            SparkImporterVariables.setSaveMode(SaveMode.Append);
+        }
+
 
         SparkImporterLogger.getInstance().writeInfo("Starting Kafka import "+ (ARGS.isBatchMode() ? "in batch mode " : "") +"from: " + ARGS.getKafkaBroker());
     }
 
-    private synchronized void processMasterRDD(JavaRDD<String> newRDD, String queue) {
-        if (newRDD.count() == 0) {
-            if(ARGS.isBatchMode()) {
-                SparkImporterLogger.getInstance().writeInfo("Kafka queue '" + queue + "' returned zero entries.");
+    /**
+     * Determines for each partition of the topics the range from the offset imported last up to the end offset at
+     * the time of the call. Data published afterwards is imported by the next run.
+     */
+    private OffsetRange[] getBatchOffsetRanges(Map<String, Object> kafkaConsumerConfig) {
+        List<OffsetRange> offsetRanges = new ArrayList<>();
+        Map<TopicPartition, Long> storedOffsets = offsetStore.getOffsets(topicEvents.keySet());
+
+        try (KafkaConsumer<String, String> consumer = new KafkaConsumer<>(kafkaConsumerConfig)) {
+            for(String topic : topicEvents.keySet()) {
+                List<PartitionInfo> partitionInfos = consumer.partitionsFor(topic);
+                if(partitionInfos == null || partitionInfos.isEmpty()) {
+                    SparkImporterLogger.getInstance().writeWarn("Kafka topic '" + topic + "' does not exist.");
+                    continue;
+                }
 
-                if (!emptyQueues.contains(queue)) {
-                    emptyQueues.add(queue);
+                List<TopicPartition> topicPartitions = new ArrayList<>();
+                for(PartitionInfo partitionInfo : partitionInfos) {
+                    topicPartitions.add(new TopicPartition(topic, partitionInfo.partition()));
                 }
-                if(emptyQueues.size() == EXPECTED_QUEUES_TO_BE_EMPTIED_IN_BATCH_MODE) {
-                    SparkImporterLogger.getInstance().writeInfo("All Kafka queues ("
-                            + emptyQueues.stream().collect(Collectors.joining(","))
-                            + ") returned zero entries once. Stopping as running in batch mode");
-                    countDownLatch.countDown();
+                // sort partitions, so the data is always read in the same order
+                topicPartitions.sort(Comparator.comparingInt(TopicPartition::partition));
+
+                Map<TopicPartition, Long> beginningOffsets = consumer.beginningOffsets(topicPartitions);
+                Map<TopicPartition, Long> endOffsets = consumer.endOffsets(topicPartitions);
+                for(TopicPartition topicPartition : topicPartitions) {
+                    long fromOffset = Math.max(beginningOffsets.get(topicPartition), storedOffsets.getOrDefault(topicPartition, 0L));
+                    long untilOffset = endOffsets.get(topicPartition);
+                    if(fromOffset > untilOffset) {
+                        SparkImporterLogger.getInstance().writeWarn("Stored offset " + fromOffset + " of Kafka topic '" + topic + "' partition "
+                                + topicPartition.partition() + " is beyond its end, reading it from the beginning.");
+                        fromOffset = beginningOffsets.get(topicPartition);
+                    }
+                    if(untilOffset > fromOffset) {
+                        offsetRanges.add(OffsetRange.create(topicPartition, fromOffset, untilOffset));
+                    }
                 }
             }
+        }
+
+        return offsetRanges.toArray(new OffsetRange[0]);
+    }
 
-            return;
+    /**
+     * Reads the data published up to now that has not been imported before as a single batch.
+     */
+    private Dataset<Row> loadBatch(JavaSparkContext jsc, Map<String, Object> kafkaConsumerConfig) {
+        batchOffsetRanges = getBatchOffsetRanges(kafkaConsumerConfig);
+
+        long recordCount = 0;
+        for(OffsetRange offsetRange : batchOffsetRanges) {
+            recordCount += offsetRange.count();
         }
 
-        if (!receivedQueues.contains(queue)) {
-            receivedQueues.add(queue);
+        if(recordCount == 0) {
+            SparkImporterLogger.getInstance().writeInfo("No new data in Kafka topics " + topicEvents.keySet() + ".");
+            return null;
         }
 
-        if (masterDataset == null) {
-            if(receivedQueues.size() == EXPECTED_QUEUES_TO_BE_EMPTIED_IN_BATCH_MODE) {
-                masterRdd = masterRdd.union(newRDD);
-                Dataset<String> jsonDataset = sparkSession.createDataset(masterRdd.rdd(), Encoders.STRING());
-                masterDataset = sparkSession.read().json(jsonDataset);
-            } else {
-                if(masterRdd == null) {
-                    masterRdd = newRDD;
-                } else {
-                    masterRdd = masterRdd.union(newRDD);
-                }
+        SparkImporterLogger.getInstance().writeInfo("Importing " + recordCount + " records from Kafka topics " + topicEvents.keySet() + ".");
+
+        JavaRDD<ConsumerRecord<String, String>> records = KafkaUtils.createRDD(jsc, kafkaConsumerConfig, batchOffsetRanges, LocationStrategies.PreferConsistent());
+        Dataset<String> jsonDataset = sparkSession.createDataset(records.map(ConsumerRecord::value).rdd(), Encoders.STRING());
+        return KafkaEventSchemas.parse(sparkSession, jsonDataset, topicEvents.values(), ARGS.getJsonSchema());
+    }
 
+    @Override
+    protected void onDatasetProcessed() {
+        // the offsets are only stored once the data has been written, so a failed import is repeated by the next run
+        if(batchOffsetRanges != null) {
+            offsetStore.commit(batchOffsetRanges);
+        }
+    }
+
+    /**
+     * Runs the pipeline for the records of a single micro-batch of all topics and stores their offsets once the result
+     * has been written. Nothing is kept in between micro-batches, so the memory needed does not grow with the runtime.
+     */
+    private void importMicroBatch(JavaRDD<ConsumerRecord<String, String>> records, KafkaRateController rateController) {
+        final long startMillis = System.currentTimeMillis();
+        OffsetRange[] offsetRanges = ((HasOffsetRanges) records.rdd()).offsetRanges();
+
+        // the offset ranges tell how many records of each topic the micro-batch contains without reading them
+        Map<String, Long> topicRecordCounts = new LinkedHashMap<>();
+        for(OffsetRange offsetRange : offsetRanges) {
+            if(offsetRange.count() > 0) {
+                topicRecordCounts.merge(offsetRange.topic(), offsetRange.count(), Long::sum);
             }
-        } else {
-            Dataset<String> jsonDataset = sparkSession.createDataset(newRDD.rdd(), Encoders.STRING());
-            Dataset<Row> rowDataset = sparkSession.read().json(jsonDataset);
-            Dataset<Row> unionPrepDataset = sparkSession.createDataFrame(rowDataset.rdd(), masterDataset.schema());
-            masterDataset = unionPrepDataset;
         }
+
+        if(!topicRecordCounts.isEmpty()) {
+            List<String> events = new ArrayList<>();
+            for(String topic : topicRecordCounts.keySet()) {
+                events.add(topicEvents.get(topic));
+            }
+
+            // the records of all topics are parsed together, so the micro-batch is run through the pipeline once
+            Dataset<String> jsonDataset = sparkSession.createDataset(records.map(ConsumerRecord::value).rdd(), Encoders.STRING());
+            Dataset<Row> dataset = filterDataset(KafkaEventSchemas.parse(sparkSession, jsonDataset, events, ARGS.getJsonSchema()));
+            createPreprocessingRunner().run(dataset, dataLevel);
+
+            SparkImporterLogger.getInstance().writeInfo("Imported records from Kafka topics " + topicRecordCounts + ".");
+        }
+
+        offsetStore.commit(offsetRanges);
+        rateController.batchProcessed(offsetRanges, System.currentTimeMillis() - startMillis);
+    }
+
+    private JavaInputDStream<ConsumerRecord<String, String>> createStream(JavaStreamingContext jssc, Map<String, Object> kafkaConsumerConfig) {
+        List<String> topics = new ArrayList<>(topicEvents.keySet());
+
+        // continue after the data imported by the last run
+        Map<TopicPartition, Long> offsets = offsetStore.getOffsets(topics);
+
+        // limits the records read per micro-batch
+        KafkaRateController rateController = new KafkaRateController(String.join(",", topics), ARGS.getBatchInterval(), ARGS.getMaxRecordsPerPartition(), ARGS.isBackpressure());
+
+        // Create a single direct kafka stream subscribed to all topics
+        JavaInputDStream<ConsumerRecord<String, String>> stream = KafkaUtils.createDirectStream(
+                jssc,
+                LocationStrategies.PreferConsistent(),
+                ConsumerStrategies.Subscribe(topics, kafkaConsumerConfig, offsets),
+                rateController);
+
+        //go through pipe elements
+        stream.foreachRDD((VoidFunction<JavaRDD<ConsumerRecord<String, String>>>) records -> {
+            importMicroBatch(records, rateController);
+        });
+
+        return stream;
     }
 
     @Override
@@ -156,119 +259,48 @@ public class KafkaImportRunner extends SparkRunner {
         return pipelineSteps;
     }
 
-    @Override
-    protected Dataset<Row> loadInitialDataset() {
-
-        final long startMillis = System.currentTimeMillis();
-
-        masterRdd = sparkSession.emptyDataset(Encoders.STRING()).javaRDD();
-
-        // if we are in batch mode we create the countdown latch so we can shutdown the streaming
-        // context once the number of queues (EXPECTED_QUEUES_TO_BE_EMPTIED_IN_BATCH_MODE) are empty.
-        if(ARGS.isBatchMode()) {
-            countDownLatch = new CountDownLatch(1);
-        }
-
-        int duration = 5000;
-
+    private Map<String, Object> createKafkaConsumerConfig() {
+        Map<String, Object> kafkaConsumerConfig = new HashMap<>();
         // list of host:port pairs used for establishing the initial connections to the Kafka cluster
-        kafkaConsumerConfigPI.put(ConsumerConfig.BOOTSTRAP_SERVERS_CONFIG, ARGS.getKafkaBroker());
-        kafkaConsumerConfigPI.put(ConsumerConfig.KEY_DESERIALIZER_CLASS_CONFIG, StringDeserializer.class);
-        kafkaConsumerConfigPI.put(ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG, StringDeserializer.class);
+        kafkaConsumerConfig.put(ConsumerConfig.BOOTSTRAP_SERVERS_CONFIG, ARGS.getKafkaBroker());
+        kafkaConsumerConfig.put(ConsumerConfig.KEY_DESERIALIZER_CLASS_CONFIG, StringDeserializer.class);
+        kafkaConsumerConfig.put(ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG, StringDeserializer.class);
         // allows a pool of processes to divide the work of consuming and processing records
-        kafkaConsumerConfigPI.put(ConsumerConfig.GROUP_ID_CONFIG, UUID.randomUUID().toString());
+        kafkaConsumerConfig.put(ConsumerConfig.GROUP_ID_CONFIG, UUID.randomUUID().toString());
         // automatically reset the offset to the earliest offset
-        kafkaConsumerConfigPI.put(ConsumerConfig.AUTO_OFFSET_RESET_CONFIG, "earliest");
-
-        // list of host:port pairs used for establishing the initial connections to the Kafka cluster
-        kafkaConsumerConfigVU.put(ConsumerConfig.BOOTSTRAP_SERVERS_CONFIG, ARGS.getKafkaBroker());
-        kafkaConsumerConfigVU.put(ConsumerConfig.KEY_DESERIALIZER_CLASS_CONFIG, StringDeserializer.class);
-        kafkaConsumerConfigVU.put(ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG, StringDeserializer.class);
-        // allows a pool of processes to divide the work of consuming and processing records
-        kafkaConsumerConfigVU.put(ConsumerConfig.GROUP_ID_CONFIG, UUID.randomUUID().toString());
-        // automatically reset the offset to the earliest offset
-        kafkaConsumerConfigVU.put(ConsumerConfig.AUTO_OFFSET_RESET_CONFIG, "earliest");
+        kafkaConsumerConfig.put(ConsumerConfig.AUTO_OFFSET_RESET_CONFIG, "earliest");
+        return kafkaConsumerConfig;
+    }
 
+    @Override
+    protected Dataset<Row> loadInitialDataset() {
 
+        final long startMillis = System.currentTimeMillis();
 
-        // Create context with a x seconds batch interval
         JavaSparkContext jsc = new JavaSparkContext(sparkSession.sparkContext());
-        JavaStreamingContext jssc = new JavaStreamingContext(jsc, Duration.apply(duration));
-
-        // Create direct kafka stream with brokers and topics
-        JavaInputDStream<ConsumerRecord<String, String>> processInstances = KafkaUtils.createDirectStream(
-                jssc,
-                LocationStrategies.PreferConsistent(),
-                ConsumerStrategies.Subscribe(Arrays.asList(new String[]{TOPIC_PROCESS_INSTANCE}), kafkaConsumerConfigPI));
-
-        //go through pipe elements
-        processInstances
-                .map(record -> record.value())
-                .foreachRDD((VoidFunction<JavaRDD<String>>) stringJavaRDD -> {
-                    processMasterRDD(stringJavaRDD, TOPIC_PROCESS_INSTANCE);
-                });
-
-        // Create direct kafka stream with brokers and topics
-        JavaInputDStream<ConsumerRecord<String, String>> variableUpdates = KafkaUtils.createDirectStream(
-                jssc,
-                LocationStrategies.PreferConsistent(),
-                ConsumerStrategies.Subscribe(Arrays.asList(new String[]{TOPIC_VARIABLE_UPDATE}), kafkaConsumerConfigVU));
 
-        //go through pipe elements
-        variableUpdates
-                .map(record -> record.value())
-                .foreachRDD((VoidFunction<JavaRDD<String>>) stringJavaRDD -> {
-                    processMasterRDD(stringJavaRDD, TOPIC_VARIABLE_UPDATE);
-                });
+        // in batch mode the data published up to now is read as a single batch
+        if(ARGS.isBatchMode()) {
+            return loadBatch(jsc, createKafkaConsumerConfig());
+        }
 
+        // Create context with the configured batch interval
+        JavaStreamingContext jssc = new JavaStreamingContext(jsc, Duration.apply(ARGS.getBatchInterval()));
 
-        if(ARGS.getDataLevel().equals(SparkImporterVariables.DATA_LEVEL_ACTIVITY)) {
-            // list of host:port pairs used for establishing the initial connections to the Kafka cluster
-            kafkaConsumerConfigAI.put(ConsumerConfig.BOOTSTRAP_SERVERS_CONFIG, ARGS.getKafkaBroker());
-            kafkaConsumerConfigAI.put(ConsumerConfig.KEY_DESERIALIZER_CLASS_CONFIG, StringDeserializer.class);
-            kafkaConsumerConfigAI.put(ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG, StringDeserializer.class);
-            // allows a pool of processes to divide the work of consuming and processing records
-            kafkaConsumerConfigAI.put(ConsumerConfig.GROUP_ID_CONFIG, UUID.randomUUID().toString());
-            // automatically reset the offset to the earliest offset
-            kafkaConsumerConfigAI.put(ConsumerConfig.AUTO_OFFSET_RESET_CONFIG, "earliest");
-
-            // Create direct kafka stream with brokers and topics
-            JavaInputDStream<ConsumerRecord<String, String>> activityInstances = KafkaUtils.createDirectStream(
-                    jssc,
-                    LocationStrategies.PreferConsistent(),
-                    ConsumerStrategies.Subscribe(Arrays.asList(new String[]{TOPIC_ACTIVITY_INSTANCE}), kafkaConsumerConfigAI));
-
-            //go through pipe elements
-            activityInstances
-                    .map(record -> record.value())
-                    .foreachRDD((VoidFunction<JavaRDD<String>>) stringJavaRDD -> {
-                        processMasterRDD(stringJavaRDD, TOPIC_ACTIVITY_INSTANCE);
-                    });
-        }
+        createStream(jssc, createKafkaConsumerConfig());
 
         // Start the stream
         jssc.start();
 
-        if(ARGS.isBatchMode()) {
-            try {
-                // wait until countdown latch has counted down
-                countDownLatch.await();
-            } catch (InterruptedException e) {
-                e.printStackTrace();
-            }
+        try {
+            jssc.awaitTermination();
             final long endMillis = System.currentTimeMillis();
             SparkImporterLogger.getInstance().writeInfo("Kafka import finished (took " + ((endMillis - startMillis) / 1000) + " seconds in total)");
-            jssc.stop(false);
-        } else {
-            try {
-                jssc.awaitTermination();
-                final long endMillis = System.currentTimeMillis();
-                SparkImporterLogger.getInstance().writeInfo("Kafka import finished (took " + ((endMillis - startMillis) / 1000) + " seconds in total)");
-            } catch (InterruptedException e) {
-                e.printStackTrace();
-            }
+        } catch (InterruptedException e) {
+            e.printStackTrace();
         }
 
-        return masterDataset;
+        // all micro-batches have already been written
+        return null;
     }
 }
@@ -2,30 +2,46 @@ package de.viadee.ki.sparkimporter.runner;
 
 import com.beust.jcommander.JCommander;
 import com.beust.jcommander.ParameterException;
+import de.viadee.ki.sparkimporter.configuration.Configuration;
+import de.viadee.ki.sparkimporter.configuration.preprocessing.VariableConfiguration;
+import de.viadee.ki.sparkimporter.configuration.util.ConfigurationUtils;
 import de.viadee.ki.sparkimporter.exceptions.FaultyConfigurationException;
 import de.viadee.ki.sparkimporter.processing.PreprocessingRunner;
 import de.viadee.ki.sparkimporter.processing.steps.PipelineStep;
 import de.viadee.ki.sparkimporter.processing.steps.dataprocessing.*;
 import de.viadee.ki.sparkimporter.processing.steps.output.WriteToDiscStep;
+import de.viadee.ki.sparkimporter.processing.streaming.ProcessInstanceFeatureFunction;
+import de.viadee.ki.sparkimporter.processing.streaming.ProcessInstanceFeatureState;
 import de.viadee.ki.sparkimporter.util.SparkImporterKafkaDataProcessingArguments;
 import de.viadee.ki.sparkimporter.util.SparkImporterLogger;
 import de.viadee.ki.sparkimporter.util.SparkImporterVariables;
 import org.apache.commons.io.FileUtils;
+import org.apache.spark.api.java.function.MapFunction;
 import org.apache.spark.sql.Dataset;
+import org.apache.spark.sql.Encoders;
 import org.apache.spark.sql.Row;
 import org.apache.spark.sql.SaveMode;
+import org.apache.spark.sql.catalyst.encoders.RowEncoder;
+import org.apache.spark.sql.streaming.GroupStateTimeout;
+import org.apache.spark.sql.streaming.OutputMode;
+import org.apache.spark.sql.streaming.StreamingQuery;
+import org.apache.spark.sql.streaming.StreamingQueryException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 public class KafkaProcessingRunner extends SparkRunner {
 
     private static final Logger LOG = LoggerFactory.getLogger(KafkaProcessingRunner.class);
     public static SparkImporterKafkaDataProcessingArguments ARGS;
 
+    private static final String FEATURE_STREAM_CHECKPOINT = "feature_stream_checkpoint";
+
     @Override
     protected void initialize(String[] arguments) {
         SparkImporterVariables.setRunningMode(RUNNING_MODE.KAFKA_PROCESSING);
@@ -56,6 +72,19 @@ public class KafkaProcessingRunner extends SparkRunner {
         SparkImporterLogger.setLogDirectory(ARGS.getLogDirectory());
         
         SparkImporterVariables.setProcessFilterDefinitionId(ARGS.getProcessDefinitionFilterId());
+        SparkImporterVariables.setStepResultCacheEnabled(ARGS.isStepResultCacheEnabled());
+        SparkImporterVariables.setStepResultCacheDirectory(ARGS.getStepResultCacheDirectory());
+        SparkImporterVariables.setStepResultCacheMaxSize(ARGS.getStepResultCacheMaxSize());
+        SparkImporterVariables.setPersistStorageLevel(ARGS.getPersistStorageLevel());
+        SparkImporterVariables.setStepMetricsEnabled(ARGS.isStepMetricsEnabled());
+        SparkImporterVariables.setJsonFieldDiscovery(ARGS.getJsonFieldDiscovery());
+        SparkImporterVariables.setIncremental(ARGS.isIncremental());
+        SparkImporterVariables.setPartitionBy(ARGS.getPartitionBy());
+        SparkImporterVariables.setTargetFileSize(ARGS.getTargetFileSize());
+        SparkImporterVariables.setSortColumns(ARGS.getSortColumns());
+        SparkImporterVariables.setCompression(ARGS.getCompression());
+        SparkImporterVariables.setStepResultsFormat(ARGS.getStepResultsFormat());
+        SparkImporterVariables.setStepResultsSample(ARGS.getStepResultsSample());
 
         dataLevel = ARGS.getDataLevel();
 
@@ -70,8 +99,20 @@ public class KafkaProcessingRunner extends SparkRunner {
 
         PreprocessingRunner.writeStepResultsIntoFile = ARGS.isWriteStepResultsToCSV();
 
+        if(ARGS.isStreaming() && dataLevel.equals(SparkImporterVariables.DATA_LEVEL_ACTIVITY)) {
+            try {
+                throw new FaultyConfigurationException("Streaming processing is only available for the process data level.");
+            } catch (FaultyConfigurationException e) {
+                e.printStackTrace();
+                System.exit(-1);
+            }
+        }
+
         // Delete destination files, required to avoid exception during runtime
-        FileUtils.deleteQuietly(new File(ARGS.getFileDestination()));
+        // a streaming processing continues with the features written before, an incremental run merges its result into them
+        if(!ARGS.isStreaming() && !ARGS.isIncremental()) {
+            FileUtils.deleteQuietly(new File(ARGS.getFileDestination()));
+        }
 
         SparkImporterLogger.getInstance().writeInfo("Starting data processing with data from: " + ARGS.getFileSource());
     }
@@ -111,13 +152,92 @@ public class KafkaProcessingRunner extends SparkRunner {
         return pipelineSteps;
     }
 
+    @Override
+    protected String getInputPath() {
+        return ARGS.getFileSource();
+    }
+
     @Override
     protected Dataset<Row> loadInitialDataset() {
-        //Load source parquet file
+        if(ARGS.isStreaming()) {
+            runFeatureStream();
+
+            // the features have already been written by the stream
+            return null;
+        }
+
+        //Load source parquet file, a streaming import writes each micro-batch with the columns of its own data
         Dataset<Row> dataset = sparkSession.read()
                 .option("inferSchema", "true")
+                .option("mergeSchema", "true")
                 .load(ARGS.getFileSource());
 
         return dataset;
     }
+
+    /**
+     * Watches the source folder for files written by a streaming Kafka import and keeps the features of each running
+     * process instance up to date. Every update of a process instance appends a row with its current features to the
+     * folder result/features in the destination, the latest row per process instance has the highest feature_time_.
+     */
+    private void runFeatureStream() {
+        // a file stream needs a schema, it is taken from the data imported so far
+        Dataset<Row> importedDataset = sparkSession.read()
+                .option("mergeSchema", "true")
+                .load(ARGS.getFileSource());
+
+        ProcessInstanceFeatureFunction featureFunction = new ProcessInstanceFeatureFunction(importedDataset.columns(),
+                getFeatureVariables(importedDataset), ARGS.getStateTimeout() * 60 * 1000);
+
+        Dataset<Row> importStream = filterDataset(sparkSession.readStream()
+                .schema(importedDataset.schema())
+                .parquet(ARGS.getFileSource()));
+
+        Dataset<Row> features = importStream
+                .filter(importStream.col(SparkImporterVariables.VAR_PROCESS_INSTANCE_ID).isNotNull())
+                .groupByKey((MapFunction<Row, String>) row -> row.getAs(SparkImporterVariables.VAR_PROCESS_INSTANCE_ID), Encoders.STRING())
+                .flatMapGroupsWithState(featureFunction, OutputMode.Append(), Encoders.kryo(ProcessInstanceFeatureState.class),
+                        RowEncoder.apply(featureFunction.getOutputSchema()), GroupStateTimeout.ProcessingTimeTimeout());
+
+        StreamingQuery query = features.writeStream()
+                .format("parquet")
+                .outputMode(OutputMode.Append())
+                .option("checkpointLocation", ARGS.getWorkingDirectory() + "/" + FEATURE_STREAM_CHECKPOINT)
+                .start(ARGS.getFileDestination() + "/result/features");
+
+        SparkImporterLogger.getInstance().writeInfo("Started streaming processing of " + ARGS.getFileSource() + ".");
+
+        try {
+            query.awaitTermination();
+        } catch (StreamingQueryException e) {
+            SparkImporterLogger.getInstance().writeError("Streaming processing failed: " + e.getMessage());
+        }
+    }
+
+    /**
+     * @return the variables contained in the data imported so far and the ones used in the configuration, without the
+     * ones filtered by the configuration as in DetermineProcessVariablesStep
+     */
+    private Set<String> getFeatureVariables(Dataset<Row> importedDataset) {
+        Set<String> variables = new HashSet<>();
+        for(Row row : importedDataset.select(SparkImporterVariables.VAR_PROCESS_INSTANCE_VARIABLE_NAME).distinct().collectAsList()) {
+            if(row.getString(0) != null) {
+                variables.add(row.getString(0));
+            }
+        }
+
+        Configuration configuration = ConfigurationUtils.getInstance().getConfiguration();
+        if(configuration != null && configuration.getPreprocessingConfiguration() != null) {
+            for(VariableConfiguration vc : configuration.getPreprocessingConfiguration().getVariableConfiguration()) {
+                if(vc.isUseVariable()) {
+                    variables.add(vc.getVariableName());
+                } else {
+                    variables.remove(vc.getVariableName());
+                }
+            }
+        }
+
+        variables.removeIf(variable -> variable.startsWith("_CORRELATION_ID_"));
+        return variables;
+    }
 }
@@ -7,8 +7,7 @@ import de.viadee.ki.sparkimporter.configuration.preprocessing.Step;
 import de.viadee.ki.sparkimporter.configuration.util.ConfigurationUtils;
 import de.viadee.ki.sparkimporter.exceptions.FaultyConfigurationException;
 import de.viadee.ki.sparkimporter.processing.PreprocessingRunner;
-import de.viadee.ki.sparkimporter.processing.aggregation.AllButEmptyStringAggregationFunction;
-import de.viadee.ki.sparkimporter.processing.aggregation.ProcessStatesAggregationFunction;
+import de.viadee.ki.sparkimporter.processing.aggregation.AggregationFunctions;
 import de.viadee.ki.sparkimporter.processing.steps.PipelineManager;
 import de.viadee.ki.sparkimporter.processing.steps.PipelineStep;
 import de.viadee.ki.sparkimporter.util.SparkImporterLogger;
@@ -60,9 +59,8 @@ public abstract class SparkPredictionServiceRunner {
     }
 
     protected void registerUDFs() {
-        // register our own aggregation function
-        sparkSession.udf().register("AllButEmptyString", new AllButEmptyStringAggregationFunction());
-        sparkSession.udf().register("ProcessState", new ProcessStatesAggregationFunction());
+        // register our own aggregation functions
+        AggregationFunctions.register(sparkSession);
         sparkSession.udf().register("isALong", new UDF1<Object, Boolean>() {
             @Override
             public Boolean call(Object o) throws Exception {
@@ -7,8 +7,9 @@ import de.viadee.ki.sparkimporter.configuration.preprocessing.Step;
 import de.viadee.ki.sparkimporter.configuration.util.ConfigurationUtils;
 import de.viadee.ki.sparkimporter.exceptions.FaultyConfigurationException;
 import de.viadee.ki.sparkimporter.processing.PreprocessingRunner;
-import de.viadee.ki.sparkimporter.processing.aggregation.AllButEmptyStringAggregationFunction;
-import de.viadee.ki.sparkimporter.processing.aggregation.ProcessStatesAggregationFunction;
+import de.viadee.ki.sparkimporter.processing.aggregation.AggregationFunctions;
+import de.viadee.ki.sparkimporter.processing.cache.StepResultCache;
+import de.viadee.ki.sparkimporter.processing.metrics.StepMetricsListener;
 import de.viadee.ki.sparkimporter.processing.steps.PipelineManager;
 import de.viadee.ki.sparkimporter.processing.steps.PipelineStep;
 import de.viadee.ki.sparkimporter.processing.steps.dataprocessing.AddVariableColumnsStep;
@@ -16,12 +17,14 @@ import de.viadee.ki.sparkimporter.processing.steps.dataprocessing.CreateColumnsF
 import de.viadee.ki.sparkimporter.processing.steps.dataprocessing.DetermineProcessVariablesStep;
 import de.viadee.ki.sparkimporter.processing.steps.dataprocessing.ReduceColumnsStep;
 import de.viadee.ki.sparkimporter.util.SparkBroadcastHelper;
+import de.viadee.ki.sparkimporter.util.ProcessingWatermark;
 import de.viadee.ki.sparkimporter.util.SparkImporterLogger;
 import de.viadee.ki.sparkimporter.util.SparkImporterVariables;
 import org.apache.spark.scheduler.SparkListener;
 import org.apache.spark.scheduler.SparkListenerApplicationEnd;
 import org.apache.spark.scheduler.SparkListenerJobEnd;
 import org.apache.spark.scheduler.SparkListenerJobStart;
+import org.apache.spark.sql.Column;
 import org.apache.spark.sql.Dataset;
 import org.apache.spark.sql.Row;
 import org.apache.spark.sql.SparkSession;
@@ -34,14 +37,24 @@ import org.spark_project.guava.primitives.Longs;
 
 import java.sql.Timestamp;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 
+import static org.apache.spark.sql.functions.*;
+
 public abstract class SparkRunner {
 
     private static final Logger LOG = LoggerFactory.getLogger(SparkRunner.class);
 
     private PipelineManager pipelineManager = null;
+
+    private static final String CHANGED_PROCESS_INSTANCE_ID = "changed_proc_inst_id_";
+    private static final String CHANGE_TIME = "change_time_";
+    private static final String RUNNING = "running_";
+
+    // watermark of the data processed by an incremental run, stored once the result has been written
+    private String pendingWatermark = null;
     protected SparkSession sparkSession = null;
 
     private Dataset<Row> dataset;
@@ -65,6 +78,14 @@ public abstract class SparkRunner {
 
     protected abstract Dataset<Row> loadInitialDataset();
 
+    /**
+     * @return the path of the data loaded by loadInitialDataset() or null if the data is not read from a file system,
+     * in which case the step results cannot be cached
+     */
+    protected String getInputPath() {
+        return null;
+    }
+
     public enum RUNNING_MODE {
         CSV_IMPORT_AND_PROCESSING("csv"),
         KAFKA_IMPORT("kafka_import"),
@@ -102,10 +123,12 @@ public abstract class SparkRunner {
         }
     }
 
-    private void registerUDFs() {
-        // register our own aggregation function
-        sparkSession.udf().register("AllButEmptyString", new AllButEmptyStringAggregationFunction());
-        sparkSession.udf().register("ProcessState", new ProcessStatesAggregationFunction());
+    /**
+     * Registers the UDFs and aggregation functions used by the pipeline steps.
+     */
+    public static void registerUDFs(SparkSession sparkSession) {
+        // register our own aggregation functions
+        AggregationFunctions.register(sparkSession);
         sparkSession.udf().register("isALong", (UDF1<Object, Boolean>) o -> {
             if(o instanceof Long)
                 return true;
@@ -173,15 +196,31 @@ public abstract class SparkRunner {
             }
         });
 
-        registerUDFs();
+        registerUDFs(sparkSession);
         initialize(arguments);
         checkConfig();
         configurePipelineSteps();
         dataset = loadInitialDataset();
-        
-        // filter dataset if only a specific processDefinitionId should be preprocessed (-pf)
-        if(SparkImporterVariables.getProcessFilterDefinitionId() != null) {
-        	dataset = dataset.filter(dataset.col(SparkImporterVariables.VAR_PROCESS_DEF_ID).equalTo(SparkImporterVariables.getProcessFilterDefinitionId()));
+
+        // the data has already been run through the pipeline while it was loaded (e.g. by a streaming import)
+        if(dataset == null) {
+            SparkImporterLogger.getInstance().writeInfo("No data left to process after loading.");
+            sparkSession.close();
+            writeConfig();
+            return;
+        }
+
+        dataset = filterDataset(dataset);
+
+        if(SparkImporterVariables.isIncremental()) {
+            dataset = selectChangedProcessInstances(dataset);
+
+            // the existing result is still up to date
+            if(dataset == null) {
+                sparkSession.close();
+                writeConfig();
+                return;
+            }
         }
         
         // TODO 
@@ -194,10 +233,20 @@ public abstract class SparkRunner {
         
         //go through pipe elements
         // Define processing steps to run
-        final PreprocessingRunner preprocessingRunner = new PreprocessingRunner();
+        final PreprocessingRunner preprocessingRunner = createPreprocessingRunner();
+
+        // results of a run writing the initial configuration are not cached as the configuration is still being built
+        // an incremental run processes a different part of the input each time, so its step results are not cached
+        if(SparkImporterVariables.isStepResultCacheEnabled() && getInputPath() != null && !PreprocessingRunner.initialConfigToBeWritten
+                && !SparkImporterVariables.isIncremental()) {
+            preprocessingRunner.setStepResultCache(new StepResultCache(SparkImporterVariables.getStepResultCacheDirectory(),
+                    SparkImporterVariables.getStepResultCacheMaxSize(), getInputPath(), dataset.schema().json(), dataLevel));
+        }
 
-        for(PipelineStep ps : pipelineManager.getOrderedPipeline()) {
-            preprocessingRunner.addPreprocessorStep(ps);
+        if(SparkImporterVariables.isStepMetricsEnabled()) {
+            StepMetricsListener stepMetricsListener = new StepMetricsListener(SparkImporterVariables.getTargetFolder(), sparkSession.sparkContext().hadoopConfiguration());
+            sparkSession.sparkContext().addSparkListener(stepMetricsListener);
+            preprocessingRunner.setStepMetricsListener(stepMetricsListener);
         }
 
         final long startMillis = System.currentTimeMillis();
@@ -205,6 +254,13 @@ public abstract class SparkRunner {
         // Run processing runner
         preprocessingRunner.run(dataset, dataLevel);
 
+        // a minimal pipeline run only builds the configuration, so the data is processed again by the next run
+        if(pendingWatermark != null && !PreprocessingRunner.minimalPipelineToBeBuild) {
+            new ProcessingWatermark(SparkImporterVariables.getWorkingDirectory()).write(pendingWatermark);
+        }
+
+        onDatasetProcessed();
+
         final long endMillis = System.currentTimeMillis();
 
         String logMessage = "Job ran for " + ((endMillis - startMillis) / 1000) + " seconds in total";
@@ -230,6 +286,84 @@ public abstract class SparkRunner {
         writeConfig();
     }
 
+    /**
+     * Keeps the data of the process instances that have changed since the last incremental run and of the ones that
+     * are still running, as their variables can be updated without a change time (e.g. in a CSV export). All data of
+     * these process instances is kept, so they are processed as a whole and replace their rows in the result.
+     *
+     * @return the data of the selected process instances or null if none of them has changed
+     */
+    private Dataset<Row> selectChangedProcessInstances(Dataset<Row> dataset) {
+        List<Column> timeColumns = new ArrayList<>();
+        for(String column : new String[]{SparkImporterVariables.VAR_TIMESTAMP, SparkImporterVariables.VAR_END_TIME, SparkImporterVariables.VAR_START_TIME}) {
+            if(Arrays.asList(dataset.columns()).contains(column)) {
+                timeColumns.add(dataset.col(column).cast("string"));
+            }
+        }
+        if(timeColumns.isEmpty()) {
+            SparkImporterLogger.getInstance().writeWarn("The data contains no time columns, processing all process instances.");
+            return dataset;
+        }
+
+        // the time columns contain epoch millis (Kafka import) or formatted timestamps (CSV export), both sort as strings
+        Column changeTime = timeColumns.size() == 1 ? timeColumns.get(0) : greatest(timeColumns.toArray(new Column[0]));
+        Column running = Arrays.asList(dataset.columns()).contains(SparkImporterVariables.VAR_END_TIME)
+                ? max(dataset.col(SparkImporterVariables.VAR_END_TIME)).isNull() : lit(false);
+        Dataset<Row> processInstances = dataset
+                .groupBy(dataset.col(SparkImporterVariables.VAR_PROCESS_INSTANCE_ID))
+                .agg(max(changeTime).as(CHANGE_TIME), running.as(RUNNING))
+                .withColumnRenamed(SparkImporterVariables.VAR_PROCESS_INSTANCE_ID, CHANGED_PROCESS_INSTANCE_ID);
+
+        String lastWatermark = new ProcessingWatermark(SparkImporterVariables.getWorkingDirectory()).read();
+        Column changed = lastWatermark == null ? lit(true) : col(CHANGE_TIME).gt(lastWatermark).or(col(RUNNING));
+
+        Row summary = processInstances
+                .agg(max(CHANGE_TIME), count(lit(1)), sum(when(changed, 1).otherwise(0)))
+                .first();
+        pendingWatermark = summary.isNullAt(0) ? lastWatermark : summary.getString(0);
+
+        SparkImporterLogger.getInstance().writeInfo("Incremental processing of " + (summary.isNullAt(2) ? 0 : summary.getLong(2)) + " of " + summary.getLong(1)
+                + " process instances" + (lastWatermark == null ? "." : ", changed after " + lastWatermark + " or still running."));
+
+        if(lastWatermark == null) {
+            return dataset;
+        } else if(summary.isNullAt(2) || summary.getLong(2) == 0) {
+            return null;
+        }
+
+        Dataset<Row> changedProcessInstances = processInstances.filter(changed).select(CHANGED_PROCESS_INSTANCE_ID);
+        return dataset.join(changedProcessInstances,
+                dataset.col(SparkImporterVariables.VAR_PROCESS_INSTANCE_ID).equalTo(changedProcessInstances.col(CHANGED_PROCESS_INSTANCE_ID)),
+                "left_semi");
+    }
+
+    /**
+     * Called once the dataset returned by loadInitialDataset() has been run through the pipeline.
+     */
+    protected void onDatasetProcessed() {
+    }
+
+    /**
+     * Filters the dataset if only a specific processDefinitionId should be preprocessed (-pf).
+     */
+    protected Dataset<Row> filterDataset(Dataset<Row> dataset) {
+        if(SparkImporterVariables.getProcessFilterDefinitionId() != null) {
+            dataset = dataset.filter(dataset.col(SparkImporterVariables.VAR_PROCESS_DEF_ID).equalTo(SparkImporterVariables.getProcessFilterDefinitionId()));
+        }
+        return dataset;
+    }
+
+    /**
+     * @return a runner for the configured pipeline, can be used for each part of the data if it is not loaded at once
+     */
+    protected PreprocessingRunner createPreprocessingRunner() {
+        PreprocessingRunner preprocessingRunner = new PreprocessingRunner();
+        for(PipelineStep ps : pipelineManager.getOrderedPipeline()) {
+            preprocessingRunner.addPreprocessorStep(ps);
+        }
+        return preprocessingRunner;
+    }
+
     public void overwritePipelineSteps() {
         Configuration configuration = ConfigurationUtils.getInstance().getConfiguration();
 
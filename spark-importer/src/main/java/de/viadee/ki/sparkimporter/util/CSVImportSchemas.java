@@ -0,0 +1,186 @@
+package de.viadee.ki.sparkimporter.util;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.google.gson.reflect.TypeToken;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.spark.api.java.function.FilterFunction;
+import org.apache.spark.api.java.JavaRDD;
+import org.apache.spark.sql.DataFrameReader;
+import org.apache.spark.sql.Dataset;
+import org.apache.spark.sql.Encoders;
+import org.apache.spark.sql.Row;
+import org.apache.spark.sql.SparkSession;
+import org.apache.spark.sql.types.DataType;
+import org.apache.spark.sql.types.DataTypes;
+import org.apache.spark.sql.types.StructField;
+import org.apache.spark.sql.types.StructType;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Determines the schema of an imported CSV file according to the schema mode (see SparkImporterVariables), so the file
+ * does not have to be read an additional time for inferring the schema on every run. The schema used is stored in the
+ * working directory, keyed by the header of the file, so a later run with the cached mode can reuse it. A sampled or
+ * cached schema is checked while the file is read for the import itself, the run fails on the first record not
+ * matching it instead of reading that record as null.
+ */
+public class CSVImportSchemas {
+
+    public static final String SCHEMAS_FILE = "csv_schemas.json";
+
+    private static final String CORRUPT_RECORD_COLUMN = "_corrupt_record";
+
+    private static final Type SCHEMAS_TYPE = new TypeToken<Map<String, String>>(){}.getType();
+
+    private CSVImportSchemas() {
+    }
+
+    public static Dataset<Row> read(SparkSession sparkSession, String path, String delimiter, String schemaMode, String workingDirectory) {
+        // without schema inference only the header is read
+        StructType stringSchema = createReader(sparkSession, delimiter).csv(path).schema();
+        String headerKey = DigestUtils.md5Hex(delimiter + String.join(delimiter, stringSchema.fieldNames()));
+        Path schemasFile = Paths.get(workingDirectory, SCHEMAS_FILE);
+        Map<String, String> schemas = readSchemas(schemasFile);
+
+        StructType schema = null;
+        if(SparkImporterVariables.SCHEMA_MODE_ALL_STRING.equals(schemaMode)) {
+            schema = stringSchema;
+        } else if(SparkImporterVariables.SCHEMA_MODE_CACHED.equals(schemaMode)) {
+            if(schemas.containsKey(headerKey)) {
+                schema = (StructType) DataType.fromJson(schemas.get(headerKey));
+            } else {
+                SparkImporterLogger.getInstance().writeInfo("No cached schema found for the header of " + path + ". The schema is inferred.");
+            }
+        } else if(schemaMode != null && schemaMode.startsWith(SparkImporterVariables.SCHEMA_MODE_SAMPLE)) {
+            try {
+                double fraction = Double.parseDouble(schemaMode.substring(SparkImporterVariables.SCHEMA_MODE_SAMPLE.length()));
+                if(fraction > 0 && fraction < 1) {
+                    schema = inferSchemaFromSample(sparkSession, path, delimiter, stringSchema, fraction);
+                }
+            } catch (NumberFormatException e) {
+                SparkImporterLogger.getInstance().writeWarn("Invalid schema sample '" + schemaMode + "'. The schema is inferred from all data.");
+            }
+        } else if(!SparkImporterVariables.SCHEMA_MODE_INFER.equals(schemaMode)) {
+            SparkImporterLogger.getInstance().writeWarn("Unknown schema mode '" + schemaMode + "'. The schema is inferred from all data.");
+        }
+
+        // only a schema inferred from all data or the all string schema is known to match all values
+        boolean checkSchema = schema != null && schema != stringSchema;
+
+        if(schema == null) {
+            schema = createReader(sparkSession, delimiter).option("inferSchema", "true").csv(path).schema();
+        }
+
+        if(!schema.json().equals(schemas.get(headerKey))) {
+            schemas.put(headerKey, schema.json());
+            writeSchemas(schemasFile, schemas);
+        }
+
+        if(checkSchema) {
+            return readChecked(sparkSession, path, delimiter, schema,
+                    SparkImporterVariables.SCHEMA_MODE_CACHED.equals(schemaMode) ? "cached" : "sampled");
+        }
+        return createReader(sparkSession, delimiter).schema(schema).csv(path);
+    }
+
+    private static DataFrameReader createReader(SparkSession sparkSession, String delimiter) {
+        return sparkSession.read()
+                .option("delimiter", delimiter)
+                .option("header", "true")
+                .option("ignoreLeadingWhiteSpace", "false")
+                .option("ignoreTrailingWhiteSpace", "false");
+    }
+
+    /**
+     * Reads the file with a schema which has not been inferred from all of its data. The CSV parser would otherwise
+     * read a value not matching its column type as null without any warning, so the raw line of such a record is kept
+     * in an additional column and the record fails the task reading it. This costs no additional pass over the file.
+     */
+    private static Dataset<Row> readChecked(SparkSession sparkSession, String path, String delimiter, StructType schema, String schemaDescription) {
+        int corruptRecordIndex = schema.size();
+        String message = "A record of " + path + " does not match the " + schemaDescription + " schema. Run the import with "
+                + "the schema mode " + SparkImporterVariables.SCHEMA_MODE_INFER + " to replace the stored schema. Record: ";
+
+        return createReader(sparkSession, delimiter)
+                .option("mode", "PERMISSIVE")
+                .option("columnNameOfCorruptRecord", CORRUPT_RECORD_COLUMN)
+                .schema(schema.add(CORRUPT_RECORD_COLUMN, DataTypes.StringType, true))
+                .csv(path)
+                .filter((FilterFunction<Row>) row -> {
+                    if(!row.isNullAt(corruptRecordIndex)) {
+                        throw new IllegalStateException(message + row.getString(corruptRecordIndex));
+                    }
+                    return true;
+                })
+                .drop(CORRUPT_RECORD_COLUMN);
+    }
+
+    /**
+     * Infers the types of the columns from a sample of the lines of the file. Like the import itself the sample is
+     * parsed line by line, so values spanning several lines are not supported. The types of a sample can be narrower
+     * than the ones of all data, so the schema is checked while the file is read.
+     */
+    private static StructType inferSchemaFromSample(SparkSession sparkSession, String path, String delimiter, StructType stringSchema, double fraction) {
+        // only the first line of the file is the header, a data line equal to it is kept
+        JavaRDD<String> lines = sparkSession.read().textFile(path).javaRDD()
+                .mapPartitionsWithIndex((index, partition) -> {
+                    if(index == 0 && partition.hasNext()) {
+                        partition.next();
+                    }
+                    return partition;
+                }, true);
+        Dataset<String> sample = sparkSession.createDataset(lines.sample(false, fraction).rdd(), Encoders.STRING());
+
+        StructType sampleSchema = sparkSession.read()
+                .option("delimiter", delimiter)
+                .option("header", "false")
+                .option("inferSchema", "true")
+                .option("ignoreLeadingWhiteSpace", "false")
+                .option("ignoreTrailingWhiteSpace", "false")
+                .csv(sample)
+                .schema();
+
+        // the sample has no header, so its columns are matched by position
+        StructField[] fields = new StructField[stringSchema.size()];
+        for(int i = 0; i < fields.length; i++) {
+            DataType dataType = i < sampleSchema.size() ? sampleSchema.fields()[i].dataType() : DataTypes.StringType;
+            fields[i] = DataTypes.createStructField(stringSchema.fields()[i].name(), dataType, true);
+        }
+        return DataTypes.createStructType(fields);
+    }
+
+    private static Map<String, String> readSchemas(Path schemasFile) {
+        if(Files.exists(schemasFile)) {
+            try (Reader reader = Files.newBufferedReader(schemasFile, StandardCharsets.UTF_8)) {
+                Map<String, String> schemas = new Gson().fromJson(reader, SCHEMAS_TYPE);
+                if(schemas != null) {
+                    return schemas;
+                }
+            } catch (IOException | JsonParseException e) {
+                SparkImporterLogger.getInstance().writeWarn("Could not read CSV schemas from " + schemasFile + ". Exception: " + e.getMessage());
+            }
+        }
+        return new HashMap<>();
+    }
+
+    private static void writeSchemas(Path schemasFile, Map<String, String> schemas) {
+        try {
+            Files.createDirectories(schemasFile.toAbsolutePath().getParent());
+            try (Writer writer = Files.newBufferedWriter(schemasFile, StandardCharsets.UTF_8)) {
+                new Gson().toJson(schemas, SCHEMAS_TYPE, writer);
+            }
+        } catch (IOException e) {
+            SparkImporterLogger.getInstance().writeError("Could not write CSV schemas to " + schemasFile + ": " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package de.viadee.ki.sparkimporter.util;
+
+import org.apache.spark.sql.Dataset;
+import org.apache.spark.sql.Row;
+import org.apache.spark.sql.SparkSession;
+import org.apache.spark.sql.types.DataTypes;
+import org.apache.spark.sql.types.StructField;
+import org.apache.spark.sql.types.StructType;
+
+import java.util.*;
+
+/**
+ * Schemas of the Camunda history events published to the Kafka topics. Parsing the JSON with a given schema avoids
+ * the additional pass over the data which is needed to infer the schema and gives every micro-batch the same columns.
+ */
+public class KafkaEventSchemas {
+
+    public static final String TOPIC_PROCESS_INSTANCE = "processInstance";
+    public static final String TOPIC_VARIABLE_UPDATE = "variableUpdate";
+    public static final String TOPIC_ACTIVITY_INSTANCE = "activityInstance";
+
+    // fields of HistoryEvent, the base of all Camunda history events
+    private static final String[] HISTORY_EVENT_FIELDS = {
+            "id", "processInstanceId", "executionId", "processDefinitionId", "processDefinitionKey",
+            "processDefinitionName", "processDefinitionVersion", "caseInstanceId", "caseExecutionId",
+            "caseDefinitionId", "caseDefinitionKey", "caseDefinitionName", "eventType", "sequenceCounter"
+    };
+
+    // HistoricProcessInstanceEventEntity
+    private static final String[] PROCESS_INSTANCE_FIELDS = {
+            "durationInMillis", "startTime", "endTime", "businessKey", "startUserId", "superProcessInstanceId",
+            "superCaseInstanceId", "deleteReason", "endActivityId", "startActivityId", "tenantId", "state"
+    };
+
+    // HistoricVariableUpdateEventEntity
+    private static final String[] VARIABLE_UPDATE_FIELDS = {
+            "activityInstanceId", "taskId", "timestamp", "tenantId", "userOperationId", "revision", "variableName",
+            "variableInstanceId", "scopeActivityInstanceId", "serializerName", "longValue", "doubleValue",
+            "textValue", "complexValue"
+    };
+
+    // HistoricActivityInstanceEventEntity
+    private static final String[] ACTIVITY_INSTANCE_FIELDS = {
+            "activityInstanceId", "parentActivityInstanceId", "activityId", "taskId", "callProcessinstanceId",
+            "callCaseInstanceId", "activityName", "activityType", "taskAssignee", "startTime", "endTime",
+            "durationInMillis", "activityInstanceState", "tenantId"
+    };
+
+    private static final Map<String, String[]> TOPIC_FIELDS = new HashMap<>();
+
+    static {
+        TOPIC_FIELDS.put(TOPIC_PROCESS_INSTANCE, PROCESS_INSTANCE_FIELDS);
+        TOPIC_FIELDS.put(TOPIC_VARIABLE_UPDATE, VARIABLE_UPDATE_FIELDS);
+        TOPIC_FIELDS.put(TOPIC_ACTIVITY_INSTANCE, ACTIVITY_INSTANCE_FIELDS);
+    }
+
+    private KafkaEventSchemas() {
+    }
+
+    /**
+     * Returns the schema containing the fields of the events of all given topics. As with schema inference the fields
+     * are sorted by name, so the columns are the same no matter how the schema has been determined.
+     *
+     * All fields are read as strings: ColumnsPreparationStep converts every column to a string anyway and for string
+     * fields the JSON parser keeps numbers as they are written in the event.
+     */
+    public static StructType getSchema(Collection<String> topics) {
+        SortedSet<String> fieldNames = new TreeSet<>(Arrays.asList(HISTORY_EVENT_FIELDS));
+        for(String topic : topics) {
+            String[] topicFields = TOPIC_FIELDS.get(topic);
+            if(topicFields == null) {
+                throw new IllegalArgumentException("No event schema known for Kafka topic '" + topic + "'.");
+            }
+            fieldNames.addAll(Arrays.asList(topicFields));
+        }
+
+        List<StructField> fields = new ArrayList<>();
+        for(String fieldName : fieldNames) {
+            fields.add(DataTypes.createStructField(fieldName, DataTypes.StringType, true));
+        }
+        return DataTypes.createStructType(fields);
+    }
+
+    /**
+     * Parses the JSON events of the given topics according to the given schema mode (see SparkImporterVariables).
+     */
+    public static Dataset<Row> parse(SparkSession sparkSession, Dataset<String> jsonDataset, Collection<String> topics, String schemaMode) {
+        if(SparkImporterVariables.JSON_SCHEMA_INFER.equals(schemaMode)) {
+            return sparkSession.read().json(jsonDataset);
+        }
+
+        StructType schema = getSchema(topics);
+        if(SparkImporterVariables.JSON_SCHEMA_EXTENDED.equals(schemaMode)) {
+            schema = extendSchema(schema, sparkSession.read().json(jsonDataset).schema());
+        } else if(!SparkImporterVariables.JSON_SCHEMA_FIXED.equals(schemaMode)) {
+            SparkImporterLogger.getInstance().writeWarn("Unknown JSON schema mode '" + schemaMode + "'. The fixed event schema is used.");
+        }
+        return sparkSession.read().schema(schema).json(jsonDataset);
+    }
+
+    /**
+     * Adds the fields of the inferred schema that are not part of the event schema, e.g. fields of a newer Camunda
+     * version. They keep the inferred type.
+     */
+    private static StructType extendSchema(StructType eventSchema, StructType inferredSchema) {
+        SortedMap<String, StructField> fields = new TreeMap<>();
+        for(StructField field : inferredSchema.fields()) {
+            fields.put(field.name(), field);
+        }
+        for(StructField field : eventSchema.fields()) {
+            fields.put(field.name(), field);
+        }
+        return DataTypes.createStructType(new ArrayList<>(fields.values()));
+    }
+}
@@ -0,0 +1,105 @@
+package de.viadee.ki.sparkimporter.util;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.google.gson.reflect.TypeToken;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.spark.streaming.kafka010.OffsetRange;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Stores the Kafka offsets up to which the data has been imported, so an import continues where the last one stopped.
+ * The offsets are kept per topic and partition in a JSON file, which is replaced as a whole after each imported part
+ * of the data.
+ */
+public class KafkaOffsetStore {
+
+    public static final String OFFSETS_FILE = "kafka_offsets.json";
+
+    private static final Type OFFSETS_TYPE = new TypeToken<Map<String, Map<Integer, Long>>>(){}.getType();
+
+    private final Path offsetsFile;
+
+    // next offset to read per topic and partition
+    private final Map<String, Map<Integer, Long>> offsets;
+
+    public KafkaOffsetStore(String directory) {
+        this.offsetsFile = Paths.get(directory, OFFSETS_FILE);
+        this.offsets = read();
+    }
+
+    /**
+     * @return the next offset to read for each partition of the given topics that has been imported before
+     */
+    public synchronized Map<TopicPartition, Long> getOffsets(Iterable<String> topics) {
+        Map<TopicPartition, Long> topicOffsets = new HashMap<>();
+        for(String topic : topics) {
+            for(Map.Entry<Integer, Long> partitionOffset : offsets.getOrDefault(topic, new HashMap<>()).entrySet()) {
+                topicOffsets.put(new TopicPartition(topic, partitionOffset.getKey()), partitionOffset.getValue());
+            }
+        }
+        return topicOffsets;
+    }
+
+    /**
+     * Marks the given offset ranges as imported and writes the offsets to the file.
+     */
+    public synchronized void commit(OffsetRange[] offsetRanges) {
+        for(OffsetRange offsetRange : offsetRanges) {
+            offsets.computeIfAbsent(offsetRange.topic(), topic -> new HashMap<>()).put(offsetRange.partition(), offsetRange.untilOffset());
+        }
+        write();
+    }
+
+    /**
+     * Removes all stored offsets, so the next import starts at the beginning of the topics.
+     */
+    public synchronized void reset() {
+        offsets.clear();
+        try {
+            Files.deleteIfExists(offsetsFile);
+        } catch (IOException e) {
+            SparkImporterLogger.getInstance().writeWarn("Could not delete Kafka offsets " + offsetsFile + ": " + e.getMessage());
+        }
+    }
+
+    private Map<String, Map<Integer, Long>> read() {
+        if(Files.exists(offsetsFile)) {
+            try (Reader reader = Files.newBufferedReader(offsetsFile, StandardCharsets.UTF_8)) {
+                Map<String, Map<Integer, Long>> storedOffsets = new Gson().fromJson(reader, OFFSETS_TYPE);
+                if(storedOffsets != null) {
+                    SparkImporterLogger.getInstance().writeInfo("Continuing Kafka import from offsets stored in " + offsetsFile + ".");
+                    return storedOffsets;
+                }
+            } catch (IOException | JsonParseException e) {
+                SparkImporterLogger.getInstance().writeWarn("Could not read Kafka offsets from " + offsetsFile + ", reading topics from the beginning. Exception: " + e.getMessage());
+            }
+        }
+        return new HashMap<>();
+    }
+
+    private void write() {
+        try {
+            Files.createDirectories(offsetsFile.toAbsolutePath().getParent());
+            // write to a temporary file first, so an aborted import never leaves an incomplete offsets file
+            Path tempFile = offsetsFile.resolveSibling(OFFSETS_FILE + ".tmp");
+            try (Writer writer = Files.newBufferedWriter(tempFile, StandardCharsets.UTF_8)) {
+                new Gson().toJson(offsets, OFFSETS_TYPE, writer);
+            }
+            Files.move(tempFile, offsetsFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            SparkImporterLogger.getInstance().writeError("Could not write Kafka offsets to " + offsetsFile + ": " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package de.viadee.ki.sparkimporter.util;
+
+import org.apache.kafka.common.TopicPartition;
+import org.apache.spark.streaming.kafka010.OffsetRange;
+import org.apache.spark.streaming.kafka010.PerPartitionConfig;
+
+/**
+ * Limits the number of records read from each Kafka partition per micro-batch. With backpressure the limit is adapted
+ * after every micro-batch: it is lowered when processing took longer than the batch interval and raised again up to
+ * the configured maximum when processing is fast enough, so a backlog is worked off in batches that fit into memory.
+ *
+ * Spark Streaming cannot change the batch interval of a running stream, so the amount of data per batch is adapted
+ * instead.
+ */
+public class KafkaRateController extends PerPartitionConfig {
+
+    // processing has to take less than this share of the batch interval before the limit is raised
+    private static final double RAISE_LOAD = 0.5;
+
+    private static final double RAISE_FACTOR = 1.5;
+
+    // the limit is lowered step by step, as part of the processing time does not depend on the number of records
+    private static final double LOWER_FACTOR = 0.5;
+
+    private final String name;
+    private final long batchIntervalMillis;
+    private final long maxRecordsPerPartition;
+    private final boolean backpressure;
+
+    // current limit of records per partition and batch, 0 means unlimited
+    private volatile long recordsPerPartition;
+
+    public KafkaRateController(String name, long batchIntervalMillis, long maxRecordsPerPartition, boolean backpressure) {
+        this.name = name;
+        this.batchIntervalMillis = batchIntervalMillis;
+        this.maxRecordsPerPartition = Math.max(0, maxRecordsPerPartition);
+        this.backpressure = backpressure;
+        this.recordsPerPartition = this.maxRecordsPerPartition;
+    }
+
+    /**
+     * @return the limit as records per second, which is how Spark expects it
+     */
+    @Override
+    public long maxRatePerPartition(TopicPartition topicPartition) {
+        long limit = recordsPerPartition;
+        if(limit == 0) {
+            return 0;
+        }
+        return Math.max(1, limit * 1000 / batchIntervalMillis);
+    }
+
+    /**
+     * Adapts the limit to the time it took to process the given micro-batch.
+     */
+    public void batchProcessed(OffsetRange[] offsetRanges, long processingMillis) {
+        if(!backpressure) {
+            return;
+        }
+
+        long largestPartition = 0;
+        for(OffsetRange offsetRange : offsetRanges) {
+            largestPartition = Math.max(largestPartition, offsetRange.count());
+        }
+        if(largestPartition == 0) {
+            return;
+        }
+
+        long limit = recordsPerPartition;
+        if(processingMillis > batchIntervalMillis) {
+            long newLimit = Math.max(1, (long) (largestPartition * LOWER_FACTOR));
+            if(limit == 0 || newLimit < limit) {
+                recordsPerPartition = newLimit;
+                SparkImporterLogger.getInstance().writeInfo("Micro-batch of '" + name + "' took " + processingMillis + " ms, longer than the batch interval of "
+                        + batchIntervalMillis + " ms. Reading at most " + newLimit + " records per partition and batch.");
+            }
+        } else if(limit > 0 && largestPartition >= limit && processingMillis < batchIntervalMillis * RAISE_LOAD) {
+            long newLimit = (long) Math.ceil(limit * RAISE_FACTOR);
+            if(maxRecordsPerPartition > 0) {
+                newLimit = Math.min(newLimit, maxRecordsPerPartition);
+            }
+            if(newLimit > limit) {
+                recordsPerPartition = newLimit;
+                SparkImporterLogger.getInstance().writeInfo("Micro-batch of '" + name + "' took " + processingMillis + " ms of the batch interval of "
+                        + batchIntervalMillis + " ms. Reading at most " + newLimit + " records per partition and batch.");
+            }
+        }
+    }
+}
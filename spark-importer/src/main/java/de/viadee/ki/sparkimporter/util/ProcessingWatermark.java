@@ -0,0 +1,65 @@
+package de.viadee.ki.sparkimporter.util;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.google.gson.reflect.TypeToken;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Stores the latest change time of the data processed by the last incremental run, so the next run only processes the
+ * process instances changed since then.
+ */
+public class ProcessingWatermark {
+
+    public static final String WATERMARK_FILE = "processing_watermark.json";
+
+    private static final String WATERMARK = "watermark";
+
+    private static final Type WATERMARK_TYPE = new TypeToken<Map<String, String>>(){}.getType();
+
+    private final Path watermarkFile;
+
+    public ProcessingWatermark(String directory) {
+        this.watermarkFile = Paths.get(directory, WATERMARK_FILE);
+    }
+
+    /**
+     * @return the watermark of the last run or null if there has been none
+     */
+    public String read() {
+        if(Files.exists(watermarkFile)) {
+            try (Reader reader = Files.newBufferedReader(watermarkFile, StandardCharsets.UTF_8)) {
+                Map<String, String> values = new Gson().fromJson(reader, WATERMARK_TYPE);
+                if(values != null) {
+                    return values.get(WATERMARK);
+                }
+            } catch (IOException | JsonParseException e) {
+                SparkImporterLogger.getInstance().writeWarn("Could not read processing watermark from " + watermarkFile + ", processing all data. Exception: " + e.getMessage());
+            }
+        }
+        return null;
+    }
+
+    public void write(String watermark) {
+        Map<String, String> values = new HashMap<>();
+        values.put(WATERMARK, watermark);
+        try {
+            Files.createDirectories(watermarkFile.toAbsolutePath().getParent());
+            try (Writer writer = Files.newBufferedWriter(watermarkFile, StandardCharsets.UTF_8)) {
+                new Gson().toJson(values, WATERMARK_TYPE, writer);
+            }
+        } catch (IOException e) {
+            SparkImporterLogger.getInstance().writeError("Could not write processing watermark to " + watermarkFile + ": " + e.getMessage());
+        }
+    }
+}
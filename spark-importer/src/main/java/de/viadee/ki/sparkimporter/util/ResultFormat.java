@@ -0,0 +1,142 @@
+package de.viadee.ki.sparkimporter.util;
+
+import org.apache.spark.sql.DataFrameReader;
+import org.apache.spark.sql.DataFrameWriter;
+import org.apache.spark.sql.Row;
+import org.apache.spark.sql.SparkSession;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * File format and compression codec the result is written with. A CSV result is written as Parquet first and then
+ * exported (see SparkImporterUtils).
+ *
+ * The codecs are given by the names of the compression option and mapped to the names the format uses. Codecs the
+ * format does not support in this Spark version are replaced by the format's default codec.
+ */
+public class ResultFormat {
+
+    // the native ORC implementation, the default one of Spark 2.3 requires Hive
+    private static final String ORC_DATA_SOURCE = "org.apache.spark.sql.execution.datasources.orc.OrcFileFormat";
+
+    // Avro is not part of Spark 2.3, it is available if one of these data sources is on the classpath
+    private static final String[] AVRO_DATA_SOURCES = {
+            "org.apache.spark.sql.avro.AvroFileFormat",
+            "com.databricks.spark.avro.DefaultSource"
+    };
+
+    private static final String AVRO_COMPRESSION_CONFIG = "spark.sql.avro.compression.codec";
+
+    private static final Map<String, Map<String, String>> CODECS = new HashMap<>();
+
+    static {
+        Map<String, String> parquetCodecs = new HashMap<>();
+        parquetCodecs.put(SparkImporterVariables.COMPRESSION_NONE, "none");
+        parquetCodecs.put(SparkImporterVariables.COMPRESSION_SNAPPY, "snappy");
+        parquetCodecs.put(SparkImporterVariables.COMPRESSION_GZIP, "gzip");
+        parquetCodecs.put("lzo", "lzo");
+        CODECS.put(SparkImporterVariables.OUTPUT_FORMAT_PARQUET, parquetCodecs);
+
+        Map<String, String> orcCodecs = new HashMap<>();
+        orcCodecs.put(SparkImporterVariables.COMPRESSION_NONE, "none");
+        orcCodecs.put(SparkImporterVariables.COMPRESSION_SNAPPY, "snappy");
+        orcCodecs.put(SparkImporterVariables.COMPRESSION_GZIP, "zlib");
+        orcCodecs.put("zlib", "zlib");
+        orcCodecs.put("lzo", "lzo");
+        CODECS.put(SparkImporterVariables.OUTPUT_FORMAT_ORC, orcCodecs);
+
+        Map<String, String> avroCodecs = new HashMap<>();
+        avroCodecs.put(SparkImporterVariables.COMPRESSION_NONE, "uncompressed");
+        avroCodecs.put(SparkImporterVariables.COMPRESSION_SNAPPY, "snappy");
+        avroCodecs.put(SparkImporterVariables.COMPRESSION_GZIP, "deflate");
+        avroCodecs.put("deflate", "deflate");
+        CODECS.put(SparkImporterVariables.OUTPUT_FORMAT_AVRO, avroCodecs);
+    }
+
+    private final String name;
+    private final String dataSource;
+    private final String codec;
+
+    private ResultFormat(String name, String dataSource, String codec) {
+        this.name = name;
+        this.dataSource = dataSource;
+        this.codec = codec;
+    }
+
+    /**
+     * @param outputFormat the output format option
+     * @param compression the compression option, null for the format's default codec
+     */
+    public static ResultFormat of(String outputFormat, String compression) {
+        String name = SparkImporterVariables.OUTPUT_FORMAT_PARQUET;
+        String dataSource = SparkImporterVariables.OUTPUT_FORMAT_PARQUET;
+
+        if(SparkImporterVariables.OUTPUT_FORMAT_ORC.equals(outputFormat)) {
+            name = SparkImporterVariables.OUTPUT_FORMAT_ORC;
+            dataSource = ORC_DATA_SOURCE;
+        } else if(SparkImporterVariables.OUTPUT_FORMAT_AVRO.equals(outputFormat)) {
+            String avroDataSource = findAvroDataSource();
+            if(avroDataSource != null) {
+                name = SparkImporterVariables.OUTPUT_FORMAT_AVRO;
+                dataSource = avroDataSource;
+            } else {
+                SparkImporterLogger.getInstance().writeWarn("No Avro data source found on the classpath (e.g. com.databricks:spark-avro). The result is written as Parquet.");
+            }
+        } else if(!SparkImporterVariables.OUTPUT_FORMAT_PARQUET.equals(outputFormat) && !SparkImporterVariables.OUTPUT_FORMAT_CSV.equals(outputFormat)) {
+            SparkImporterLogger.getInstance().writeWarn("Unknown output format '" + outputFormat + "'. The result is written as Parquet.");
+        }
+
+        String codec = null;
+        if(compression != null) {
+            codec = CODECS.get(name).get(compression.toLowerCase());
+            if(codec == null) {
+                SparkImporterLogger.getInstance().writeWarn("Compression '" + compression + "' is not supported for " + name + " results by this Spark version. The default codec is used.");
+            }
+        }
+
+        return new ResultFormat(name, dataSource, codec);
+    }
+
+    private static String findAvroDataSource() {
+        for(String dataSource : AVRO_DATA_SOURCES) {
+            try {
+                Class.forName(dataSource);
+                return dataSource;
+            } catch (ClassNotFoundException e) {
+                // try the next one
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the name of the format, which is also the name of the folder the result is written to
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return the codec the result is compressed with or null for the format's default codec
+     */
+    public String getCodec() {
+        return codec;
+    }
+
+    public DataFrameWriter<Row> configure(DataFrameWriter<Row> writer) {
+        writer = writer.format(dataSource);
+        if(codec != null) {
+            if(SparkImporterVariables.OUTPUT_FORMAT_AVRO.equals(name)) {
+                // the Databricks Avro data source only reads the codec from the configuration
+                SparkSession.builder().getOrCreate().conf().set(AVRO_COMPRESSION_CONFIG, codec);
+            }
+            writer = writer.option("compression", codec);
+        }
+        return writer;
+    }
+
+    public DataFrameReader configure(DataFrameReader reader) {
+        return reader.format(dataSource);
+    }
+}
@@ -6,6 +6,7 @@ import org.apache.spark.sql.SparkSession;
 
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class SparkBroadcastHelper {
 
@@ -26,7 +27,7 @@ public class SparkBroadcastHelper {
         return instance;
     }
 
-    private static final Map<BROADCAST_VARIABLE, Broadcast<Object>> BROADCAST_VARIABLES = new HashMap<>();
+    private static final Map<BROADCAST_VARIABLE, Broadcast<Object>> BROADCAST_VARIABLES = new ConcurrentHashMap<>();
 
     public<T> void broadcastVariable(BROADCAST_VARIABLE name,  T varToBroadcast) {
         JavaSparkContext jsc = JavaSparkContext.fromSparkContext(SparkSession.builder().getOrCreate().sparkContext());
@@ -40,4 +41,12 @@ public class SparkBroadcastHelper {
         else
             return null;
     }
+
+    public Map<BROADCAST_VARIABLE, Object> getBroadcastVariables() {
+        Map<BROADCAST_VARIABLE, Object> values = new HashMap<>();
+        for(BROADCAST_VARIABLE name : BROADCAST_VARIABLES.keySet()) {
+            values.put(name, BROADCAST_VARIABLES.get(name).value());
+        }
+        return values;
+    }
 }
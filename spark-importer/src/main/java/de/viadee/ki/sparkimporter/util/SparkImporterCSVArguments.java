@@ -48,7 +48,7 @@ public class SparkImporterCSVArguments {
 	private String saveMode = SparkImporterVariables.SAVE_MODE_APPEND;
 
 	@Parameter(names = { "--output-format",
-			"-of" }, required = false, description = "In which format should the result be written (parquet or csv)?")
+			"-of" }, required = false, description = "In which format should the result be written (parquet, orc, avro or csv)?")
 	private String outputFormat = SparkImporterVariables.OUTPUT_FORMAT_PARQUET;
 
 	@Parameter(names = { "--dev-type-cast-check",
@@ -63,6 +63,74 @@ public class SparkImporterCSVArguments {
 	"-pf" }, required = false, description = "Execute pipeline for a specific processDefinitionId.")
 	private String processDefinitionId = null;
 
+	@Parameter(names = { "--step-result-cache",
+			"-src" }, required = false, description = "Should the results of the pipeline steps be cached, so a rerun continues after the last unchanged step?", arity = 1)
+	private boolean stepResultCacheEnabled = false;
+
+	@Parameter(names = { "--step-result-cache-directory",
+			"-srcd" }, required = false, description = "Folder where the step results are cached. Defaults to the folder step_result_cache in the working directory.")
+	private String stepResultCacheDirectory = null;
+
+	@Parameter(names = { "--step-result-cache-max-size",
+			"-srcms" }, required = false, description = "Maximum size of the step result cache in MB. Least recently used results are removed first.")
+	private long stepResultCacheMaxSize = 10240;
+
+	@Parameter(names = { "--persist-storage-level",
+			"-psl" }, required = false, description = "Storage level for datasets used by more than one pipeline step (e.g. MEMORY_AND_DISK_SER, MEMORY_ONLY or OFF_HEAP). NONE disables persisting them.")
+	private String persistStorageLevel = "MEMORY_AND_DISK_SER";
+
+	@Parameter(names = { "--step-metrics",
+			"-stm" }, required = false, description = "Should the metrics of each pipeline step (timings, records, shuffle, spill) be written into the target folder?", arity = 1)
+	private boolean stepMetricsEnabled = false;
+
+	@Parameter(names = { "--json-field-discovery",
+			"-jfd" }, required = false, description = "How the fields of JSON variables are discovered: full (scan all data), sample:<fraction> (scan a sample) or persisted (use the fields written to the working directory by an earlier run).")
+	private String jsonFieldDiscovery = SparkImporterVariables.JSON_FIELD_DISCOVERY_FULL;
+
+	@Parameter(names = { "--incremental",
+			"-inc" }, required = false, description = "Only process the process instances that changed since the last incremental run or are still running and replace their rows in the existing result.", arity = 1)
+	private boolean incremental = false;
+
+	@Parameter(names = { "--partition-by",
+			"-pb" }, required = false, description = "Comma separated columns the result is partitioned by into folders. <column>:day partitions by the day of a time column.")
+	private String partitionBy = null;
+
+	@Parameter(names = { "--target-file-size",
+			"-tfs" }, required = false, description = "Approximate size in MB of the result files. 0 keeps the default number of files.")
+	private int targetFileSize = 0;
+
+	@Parameter(names = { "--sort-columns",
+			"-sc" }, required = false, description = "Comma separated columns the rows of each result file are sorted by.")
+	private String sortColumns = null;
+
+	@Parameter(names = { "--compression",
+			"-comp" }, required = false, description = "Compression codec of the result. Parquet (also used for the Parquet copy of a CSV result): none, snappy, gzip or lzo. ORC: none, snappy, zlib, gzip (written as zlib) or lzo. Avro: none, snappy, deflate or gzip (written as deflate). Other codecs, e.g. zstd or lz4, are not supported by Spark 2.3 and fall back to the default codec of the output format with a warning.")
+	private String compression = null;
+
+	@Parameter(names = { "--step-results-format",
+			"-srf" }, required = false, description = "Format of the intermediate step results: csv or parquet.")
+	private String stepResultsFormat = "csv";
+
+	@Parameter(names = { "--step-results-sample",
+			"-srs" }, required = false, description = "Fraction of the rows written as intermediate step results.")
+	private double stepResultsSample = 1.0;
+
+	@Parameter(names = { "--schema-mode",
+			"-scm" }, required = false, description = "How the schema of the CSV file is determined: infer, sample:<fraction>, cached or all-string.")
+	private String schemaMode = SparkImporterVariables.SCHEMA_MODE_INFER;
+
+	@Parameter(names = { "--csv-staging-cache",
+			"-csc" }, required = false, description = "Should the CSV file be staged as Parquet after the initial cleanup, so later runs on the unchanged file do not parse it again?", arity = 1)
+	private boolean csvStagingCacheEnabled = false;
+
+	@Parameter(names = { "--csv-staging-cache-directory",
+			"-cscd" }, required = false, description = "Folder where the staged CSV files are cached. Defaults to the folder csv_staging_cache in the working directory.")
+	private String csvStagingCacheDirectory = null;
+
+	@Parameter(names = { "--csv-staging-cache-max-size",
+			"-cscms" }, required = false, description = "Maximum size of the CSV staging cache in MB. Least recently used files are removed first.")
+	private long csvStagingCacheMaxSize = 10240;
+
 	/**
 	 * Singleton.
 	 */
@@ -117,6 +185,74 @@ public class SparkImporterCSVArguments {
 		return processDefinitionId;
 	}
 
+	public boolean isStepResultCacheEnabled() {
+		return stepResultCacheEnabled;
+	}
+
+	public String getStepResultCacheDirectory() {
+		return stepResultCacheDirectory;
+	}
+
+	public long getStepResultCacheMaxSize() {
+		return stepResultCacheMaxSize;
+	}
+
+	public String getPersistStorageLevel() {
+		return persistStorageLevel;
+	}
+
+	public boolean isStepMetricsEnabled() {
+		return stepMetricsEnabled;
+	}
+
+	public String getJsonFieldDiscovery() {
+		return jsonFieldDiscovery;
+	}
+
+	public boolean isIncremental() {
+		return incremental;
+	}
+
+	public String getPartitionBy() {
+		return partitionBy;
+	}
+
+	public int getTargetFileSize() {
+		return targetFileSize;
+	}
+
+	public String getSortColumns() {
+		return sortColumns;
+	}
+
+	public String getCompression() {
+		return compression;
+	}
+
+	public String getStepResultsFormat() {
+		return stepResultsFormat;
+	}
+
+	public double getStepResultsSample() {
+		return stepResultsSample;
+	}
+
+	public String getSchemaMode() {
+		return schemaMode;
+	}
+
+	public boolean isCsvStagingCacheEnabled() {
+		return csvStagingCacheEnabled;
+	}
+
+	public String getCsvStagingCacheDirectory() {
+		return csvStagingCacheDirectory;
+	}
+
+	public long getCsvStagingCacheMaxSize() {
+		return csvStagingCacheMaxSize;
+	}
+
 	/**
 	 * @return DataExtractorArguments-Instanz as Singleton
 	 */
@@ -136,6 +272,21 @@ public class SparkImporterCSVArguments {
 				+ '\'' + ", outputFormat=" + outputFormat
 				+ '\'' + ", devTypeCastCheckEnabled=" + devTypeCastCheckEnabled
 				+ '\'' + ", devProcessStateColumnWorkaroundEnabled=" + devProcessStateColumnWorkaroundEnabled
+				+ '\'' + ", stepResultCacheEnabled=" + stepResultCacheEnabled
+				+ '\'' + ", persistStorageLevel=" + persistStorageLevel
+				+ '\'' + ", stepMetricsEnabled=" + stepMetricsEnabled
+				+ '\'' + ", jsonFieldDiscovery=" + jsonFieldDiscovery
+				+ '\'' + ", incremental=" + incremental
+				+ '\'' + ", partitionBy=" + partitionBy
+				+ '\'' + ", targetFileSize=" + targetFileSize
+				+ '\'' + ", sortColumns=" + sortColumns
+				+ '\'' + ", compression=" + compression
+				+ '\'' + ", stepResultsFormat=" + stepResultsFormat
+				+ '\'' + ", stepResultsSample=" + stepResultsSample
+				+ '\'' + ", schemaMode=" + schemaMode
+				+ '\'' + ", csvStagingCacheEnabled=" + csvStagingCacheEnabled
+				+ '\'' + ", csvStagingCacheDirectory=" + csvStagingCacheDirectory
+				+ '\'' + ", csvStagingCacheMaxSize=" + csvStagingCacheMaxSize
 				+ '\'' + ", logDirectory=" + logDirectory + '}';
 	}
 }
@@ -22,7 +22,7 @@ public class SparkImporterKafkaImportArguments {
 	private boolean writeStepResultsToCSV = false;
 
 	@Parameter(names = { "--batch-mode",
-			"-bm" }, required = true, description = "Should application run in batch mode? It then stops after all pulled queues have returned zero entries at least once", arity = 1)
+			"-bm" }, required = true, description = "Should application run in batch mode? It then reads the data published up to its start that has not been imported before and stops afterwards", arity = 1)
 	private boolean batchMode = false;
 
 	@Parameter(names = { "--working-directory",
@@ -42,7 +42,7 @@ public class SparkImporterKafkaImportArguments {
 	private String processDefinitionId = null;
 	
 	@Parameter(names = { "--output-format",
-	"-of" }, required = false, description = "In which format should the result be written (parquet or csv)?")
+	"-of" }, required = false, description = "In which format should the result be written (parquet, orc, avro or csv)?")
 	private String outputFormat = SparkImporterVariables.OUTPUT_FORMAT_PARQUET;
 	
 	@Parameter(names = { "--save-mode",
@@ -50,6 +50,62 @@ public class SparkImporterKafkaImportArguments {
 private String saveMode = SparkImporterVariables.SAVE_MODE_APPEND;
 
 
+	@Parameter(names = { "--checkpoint-directory",
+			"-cd" }, required = false, description = "Folder where the offsets of the imported Kafka data are stored. Defaults to the working directory.")
+	private String checkpointDirectory = null;
+
+	@Parameter(names = { "--json-schema",
+			"-js" }, required = false, description = "How the JSON events are parsed: fixed uses the schema of the Camunda history events, extended additionally infers fields unknown to it and infer infers the complete schema of every batch.")
+	private String jsonSchema = SparkImporterVariables.JSON_SCHEMA_FIXED;
+
+	@Parameter(names = { "--batch-interval",
+			"-bi" }, required = false, description = "Interval of the micro-batches in milliseconds when not running in batch mode.")
+	private long batchInterval = 5000;
+
+	@Parameter(names = { "--max-records-per-partition",
+			"-mrp" }, required = false, description = "Maximum number of records read from each Kafka partition per micro-batch when not running in batch mode. 0 means unlimited.")
+	private long maxRecordsPerPartition = 0;
+
+	@Parameter(names = { "--backpressure",
+			"-bp" }, required = false, description = "Should the number of records per micro-batch be adapted to the processing time when not running in batch mode?", arity = 1)
+	private boolean backpressure = false;
+
+	@Parameter(names = { "--process-instance-topic",
+			"-tpi" }, required = false, description = "Name of the Kafka topic containing the process instance events.")
+	private String processInstanceTopic = KafkaEventSchemas.TOPIC_PROCESS_INSTANCE;
+
+	@Parameter(names = { "--variable-update-topic",
+			"-tvu" }, required = false, description = "Name of the Kafka topic containing the variable update events.")
+	private String variableUpdateTopic = KafkaEventSchemas.TOPIC_VARIABLE_UPDATE;
+
+	@Parameter(names = { "--activity-instance-topic",
+			"-tai" }, required = false, description = "Name of the Kafka topic containing the activity instance events, which are imported for the activity data level.")
+	private String activityInstanceTopic = KafkaEventSchemas.TOPIC_ACTIVITY_INSTANCE;
+
+	@Parameter(names = { "--partition-by",
+			"-pb" }, required = false, description = "Comma separated columns the result is partitioned by into folders. <column>:day partitions by the day of a time column.")
+	private String partitionBy = null;
+
+	@Parameter(names = { "--target-file-size",
+			"-tfs" }, required = false, description = "Approximate size in MB of the result files. 0 keeps the default number of files.")
+	private int targetFileSize = 0;
+
+	@Parameter(names = { "--sort-columns",
+			"-sc" }, required = false, description = "Comma separated columns the rows of each result file are sorted by.")
+	private String sortColumns = null;
+
+	@Parameter(names = { "--compression",
+			"-comp" }, required = false, description = "Compression codec of the result. Parquet (also used for the Parquet copy of a CSV result): none, snappy, gzip or lzo. ORC: none, snappy, zlib, gzip (written as zlib) or lzo. Avro: none, snappy, deflate or gzip (written as deflate). Other codecs, e.g. zstd or lz4, are not supported by Spark 2.3 and fall back to the default codec of the output format with a warning.")
+	private String compression = null;
+
+	@Parameter(names = { "--step-results-format",
+			"-srf" }, required = false, description = "Format of the intermediate step results: csv or parquet.")
+	private String stepResultsFormat = "csv";
+
+	@Parameter(names = { "--step-results-sample",
+			"-srs" }, required = false, description = "Fraction of the rows written as intermediate step results.")
+	private double stepResultsSample = 1.0;
+
 	/**
 	 * Singleton.
 	 */
@@ -97,6 +153,62 @@ private String saveMode = SparkImporterVariables.SAVE_MODE_APPEND;
 		return saveMode;
 	}
 
+	public String getCheckpointDirectory() {
+		return checkpointDirectory;
+	}
+
+	public String getJsonSchema() {
+		return jsonSchema;
+	}
+
+	public long getBatchInterval() {
+		return batchInterval;
+	}
+
+	public long getMaxRecordsPerPartition() {
+		return maxRecordsPerPartition;
+	}
+
+	public boolean isBackpressure() {
+		return backpressure;
+	}
+
+	public String getProcessInstanceTopic() {
+		return processInstanceTopic;
+	}
+
+	public String getVariableUpdateTopic() {
+		return variableUpdateTopic;
+	}
+
+	public String getActivityInstanceTopic() {
+		return activityInstanceTopic;
+	}
+
+	public String getPartitionBy() {
+		return partitionBy;
+	}
+
+	public int getTargetFileSize() {
+		return targetFileSize;
+	}
+
+	public String getSortColumns() {
+		return sortColumns;
+	}
+
+	public String getCompression() {
+		return compression;
+	}
+
+	public String getStepResultsFormat() {
+		return stepResultsFormat;
+	}
+
+	public double getStepResultsSample() {
+		return stepResultsSample;
+	}
+
 	/**
 	 * @return SparkImporterKafkaImportArguments instance
 	 */
@@ -114,6 +226,20 @@ private String saveMode = SparkImporterVariables.SAVE_MODE_APPEND;
 				+ '\'' + ", batchMode=" + batchMode
 				+ '\'' + ", workingDirectory=" + workingDirectory
 				+ '\'' + ", dataLavel=" + dataLevel
+				+ '\'' + ", checkpointDirectory=" + checkpointDirectory
+				+ '\'' + ", jsonSchema=" + jsonSchema
+				+ '\'' + ", batchInterval=" + batchInterval
+				+ '\'' + ", maxRecordsPerPartition=" + maxRecordsPerPartition
+				+ '\'' + ", backpressure=" + backpressure
+				+ '\'' + ", processInstanceTopic=" + processInstanceTopic
+				+ '\'' + ", variableUpdateTopic=" + variableUpdateTopic
+				+ '\'' + ", activityInstanceTopic=" + activityInstanceTopic
+				+ '\'' + ", partitionBy=" + partitionBy
+				+ '\'' + ", targetFileSize=" + targetFileSize
+				+ '\'' + ", sortColumns=" + sortColumns
+				+ '\'' + ", compression=" + compression
+				+ '\'' + ", stepResultsFormat=" + stepResultsFormat
+				+ '\'' + ", stepResultsSample=" + stepResultsSample
 				+ '\'' + ", logDirectory=" + logDirectory + '}';
 	}
 }
@@ -3,34 +3,52 @@ package de.viadee.ki.sparkimporter.util;
 import de.viadee.ki.sparkimporter.processing.PreprocessingRunner;
 import org.apache.commons.codec.binary.Base64;
 import org.apache.commons.codec.digest.DigestUtils;
-import org.apache.commons.io.FileUtils;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.*;
+import org.apache.hadoop.io.IOUtils;
 import org.apache.spark.sql.Column;
+import org.apache.spark.sql.DataFrameWriter;
 import org.apache.spark.sql.Dataset;
 import org.apache.spark.sql.Row;
+import org.apache.spark.sql.SaveMode;
 import org.apache.spark.sql.SparkSession;
+import org.apache.spark.sql.types.DataType;
+import org.apache.spark.sql.types.StructField;
+import org.apache.spark.storage.StorageLevel;
 import scala.collection.JavaConversions;
 import scala.collection.JavaConverters;
 import scala.collection.Seq;
 
 import java.io.ByteArrayOutputStream;
-import java.io.File;
 import java.io.IOException;
 import java.io.ObjectOutputStream;
-import java.nio.file.Files;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+import static org.apache.spark.sql.functions.*;
+
 public class SparkImporterUtils {
 
     private static SparkImporterUtils instance;
 
+    // suffix of a time column partitioning the result by day, e.g. start_time_:day
+    private static final String PARTITION_DAY = "day";
+
     private SparkImporterUtils(){}
 
     public static synchronized SparkImporterUtils getInstance(){
@@ -68,98 +86,366 @@ public class SparkImporterUtils {
             targetFolder += "intermediate/" + String.format("%02d", PreprocessingRunner.getNextCounter()) + "_" + subDirectory;
         }
 
-        //save dataset into parquet file
-        dataSet
-        		.repartition(dataSet.col(SparkImporterVariables.VAR_PROCESS_INSTANCE_ID))
-                .write()
-                .mode(SparkImporterVariables.getSaveMode())
-                .save(targetFolder + "/parquet");
+        //save dataset into parquet file, an incremental run replaces the rows of its process instances in the existing result
+        ResultFormat resultFormat = ResultFormat.of(SparkImporterVariables.getOutputFormat(), SparkImporterVariables.getCompression());
+        String resultPath = targetFolder + "/" + resultFormat.getName();
+        if(subDirectory.equals("result")) {
+            if(!(SparkImporterVariables.isIncremental() && mergeIntoExistingResult(dataSet, resultPath, resultFormat))) {
+                writeResult(dataSet, resultPath, SparkImporterVariables.getSaveMode(), resultFormat);
+            }
+        } else {
+            dataSet
+                    .repartition(dataSet.col(SparkImporterVariables.VAR_PROCESS_INSTANCE_ID))
+                    .write()
+                    .mode(SparkImporterVariables.getSaveMode())
+                    .save(targetFolder + "/parquet");
+        }
 
         if(SparkImporterVariables.getOutputFormat().equals(SparkImporterVariables.OUTPUT_FORMAT_CSV) && subDirectory.equals("result")) {
             SparkSession sparkSession = SparkSession.builder().getOrCreate();
-            Dataset<Row> parquetData = sparkSession.read().load(targetFolder + "/parquet");
+            Dataset<Row> parquetData = resultFormat.configure(sparkSession.read()).load(resultPath);
+
+            // every task writes its part without a header, the parts are then concatenated into the result file.
+            // The Parquet result contains all data even when appending, so the CSV export is always replaced.
             parquetData
-                    .coalesce(1)
                     .write()
-                    .option("header", "true")
+                    .option("header", "false")
                     .option("delimiter", "|")
                     .option("timestampFormat", "yyyy-MM-dd'T'HH:mm:ss.SSS")
                     .option("ignoreLeadingWhiteSpace", "false")
                     .option("ignoreTrailingWhiteSpace", "false")
-                    .mode(SparkImporterVariables.getSaveMode())
+                    .mode(SaveMode.Overwrite)
                     .csv(targetFolder + "/csv");
 
-            // move resulting csv file
-            if(targetFolder.startsWith("hdfs")) {
-                // data stored in Hadoop
-                Path path = new Path(targetFolder);
-                Configuration conf = new Configuration();
-                FileSystem fileSystem = null;
-                try {
-                    fileSystem = FileSystem.get(conf);
-                    if(!fileSystem.isDirectory(path)) throw new IllegalStateException("Cannot find result folder!");
-                    RemoteIterator<LocatedFileStatus> files = fileSystem.listFiles(path, false);
-                    while(files.hasNext()) {
-                        LocatedFileStatus file = files.next();
-                        if(file.isFile() && file.getPath().getName().contains("part-")) {
-                            FileUtil.copy(fileSystem, file.getPath(), fileSystem, new Path(targetFolder + "/result.csv"), true, conf);
+            mergeCsvParts(targetFolder + "/csv", String.join("|", parquetData.columns()));
+        }
+    }
+
+    /**
+     * Concatenates the part files written by Spark into the file result.csv starting with the given header and removes
+     * all other files from the folder. Local files are copied by the file system without passing through the JVM.
+     */
+    private void mergeCsvParts(String csvFolder, String header) {
+        Configuration conf = SparkSession.builder().getOrCreate().sparkContext().hadoopConfiguration();
+        Path folder = new Path(csvFolder);
+        Path resultFile = new Path(folder, "result.csv");
+        byte[] headerLine = (header + "\n").getBytes(StandardCharsets.UTF_8);
+
+        try {
+            FileSystem fileSystem = folder.getFileSystem(conf);
+            if(!fileSystem.isDirectory(folder)) throw new IllegalStateException("Cannot find result folder!");
+
+            // the part files are concatenated in the order of the partitions they have been written from, which is the order of their names
+            List<Path> parts = new ArrayList<>();
+            List<Path> otherFiles = new ArrayList<>();
+            for(FileStatus file : fileSystem.listStatus(folder)) {
+                if(file.isFile() && file.getPath().getName().startsWith("part-")) {
+                    parts.add(file.getPath());
+                } else {
+                    otherFiles.add(file.getPath());
+                }
+            }
+            parts.sort(Comparator.comparing(Path::getName));
+
+            if("file".equals(fileSystem.getUri().getScheme())) {
+                try (FileChannel out = FileChannel.open(Paths.get(fileSystem.makeQualified(resultFile).toUri()), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                    out.write(ByteBuffer.wrap(headerLine));
+                    for(Path part : parts) {
+                        try (FileChannel in = FileChannel.open(Paths.get(fileSystem.makeQualified(part).toUri()), StandardOpenOption.READ)) {
+                            long position = 0;
+                            long size = in.size();
+                            while(position < size) {
+                                position += in.transferTo(position, size - position, out);
+                            }
                         }
                     }
-
-                    // cleanup
-                    FileUtil.fullyDeleteContents(new File(targetFolder + "/csv"));
-                    FileUtil.copy(fileSystem, new Path(targetFolder + "/result.csv"), fileSystem, new Path(targetFolder + "/csv/result.csv"), true, conf);
-
-                } catch (IOException e) {
-                    SparkImporterLogger.getInstance().writeError("An error occurred during the renaming of the result file in HDFS. Exception: " + e.getMessage());
                 }
             } else {
-                File dir = new File(targetFolder + "/csv");
-                if (!dir.isDirectory()) throw new IllegalStateException("Cannot find result folder!");
-
-                File targetFile = new File(dir + "/../result.csv");
-                for (File file : dir.listFiles()) {
-                    if (file.getName().startsWith("part-")) {
-                        try {
-                            Files.move(file.toPath(), targetFile.toPath());
-                        } catch (IOException e) {
-                            SparkImporterLogger.getInstance().writeError("An error occurred during the renaming of the result file. Exception: " + e.getMessage());
+                try (FSDataOutputStream out = fileSystem.create(resultFile, true)) {
+                    out.write(headerLine);
+                    for(Path part : parts) {
+                        try (FSDataInputStream in = fileSystem.open(part)) {
+                            IOUtils.copyBytes(in, out, conf, false);
                         }
                     }
                 }
+            }
 
-                // cleanup
-                try {
-                    FileUtils.cleanDirectory(dir);
-                    Files.move(targetFile.toPath(), new File(dir + "/result.csv").toPath());
-                } catch (IOException e) {
-                    SparkImporterLogger.getInstance().writeError("An error occurred during the renaming of the result file. Exception: " + e.getMessage());
+            // cleanup
+            for(Path file : parts) {
+                fileSystem.delete(file, false);
+            }
+            for(Path file : otherFiles) {
+                if(!file.equals(resultFile)) {
+                    fileSystem.delete(file, true);
                 }
             }
+        } catch (IOException e) {
+            SparkImporterLogger.getInstance().writeError("An error occurred during the merging of the result file. Exception: " + e.getMessage());
         }
     }
 
-    public void writeDatasetToCSV(Dataset<Row> dataSet, String subDirectory) {
-        writeDatasetToCSV(dataSet, subDirectory, "|");
+    /**
+     * Writes the result in the layout given by the output options: a folder per value of the partition columns, files
+     * of about the target size and the rows of each file sorted by the sort columns.
+     */
+    private void writeResult(Dataset<Row> dataSet, String path, SaveMode saveMode, ResultFormat resultFormat) {
+        List<String> partitionColumns = new ArrayList<>();
+        for(String partition : splitColumns(SparkImporterVariables.getPartitionBy())) {
+            String[] parts = partition.split(":");
+            if(!Arrays.asList(dataSet.columns()).contains(parts[0])) {
+                SparkImporterLogger.getInstance().writeWarn("Cannot partition the result by column '" + parts[0] + "' as it does not exist.");
+            } else if(parts.length == 1) {
+                partitionColumns.add(parts[0]);
+            } else if(parts[1].equals(PARTITION_DAY)) {
+                dataSet = dataSet.withColumn(parts[0] + PARTITION_DAY, dayOf(dataSet.col(parts[0])));
+                partitionColumns.add(parts[0] + PARTITION_DAY);
+            } else {
+                SparkImporterLogger.getInstance().writeWarn("Unknown partitioning '" + parts[1] + "' of column '" + parts[0] + "'. The result is not partitioned by it.");
+            }
+        }
+
+        List<String> sortColumns = new ArrayList<>();
+        for(String column : splitColumns(SparkImporterVariables.getSortColumns())) {
+            if(Arrays.asList(dataSet.columns()).contains(column)) {
+                sortColumns.add(column);
+            } else {
+                SparkImporterLogger.getInstance().writeWarn("Cannot sort the result by column '" + column + "' as it does not exist.");
+            }
+        }
+
+        // the rows are sorted by the partition columns first, otherwise Spark sorts them again by these when writing
+        List<Column> orderColumns = new ArrayList<>();
+        for(String column : partitionColumns) {
+            orderColumns.add(dataSet.col(column));
+        }
+        for(String column : sortColumns) {
+            orderColumns.add(dataSet.col(column));
+        }
+
+        int fileCount = 0;
+        Dataset<Row> persistedDataSet = null;
+        if(SparkImporterVariables.getTargetFileSize() > 0) {
+            // the dataset is counted, sampled for the ranges and written, so it is persisted to only compute it once
+            persistedDataSet = dataSet.persist(StorageLevel.MEMORY_AND_DISK());
+            fileCount = getTargetFileCount(persistedDataSet);
+        }
+
+        if(fileCount > 0) {
+            // ranges of similar size, so each file covers few partition folders and a small range of the sort columns
+            if(orderColumns.isEmpty()) {
+                dataSet = dataSet.repartitionByRange(fileCount, dataSet.col(SparkImporterVariables.VAR_PROCESS_INSTANCE_ID));
+            } else {
+                dataSet = dataSet.repartitionByRange(fileCount, orderColumns.toArray(new Column[0]));
+            }
+        } else if(!partitionColumns.isEmpty()) {
+            // a single file per partition folder
+            dataSet = dataSet.repartition(orderColumns.subList(0, partitionColumns.size()).toArray(new Column[0]));
+        } else {
+            dataSet = dataSet.repartition(dataSet.col(SparkImporterVariables.VAR_PROCESS_INSTANCE_ID));
+        }
+
+        if(!sortColumns.isEmpty()) {
+            dataSet = dataSet.sortWithinPartitions(orderColumns.toArray(new Column[0]));
+        }
+
+        DataFrameWriter<Row> writer = dataSet
+                .write()
+                .mode(saveMode);
+        if(!partitionColumns.isEmpty()) {
+            writer = writer.partitionBy(partitionColumns.toArray(new String[0]));
+        }
+        writer = resultFormat.configure(writer);
+
+        long sizeBefore = getSize(path);
+        long startMillis = System.currentTimeMillis();
+        writer.save(path);
+        logThroughput("Wrote", resultFormat, path, getSize(path) - sizeBefore, System.currentTimeMillis() - startMillis,
+                " (including the computation of the result)");
+
+        // reading every row of the result back is only worth it when collecting metrics
+        if(SparkImporterVariables.isStepMetricsEnabled()) {
+            startMillis = System.currentTimeMillis();
+            resultFormat.configure(SparkSession.builder().getOrCreate().read()).load(path).rdd().count();
+            logThroughput("Read", resultFormat, path, getSize(path), System.currentTimeMillis() - startMillis, "");
+        }
+
+        if(persistedDataSet != null) {
+            persistedDataSet.unpersist();
+        }
     }
 
-    private void writeDatasetToCSV(Dataset<Row> dataSet, String subDirectory, String delimiter) {
+    private void logThroughput(String action, ResultFormat resultFormat, String path, long bytes, long millis, String remark) {
+        double megabytes = bytes / 1024.0 / 1024.0;
+        SparkImporterLogger.getInstance().writeInfo(String.format(Locale.ROOT, "%s %.1f MB of %s (%s) %s %s in %.1f s%s: %.1f MB/s",
+                action, megabytes, resultFormat.getName(), resultFormat.getCodec() != null ? resultFormat.getCodec() : "default codec",
+                action.equals("Read") ? "from" : "to", path, millis / 1000.0, remark, millis > 0 ? megabytes * 1000 / millis : 0));
+    }
 
-        boolean aggreateCSVToOneFile = true;
+    /**
+     * @return the size of the files below the given path or 0 if it does not exist
+     */
+    private long getSize(String path) {
+        Path folder = new Path(path);
+        try {
+            FileSystem fileSystem = folder.getFileSystem(SparkSession.builder().getOrCreate().sparkContext().hadoopConfiguration());
+            return fileSystem.exists(folder) ? fileSystem.getContentSummary(folder).getLength() : 0;
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Estimates the number of files needed for the target file size from the number of rows and the default size of
+     * the columns' types, which Spark also uses for its size estimates. Spark's size estimate of the whole plan is not
+     * used, as it multiplies the sizes of joined datasets.
+     *
+     * @return the number of files to write
+     */
+    private int getTargetFileCount(Dataset<Row> dataSet) {
+        long targetBytes = SparkImporterVariables.getTargetFileSize() * 1024L * 1024L;
+
+        long rowBytes = 8;
+        for(StructField field : dataSet.schema().fields()) {
+            rowBytes += field.dataType().defaultSize();
+        }
+        long estimatedBytes = dataSet.count() * rowBytes;
+
+        long fileCount = Math.min(Integer.MAX_VALUE, Math.max(1, (estimatedBytes + targetBytes - 1) / targetBytes));
+        SparkImporterLogger.getInstance().writeInfo("Writing the result of about " + (estimatedBytes / 1024 / 1024) + " MB into " + fileCount + " files.");
+        return (int) fileCount;
+    }
+
+    /**
+     * @return the day of a time column containing either epoch millis (Kafka import) or a formatted timestamp
+     */
+    private Column dayOf(Column timeColumn) {
+        Column time = timeColumn.cast("string");
+        return when(time.rlike("^[0-9]+$"), to_date(from_unixtime(time.cast("long").divide(1000).cast("long"))))
+                .otherwise(to_date(time))
+                .cast("string");
+    }
+
+    private List<String> splitColumns(String columns) {
+        List<String> result = new ArrayList<>();
+        if(columns != null) {
+            for(String column : columns.split(",")) {
+                if(!column.trim().isEmpty()) {
+                    result.add(column.trim());
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Replaces the rows of the process instances contained in the given dataset in the existing result and keeps the
+     * rows of all other process instances. The merged result is written next to the existing one and then moved to its
+     * place, as the existing result is read while writing. The existing result is kept as a backup until the merged one
+     * is in place.
+     *
+     * @return false if there is no existing result to merge into
+     * @throws IllegalStateException if the merge failed, so the run does not advance its watermark past the unmerged data
+     */
+    private boolean mergeIntoExistingResult(Dataset<Row> dataSet, String resultPath, ResultFormat resultFormat) {
+        SparkSession sparkSession = SparkSession.builder().getOrCreate();
+        Configuration conf = sparkSession.sparkContext().hadoopConfiguration();
+        Path path = new Path(resultPath);
+        Path mergedPath = new Path(resultPath + "_merged");
+        Path backupPath = new Path(resultPath + "_backup");
+
+        try {
+            FileSystem fileSystem = path.getFileSystem(conf);
+            if(!fileSystem.exists(path)) {
+                return false;
+            }
+
+            Dataset<Row> existing = resultFormat.configure(sparkSession.read()).load(resultPath);
+
+            // columns can differ between runs, e.g. if a variable only occurs in the newly processed data
+            Map<String, DataType> newTypes = new HashMap<>();
+            for(StructField field : dataSet.schema().fields()) {
+                newTypes.put(field.name(), field.dataType());
+            }
+            for(StructField field : existing.schema().fields()) {
+                DataType newType = newTypes.get(field.name());
+                if(newType == null) {
+                    dataSet = dataSet.withColumn(field.name(), missingColumnValue(field));
+                } else if(!newType.equals(field.dataType())) {
+                    existing = existing.withColumn(field.name(), existing.col(field.name()).cast(newType));
+                }
+            }
+            List<String> existingColumns = Arrays.asList(existing.columns());
+            for(StructField field : dataSet.schema().fields()) {
+                if(!existingColumns.contains(field.name())) {
+                    existing = existing.withColumn(field.name(), missingColumnValue(field));
+                }
+            }
 
-        if(aggreateCSVToOneFile) {
-            dataSet = dataSet.coalesce(1);
+            Dataset<Row> processInstances = dataSet.select(dataSet.col(SparkImporterVariables.VAR_PROCESS_INSTANCE_ID)).distinct();
+            Dataset<Row> merged = existing
+                    .join(processInstances, JavaConversions.asScalaBuffer(Collections.singletonList(SparkImporterVariables.VAR_PROCESS_INSTANCE_ID)), "left_anti")
+                    .unionByName(dataSet);
+
+            writeResult(merged, mergedPath.toString(), SaveMode.Overwrite, resultFormat);
+
+            fileSystem.delete(backupPath, true);
+            if(!fileSystem.rename(path, backupPath)) {
+                throw new IOException("Could not move " + path + " to " + backupPath);
+            }
+            if(!fileSystem.rename(mergedPath, path)) {
+                // restore the existing result, the merged one is left in place for inspection
+                fileSystem.rename(backupPath, path);
+                throw new IOException("Could not move " + mergedPath + " to " + path);
+            }
+            fileSystem.delete(backupPath, true);
+            SparkImporterLogger.getInstance().writeInfo("Merged the processed process instances into the existing result " + resultPath + ".");
+        } catch (IOException e) {
+            SparkImporterLogger.getInstance().writeError("An error occurred while merging the result into " + resultPath + ". Exception: " + e.getMessage());
+            throw new IllegalStateException("Could not merge the result into " + resultPath, e);
         }
+        return true;
+    }
+
+    /**
+     * @return the value a process instance without the given column would have got, as in AddVariableColumnsStep
+     * the revision of a variable is 0 if the variable does not exist
+     */
+    private Column missingColumnValue(StructField field) {
+        return (field.name().endsWith("_rev") ? lit(0) : lit(null)).cast(field.dataType());
+    }
+
+    public void writeDatasetToCSV(Dataset<Row> dataSet, String subDirectory) {
+        writeDatasetToCSV(dataSet, subDirectory, "|");
+    }
+
+    /**
+     * Writes metadata determined by a step, e.g. the types of the process variables, into the intermediate folder. In
+     * contrast to the step results it is written completely as CSV before the pipeline continues.
+     */
+    public void writeMetadataToCSV(Dataset<Row> dataSet, String subDirectory) {
+        writeCSV(dataSet, SparkImporterVariables.getTargetFolder() + "/intermediate/"
+                + String.format("%02d", PreprocessingRunner.getNextCounter()) + "_" + subDirectory, "|");
+    }
+
+    private void writeDatasetToCSV(Dataset<Row> dataSet, String subDirectory, String delimiter) {
 
         String path = SparkImporterVariables.getTargetFolder()+"/";
-        if(subDirectory.equals("result")) {
-            path += "result";
-        } else {
+        if(!subDirectory.equals("result")) {
+            // intermediate results are written in the background
             path += "intermediate/" + String.format("%02d", PreprocessingRunner.getNextCounter()) + "_" + subDirectory;
+            StepResultSnapshotWriter.getInstance().write(dataSet, path, delimiter);
+            return;
         }
+        path += "result";
+
+        writeCSV(dataSet, path, delimiter);
+    }
 
+    private void writeCSV(Dataset<Row> dataSet, String path, String delimiter) {
         //save dataset into CSV file
         dataSet
+                .coalesce(1)
                 .write()
                 .option("header", "true")
                 .option("delimiter", delimiter)
@@ -186,7 +472,8 @@ public class SparkImporterUtils {
             }
         }
 
-        Seq<Column> selectionColumns =  JavaConverters.asScalaIteratorConverter(uniqueColumnNameMapping.values().iterator()).asScala().toSeq();
+        // a list instead of the lazy stream Iterator.toSeq() returns, Spark's code generation overflows the stack on the latter
+        Seq<Column> selectionColumns =  JavaConverters.asScalaIteratorConverter(uniqueColumnNameMapping.values().iterator()).asScala().toList();
 
         //create new dataset if necessary
         if(columns.length != uniqueColumnNameMapping.size()) {
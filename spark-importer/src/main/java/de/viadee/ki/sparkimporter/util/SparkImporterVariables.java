@@ -44,7 +44,10 @@ public final class SparkImporterVariables {
     public static final String VAR_SEQUENCE_COUNTER = "sequence_counter_";
 
     public static final String PROCESS_STATE_ACTIVE = "ACTIVE";
+    public static final String PROCESS_STATE_SUSPENDED = "SUSPENDED";
     public static final String PROCESS_STATE_COMPLETED = "COMPLETED";
+    public static final String PROCESS_STATE_EXTERNALLY_TERMINATED = "EXTERNALLY_TERMINATED";
+    public static final String PROCESS_STATE_INTERNALLY_TERMINATED = "INTERNALLY_TERMINATED";
 
     public static final String DATA_LEVEL_PROCESS = "process";
     public static final String DATA_LEVEL_ACTIVITY = "activity";
@@ -54,9 +57,34 @@ public final class SparkImporterVariables {
 
     public static final String OUTPUT_FORMAT_PARQUET = "parquet";
     public static final String OUTPUT_FORMAT_CSV = "csv";
+    public static final String OUTPUT_FORMAT_ORC = "orc";
+    public static final String OUTPUT_FORMAT_AVRO = "avro";
+
+    public static final String COMPRESSION_NONE = "none";
+    public static final String COMPRESSION_SNAPPY = "snappy";
+    public static final String COMPRESSION_GZIP = "gzip";
     
 
 
+    public static final String STORAGE_LEVEL_NONE = "NONE";
+
+    public static final String JSON_FIELD_DISCOVERY_FULL = "full";
+    public static final String JSON_FIELD_DISCOVERY_SAMPLE = "sample:";
+    public static final String JSON_FIELD_DISCOVERY_PERSISTED = "persisted";
+    public static final String JSON_FIELDS_FILE = "json_fields.json";
+
+    public static final String JSON_SCHEMA_FIXED = "fixed";
+    public static final String JSON_SCHEMA_EXTENDED = "extended";
+    public static final String JSON_SCHEMA_INFER = "infer";
+
+    public static final String STEP_RESULTS_FORMAT_CSV = "csv";
+    public static final String STEP_RESULTS_FORMAT_PARQUET = "parquet";
+
+    public static final String SCHEMA_MODE_INFER = "infer";
+    public static final String SCHEMA_MODE_SAMPLE = "sample:";
+    public static final String SCHEMA_MODE_CACHED = "cached";
+    public static final String SCHEMA_MODE_ALL_STRING = "all-string";
+
     public static final String PIPELINE_MODE_LEARN = "learn";
     public static final String PIPELINE_MODE_PREDICT = "predict";
 
@@ -75,6 +103,30 @@ public final class SparkImporterVariables {
 
     private static SparkRunner.RUNNING_MODE runningMode = null;
 
+    private static boolean stepResultCacheEnabled = false;
+    private static String stepResultCacheDirectory = null;
+    private static long stepResultCacheMaxSize = 10240;
+
+    private static String persistStorageLevel = "MEMORY_AND_DISK_SER";
+
+    private static boolean stepMetricsEnabled = false;
+
+    private static String jsonFieldDiscovery = SparkImporterVariables.JSON_FIELD_DISCOVERY_FULL;
+
+    private static boolean incremental = false;
+
+    private static String partitionBy = null;
+
+    private static int targetFileSize = 0;
+
+    private static String sortColumns = null;
+
+    private static String compression = null;
+
+    private static String stepResultsFormat = SparkImporterVariables.STEP_RESULTS_FORMAT_CSV;
+
+    private static double stepResultsSample = 1.0;
+
     public static SparkRunner.RUNNING_MODE getRunningMode() {
         return runningMode;
     }
@@ -156,4 +208,109 @@ public final class SparkImporterVariables {
         SparkImporterVariables.pipelineMode = pipelineMode;
 
     }
+
+    public static boolean isStepResultCacheEnabled() {
+        return stepResultCacheEnabled;
+    }
+
+    public static void setStepResultCacheEnabled(boolean stepResultCacheEnabled) {
+        SparkImporterVariables.stepResultCacheEnabled = stepResultCacheEnabled;
+    }
+
+    public static String getStepResultCacheDirectory() {
+        // defaults to a folder in the working directory
+        return stepResultCacheDirectory != null ? stepResultCacheDirectory : workingDirectory + "/step_result_cache";
+    }
+
+    public static void setStepResultCacheDirectory(String stepResultCacheDirectory) {
+        SparkImporterVariables.stepResultCacheDirectory = stepResultCacheDirectory;
+    }
+
+    public static long getStepResultCacheMaxSize() {
+        return stepResultCacheMaxSize;
+    }
+
+    public static void setStepResultCacheMaxSize(long stepResultCacheMaxSize) {
+        SparkImporterVariables.stepResultCacheMaxSize = stepResultCacheMaxSize;
+    }
+
+    public static String getPersistStorageLevel() {
+        return persistStorageLevel;
+    }
+
+    public static void setPersistStorageLevel(String persistStorageLevel) {
+        SparkImporterVariables.persistStorageLevel = persistStorageLevel;
+    }
+
+    public static boolean isStepMetricsEnabled() {
+        return stepMetricsEnabled;
+    }
+
+    public static void setStepMetricsEnabled(boolean stepMetricsEnabled) {
+        SparkImporterVariables.stepMetricsEnabled = stepMetricsEnabled;
+    }
+
+    public static String getJsonFieldDiscovery() {
+        return jsonFieldDiscovery;
+    }
+
+    public static void setJsonFieldDiscovery(String jsonFieldDiscovery) {
+        SparkImporterVariables.jsonFieldDiscovery = jsonFieldDiscovery;
+    }
+
+    public static boolean isIncremental() {
+        return incremental;
+    }
+
+    public static void setIncremental(boolean incremental) {
+        SparkImporterVariables.incremental = incremental;
+    }
+
+    public static String getPartitionBy() {
+        return partitionBy;
+    }
+
+    public static void setPartitionBy(String partitionBy) {
+        SparkImporterVariables.partitionBy = partitionBy;
+    }
+
+    public static int getTargetFileSize() {
+        return targetFileSize;
+    }
+
+    public static void setTargetFileSize(int targetFileSize) {
+        SparkImporterVariables.targetFileSize = targetFileSize;
+    }
+
+    public static String getSortColumns() {
+        return sortColumns;
+    }
+
+    public static void setSortColumns(String sortColumns) {
+        SparkImporterVariables.sortColumns = sortColumns;
+    }
+
+    public static String getCompression() {
+        return compression;
+    }
+
+    public static void setCompression(String compression) {
+        SparkImporterVariables.compression = compression;
+    }
+
+    public static String getStepResultsFormat() {
+        return stepResultsFormat;
+    }
+
+    public static void setStepResultsFormat(String stepResultsFormat) {
+        SparkImporterVariables.stepResultsFormat = stepResultsFormat;
+    }
+
+    public static double getStepResultsSample() {
+        return stepResultsSample;
+    }
+
+    public static void setStepResultsSample(double stepResultsSample) {
+        SparkImporterVariables.stepResultsSample = stepResultsSample;
+    }
 }
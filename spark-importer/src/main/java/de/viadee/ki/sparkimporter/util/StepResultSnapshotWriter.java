@@ -0,0 +1,173 @@
+package de.viadee.ki.sparkimporter.util;
+
+import org.apache.spark.SparkContext;
+import org.apache.spark.sql.Dataset;
+import org.apache.spark.sql.Row;
+import org.apache.spark.sql.SparkSession;
+import org.apache.spark.storage.StorageLevel;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+
+/**
+ * Writes the intermediate step results in the background, so the pipeline does not wait for them. A step result is
+ * persisted before it is written, so the write and the following steps of the pipeline compute it only once. The
+ * persisted datasets are released once all writes of a pipeline run have finished.
+ *
+ * The number of pending writes is bounded: if all writer threads are busy and the queue is full, the step result is
+ * written by the pipeline thread itself, without blocking the writes of other branches.
+ *
+ * The writes run in their own job group without a scheduler pool. Spark passes the local properties of a thread on to
+ * the threads it creates, so the writer threads would otherwise keep those of the step which started them and the
+ * writes would be counted for that step in the step metrics.
+ */
+public class StepResultSnapshotWriter {
+
+    private static final int WRITER_THREADS = 2;
+    private static final int MAX_PENDING_WRITES = 4;
+
+    private static final String STEP_RESULTS_JOB_GROUP = "step-results";
+
+    private static final String SCHEDULER_POOL_PROPERTY = "spark.scheduler.pool";
+
+    // the properties set by SparkContext.setJobGroup and the scheduler pool
+    private static final List<String> LOCAL_PROPERTIES = Arrays.asList("spark.jobGroup.id", "spark.job.description",
+            "spark.job.interruptOnCancel", SCHEDULER_POOL_PROPERTY);
+
+    private static StepResultSnapshotWriter instance;
+
+    private ExecutorService executor = null;
+    private final List<Future<?>> pendingWrites = new ArrayList<>();
+    private final List<Dataset<Row>> persistedDatasets = new ArrayList<>();
+    private boolean unknownFormatReported = false;
+
+    private StepResultSnapshotWriter(){}
+
+    public static synchronized StepResultSnapshotWriter getInstance(){
+        if(instance == null){
+            instance = new StepResultSnapshotWriter();
+        }
+        return instance;
+    }
+
+    /**
+     * Writes a sample of the given dataset to the given path in the configured format (see SparkImporterVariables).
+     */
+    public void write(Dataset<Row> dataset, String path, String delimiter) {
+        Runnable write;
+        synchronized (this) {
+            write = prepareWrite(dataset, path, delimiter);
+            try {
+                pendingWrites.add(getExecutor().submit(write));
+                return;
+            } catch (RejectedExecutionException e) {
+                // all writer threads are busy and the queue is full
+            }
+        }
+
+        try {
+            write.run();
+        } catch (Exception e) {
+            SparkImporterLogger.getInstance().writeError("An error occurred while writing a step result. Exception: " + e.getMessage());
+        }
+    }
+
+    private Runnable prepareWrite(Dataset<Row> dataset, String path, String delimiter) {
+        if(dataset.storageLevel().equals(StorageLevel.NONE())) {
+            dataset.persist(StorageLevel.MEMORY_AND_DISK());
+            persistedDatasets.add(dataset);
+        }
+
+        Dataset<Row> snapshot = dataset;
+        double fraction = SparkImporterVariables.getStepResultsSample();
+        if(fraction < 1.0) {
+            snapshot = snapshot.sample(false, fraction);
+        }
+
+        String format = SparkImporterVariables.getStepResultsFormat();
+        if(!SparkImporterVariables.STEP_RESULTS_FORMAT_CSV.equals(format) && !SparkImporterVariables.STEP_RESULTS_FORMAT_PARQUET.equals(format) && !unknownFormatReported) {
+            SparkImporterLogger.getInstance().writeWarn("Unknown step results format '" + format + "'. The step results are written as CSV.");
+            unknownFormatReported = true;
+        }
+
+        final Dataset<Row> snapshotToWrite = snapshot;
+        return () -> writeSnapshot(snapshotToWrite, path, delimiter);
+    }
+
+    /**
+     * Waits for all pending writes and releases the datasets persisted for them.
+     */
+    public synchronized void awaitCompletion() {
+        for(Future<?> pendingWrite : pendingWrites) {
+            try {
+                pendingWrite.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (ExecutionException e) {
+                SparkImporterLogger.getInstance().writeError("An error occurred while writing a step result. Exception: " + e.getCause().getMessage());
+            }
+        }
+        pendingWrites.clear();
+
+        for(Dataset<Row> dataset : persistedDatasets) {
+            dataset.unpersist();
+        }
+        persistedDatasets.clear();
+
+        if(executor != null) {
+            executor.shutdown();
+            executor = null;
+        }
+    }
+
+    private ExecutorService getExecutor() {
+        if(executor == null) {
+            executor = new ThreadPoolExecutor(WRITER_THREADS, WRITER_THREADS, 0L, TimeUnit.MILLISECONDS,
+                    new ArrayBlockingQueue<>(MAX_PENDING_WRITES));
+        }
+        return executor;
+    }
+
+    private void writeSnapshot(Dataset<Row> snapshot, String path, String delimiter) {
+        SparkContext sparkContext = SparkSession.builder().getOrCreate().sparkContext();
+        Map<String, String> localProperties = new HashMap<>();
+        for(String property : LOCAL_PROPERTIES) {
+            localProperties.put(property, sparkContext.getLocalProperty(property));
+        }
+
+        sparkContext.setJobGroup(STEP_RESULTS_JOB_GROUP, "Writing step result " + path, false);
+        sparkContext.setLocalProperty(SCHEDULER_POOL_PROPERTY, null);
+        try {
+            doWriteSnapshot(snapshot, path, delimiter);
+        } finally {
+            // a write done by the pipeline thread itself continues its step afterwards
+            for(String property : LOCAL_PROPERTIES) {
+                sparkContext.setLocalProperty(property, localProperties.get(property));
+            }
+        }
+    }
+
+    private void doWriteSnapshot(Dataset<Row> snapshot, String path, String delimiter) {
+        if(SparkImporterVariables.STEP_RESULTS_FORMAT_PARQUET.equals(SparkImporterVariables.getStepResultsFormat())) {
+            snapshot
+                    .write()
+                    .mode(SparkImporterVariables.getSaveMode())
+                    .parquet(path);
+        } else {
+            snapshot
+                    .coalesce(1)
+                    .write()
+                    .option("header", "true")
+                    .option("delimiter", delimiter)
+                    .option("ignoreLeadingWhiteSpace", "false")
+                    .option("ignoreTrailingWhiteSpace", "false")
+                    .mode(SparkImporterVariables.getSaveMode())
+                    .csv(path);
+        }
+    }
+}
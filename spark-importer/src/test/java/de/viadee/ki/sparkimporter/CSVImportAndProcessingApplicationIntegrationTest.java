@@ -9,8 +9,10 @@ import org.junit.Test;
 
 import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileReader;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
 
 import static org.junit.Assert.assertEquals;
@@ -40,8 +42,8 @@ public class CSVImportAndProcessingApplicationIntegrationTest {
         // run main class
         CSVImportAndProcessingApplication.main(args);
 
-        //read result csv
-        BufferedReader resultFileReader = new BufferedReader(new FileReader(new File(TEST_OUTPUT_FILE_NAME)));
+        //read result csv, it is written in UTF-8 independent of the platform's default charset
+        BufferedReader resultFileReader = new BufferedReader(new InputStreamReader(new FileInputStream(new File(TEST_OUTPUT_FILE_NAME)), StandardCharsets.UTF_8));
 
         headerValues = resultFileReader.readLine().split(RESULT_FILE_DELIMITER);
         firstLineValues = resultFileReader.readLine().split(RESULT_FILE_DELIMITER);
@@ -145,11 +147,19 @@ public class CSVImportAndProcessingApplicationIntegrationTest {
 //        System.out.println(DigestUtils.md5Hex(Arrays.toString(fourthLineValues)).toUpperCase());
 //        System.out.println(DigestUtils.md5Hex(Arrays.toString(fifthLineValues)).toUpperCase());
         
-        assertEquals("3E6095DE1FE7A126C06DA1E8D9A8CE89", DigestUtils.md5Hex(Arrays.toString(firstLineValues)).toUpperCase());
-        assertEquals("2EC87244CB4DDD6721113F3C2F191E27", DigestUtils.md5Hex(Arrays.toString(secondLineValues)).toUpperCase());
-        assertEquals("2C24AF2021F86F095037B4025CF58473", DigestUtils.md5Hex(Arrays.toString(thirdLineValues)).toUpperCase());
-        assertEquals("1770FBB373E802EF7B31C841AD034E5D", DigestUtils.md5Hex(Arrays.toString(fourthLineValues)).toUpperCase());
-        assertEquals("CDD9A304FD1C7E9711D2808F98038A10", DigestUtils.md5Hex(Arrays.toString(fifthLineValues)).toUpperCase());
+        assertEquals("B05BB8B3E4C6F87C984CFF560CC88228", DigestUtils.md5Hex(Arrays.toString(firstLineValues)).toUpperCase());
+        assertEquals("C3DE32F1A3DDC411F070DFB1E115D4B3", DigestUtils.md5Hex(Arrays.toString(secondLineValues)).toUpperCase());
+        assertEquals("4EFA6545D91C881B2400B23AD5F98AAB", DigestUtils.md5Hex(Arrays.toString(thirdLineValues)).toUpperCase());
+        assertEquals("B5C66F4A3EECB32B568543471F38A1A7", DigestUtils.md5Hex(Arrays.toString(fourthLineValues)).toUpperCase());
+        assertEquals("4D5CC077A502376D349D84D1EDE42C7F", DigestUtils.md5Hex(Arrays.toString(fifthLineValues)).toUpperCase());
+    }
+
+    @Test
+    public void testRevisionCounts() {
+        //each _rev column holds the revision of its own variable instead of the 0 filler of another variable's row
+        assertEquals("0e858f11-4146-11e8-8ebc-0050569e1e5c", secondLineValues[ArrayUtils.indexOf(headerValues, "proc_inst_id_")]);
+        assertEquals("3", secondLineValues[ArrayUtils.indexOf(headerValues, "c_rev")]);
+        assertEquals("2", secondLineValues[ArrayUtils.indexOf(headerValues, "e_rev")]);
     }
     
 
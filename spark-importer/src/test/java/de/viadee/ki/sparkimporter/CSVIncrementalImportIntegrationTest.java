@@ -0,0 +1,133 @@
+package de.viadee.ki.sparkimporter;
+
+import de.viadee.ki.sparkimporter.util.ProcessingWatermark;
+import org.apache.commons.io.FileUtils;
+import org.apache.spark.SparkConf;
+import org.apache.spark.sql.SparkSession;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class CSVIncrementalImportIntegrationTest {
+
+    private static final String TEST_INPUT_FILE_NAME = "./src/test/resources/integration_test_file.csv";
+
+    private static final String TEST_DIRECTORY = "target/integration-test-incremental-csv/";
+
+    private static final String TEST_PARTIAL_INPUT_FILE_NAME = TEST_DIRECTORY + "integration_test_file_partial.csv";
+
+    private static final String TEST_WORKING_DIRECTORY = TEST_DIRECTORY + "config/";
+
+    private static final String TEST_OUTPUT_FILE_PATH_INCREMENTAL = TEST_DIRECTORY + "result-incremental/";
+
+    private static final String TEST_OUTPUT_FILE_PATH_FULL = TEST_DIRECTORY + "result-full/";
+
+    private static final String RESULT_FILE = "result/csv/result.csv";
+
+    private static final String RESULT_FILE_DELIMITER = "\\|";
+
+    // the process instance which ended last, so it is the only one changed after the partial import
+    private static final String LATE_PROCESS_INSTANCE_ID = "0e858f11-4146-11e8-8ebc-0050569e1e5c";
+
+    private static Set<Map<String, String>> partialResult, mergedResult, fullResult;
+
+    private static String watermarkAfterMerge, watermarkAfterSkip;
+
+    private static long resultModifiedAfterMerge, resultModifiedAfterSkip;
+
+    @BeforeClass
+    public static void setUpBeforeClass() throws IOException {
+        FileUtils.deleteQuietly(new File(TEST_DIRECTORY));
+        FileUtils.copyFileToDirectory(new File("./src/test/resources/config/csv/pipeline_configuration_csv.json"), new File(TEST_WORKING_DIRECTORY));
+
+        // the export before the late process instance has been written
+        List<String> lines = Files.readAllLines(Paths.get(TEST_INPUT_FILE_NAME), StandardCharsets.UTF_8);
+        List<String> partialLines = lines.stream()
+                .filter(line -> !line.split(";")[1].equals(LATE_PROCESS_INSTANCE_ID))
+                .collect(Collectors.toList());
+        FileUtils.writeLines(new File(TEST_PARTIAL_INPUT_FILE_NAME), StandardCharsets.UTF_8.name(), partialLines);
+
+        runImport(TEST_PARTIAL_INPUT_FILE_NAME, TEST_OUTPUT_FILE_PATH_INCREMENTAL, true);
+        partialResult = readResult(TEST_OUTPUT_FILE_PATH_INCREMENTAL + RESULT_FILE);
+
+        // only the late process instance changed and is merged into the existing result
+        runImport(TEST_INPUT_FILE_NAME, TEST_OUTPUT_FILE_PATH_INCREMENTAL, true);
+        mergedResult = readResult(TEST_OUTPUT_FILE_PATH_INCREMENTAL + RESULT_FILE);
+        watermarkAfterMerge = new ProcessingWatermark(TEST_WORKING_DIRECTORY).read();
+        resultModifiedAfterMerge = new File(TEST_OUTPUT_FILE_PATH_INCREMENTAL + RESULT_FILE).lastModified();
+
+        // nothing changed, so the pipeline is skipped
+        runImport(TEST_INPUT_FILE_NAME, TEST_OUTPUT_FILE_PATH_INCREMENTAL, true);
+        watermarkAfterSkip = new ProcessingWatermark(TEST_WORKING_DIRECTORY).read();
+        resultModifiedAfterSkip = new File(TEST_OUTPUT_FILE_PATH_INCREMENTAL + RESULT_FILE).lastModified();
+
+        runImport(TEST_INPUT_FILE_NAME, TEST_OUTPUT_FILE_PATH_FULL, false);
+        fullResult = readResult(TEST_OUTPUT_FILE_PATH_FULL + RESULT_FILE);
+    }
+
+    private static void runImport(String inputFile, String outputPath, boolean incremental) {
+        String args[] = {"-fs", inputFile, "-fd", outputPath, "-d", ";", "-sr", "false", "-sm", "overwrite", "-of", "csv",
+                "-wd", TEST_WORKING_DIRECTORY, "-inc", String.valueOf(incremental)};
+        SparkConf sparkConf = new SparkConf();
+        sparkConf.setMaster("local[*]");
+        SparkSession.builder().config(sparkConf).getOrCreate();
+
+        CSVImportAndProcessingApplication.main(args);
+    }
+
+    /**
+     * @return the rows of the result as maps from column to value, as the column order of a merged result can differ
+     */
+    private static Set<Map<String, String>> readResult(String resultFile) throws IOException {
+        List<String> lines = Files.readAllLines(Paths.get(resultFile), StandardCharsets.UTF_8);
+        String[] header = lines.get(0).split(RESULT_FILE_DELIMITER);
+
+        Set<Map<String, String>> rows = new HashSet<>();
+        for(String line : lines.subList(1, lines.size())) {
+            String[] values = line.split(RESULT_FILE_DELIMITER, -1);
+            Map<String, String> row = new HashMap<>();
+            for(int i = 0; i < header.length; i++) {
+                row.put(header[i], values[i]);
+            }
+            rows.add(row);
+        }
+        return rows;
+    }
+
+    @Test
+    public void testPartialImport() {
+        assertEquals(4, partialResult.size());
+        assertTrue(partialResult.stream().noneMatch(row -> LATE_PROCESS_INSTANCE_ID.equals(row.get("proc_inst_id_"))));
+    }
+
+    @Test
+    public void testMergedResultEqualsFullResult() {
+        assertEquals(5, mergedResult.size());
+        assertEquals(fullResult, mergedResult);
+    }
+
+    @Test
+    public void testWatermark() {
+        assertEquals("2018-04-18 08:58:43.873", watermarkAfterMerge);
+        assertEquals(watermarkAfterMerge, watermarkAfterSkip);
+    }
+
+    @Test
+    public void testUnchangedInputIsSkipped() {
+        assertEquals(resultModifiedAfterMerge, resultModifiedAfterSkip);
+    }
+}
@@ -11,6 +11,7 @@ import kafka.utils.ZKStringSerializer$;
 import kafka.utils.ZkUtils;
 import kafka.zk.EmbeddedZookeeper;
 import org.I0Itec.zkclient.ZkClient;
+import org.apache.commons.io.FileUtils;
 import org.apache.kafka.clients.producer.KafkaProducer;
 import org.apache.kafka.clients.producer.ProducerRecord;
 import org.apache.kafka.common.utils.Time;
@@ -22,6 +23,7 @@ import org.junit.AfterClass;
 import org.junit.BeforeClass;
 import org.junit.Test;
 
+import java.io.File;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.util.Properties;
@@ -36,6 +38,8 @@ public class KafkaImportApplicationIntegrationTest {
     private final static String FILE_STREAM_INPUT_VARIABLE_UPDATE = "./src/test/resources/integration_test_file_kafka_stream_variableUpdate.json";
     private final static String IMPORT_TEST_OUTPUT_DIRECTORY_PROCESS = "integration-test-result-kafka-import-process";
     private final static String IMPORT_TEST_OUTPUT_DIRECTORY_ACTIVITY = "integration-test-result-kafka-import-activity";
+    // the offsets are stored outside of the test resources, as they are generated by each test run
+    private final static String IMPORT_TEST_CHECKPOINT_DIRECTORY = "target/integration-test-checkpoints";
 
     private final static String TOPIC_PROCESS_INSTANCE = "processInstance";
     private final static String TOPIC_ACTIVITY_INSTANCE = "activityInstance";
@@ -53,6 +57,9 @@ public class KafkaImportApplicationIntegrationTest {
     public static void setupBeforeClass() throws Exception {
         //System.setProperty("hadoop.home.dir", "C:\\Users\\b60\\Desktop\\hadoop-2.6.0\\hadoop-2.6.0");
 
+        // the topics are created again, so offsets stored by an earlier test run do not apply
+        FileUtils.deleteQuietly(new File(IMPORT_TEST_CHECKPOINT_DIRECTORY));
+
         // setup Zookeeper
         zkServer = new EmbeddedZookeeper();
         String zkConnect = ZOOKEEPER_HOST + ":" + zkServer.port();
@@ -99,7 +106,7 @@ public class KafkaImportApplicationIntegrationTest {
     @Test
     public void testKafkaStreamingImportProcessLevel() throws Exception {
         //run main class
-        String args[] = {"-kb", KAFKA_HOST + ":" + KAFKA_PORT, "-fd", IMPORT_TEST_OUTPUT_DIRECTORY_PROCESS, "-bm", "true", "-sr", "false", "-dl", "process", "-wd", "./src/test/resources/config/kafka_import_process/", "-sm", "overwrite"};
+        String args[] = {"-kb", KAFKA_HOST + ":" + KAFKA_PORT, "-fd", IMPORT_TEST_OUTPUT_DIRECTORY_PROCESS, "-bm", "true", "-sr", "false", "-dl", "process", "-wd", "./src/test/resources/config/kafka_import_process/", "-cd", IMPORT_TEST_CHECKPOINT_DIRECTORY + "/kafka_import_process", "-sm", "overwrite"};
         SparkConf sparkConf = new SparkConf();
         sparkConf.setMaster("local[*]");
         SparkSession.builder().config(sparkConf).getOrCreate();
@@ -128,7 +135,7 @@ public class KafkaImportApplicationIntegrationTest {
     @Test
     public void testKafkaStreamingImportActivityLevel() throws Exception {
         //run main class
-        String args[] = {"-kb", KAFKA_HOST + ":" + KAFKA_PORT, "-fd", IMPORT_TEST_OUTPUT_DIRECTORY_ACTIVITY, "-bm", "true", "-sr", "false", "-dl", "activity", "-wd", "./src/test/resources/config/kafka_import_activity/","-sm", "overwrite"};
+        String args[] = {"-kb", KAFKA_HOST + ":" + KAFKA_PORT, "-fd", IMPORT_TEST_OUTPUT_DIRECTORY_ACTIVITY, "-bm", "true", "-sr", "false", "-dl", "activity", "-wd", "./src/test/resources/config/kafka_import_activity/", "-cd", IMPORT_TEST_CHECKPOINT_DIRECTORY + "/kafka_import_activity", "-sm", "overwrite"};
         SparkConf sparkConf = new SparkConf();
         sparkConf.setMaster("local[*]");
         SparkSession.builder().config(sparkConf).getOrCreate();
@@ -112,7 +112,7 @@ public class KafkaProcessingApplicationIntegrationTest {
         //check hash of dataset
         String hash = SparkImporterUtils.getInstance().md5CecksumOfObject(importedDataset.collect());
         System.out.println(hash);
-        assertEquals("A8BBFC3B17C00C40C9883DA1F396D453", hash);
+        assertEquals("F3C701F1AD7983655065DD2FD77B7EA2", hash);
 
         //close Spark session
         sparkSession.close();
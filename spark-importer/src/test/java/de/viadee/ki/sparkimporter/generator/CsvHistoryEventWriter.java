@@ -0,0 +1,101 @@
+package de.viadee.ki.sparkimporter.generator;
+
+import de.viadee.ki.sparkimporter.events.ActivityInstanceEvent;
+import de.viadee.ki.sparkimporter.events.ProcessInstanceEvent;
+import de.viadee.ki.sparkimporter.events.VariableUpdateEvent;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Writes the events in the layout of the Camunda export read by the CSV import: the columns of the process instance
+ * (ACT_HI_PROCINST) followed by the columns of the variable update (ACT_HI_VARINST), one line per variable update.
+ * Activity instances are not part of the export.
+ */
+public class CsvHistoryEventWriter implements HistoryEventWriter {
+
+    private static final List<String> HEADER = Arrays.asList(
+            "id_", "proc_inst_id_", "business_key_", "proc_def_key_", "proc_def_id_", "start_time_", "end_time_",
+            "duration_", "start_user_id_", "start_act_id_", "end_act_id_", "super_process_instance_id_",
+            "super_case_instance_id_", "case_inst_id_", "delete_reason_", "tenant_id_", "state_",
+            "id_", "proc_def_key_", "proc_def_id_", "proc_inst_id_", "execution_id_", "act_inst_id_", "case_def_key_",
+            "case_def_id_", "case_inst_id_", "case_execution_id_", "task_id_", "name_", "var_type_", "rev_",
+            "bytearray_id_", "double_", "long_", "text_", "text2_", "tenant_id_");
+
+    private final String delimiter;
+    private final BufferedWriter writer;
+    private final SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS");
+
+    public CsvHistoryEventWriter(String targetFile, String delimiter) throws IOException {
+        this.delimiter = delimiter;
+        Path path = Paths.get(targetFile);
+        if(path.getParent() != null) {
+            Files.createDirectories(path.getParent());
+        }
+        this.writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8);
+        writeLine(HEADER);
+    }
+
+    @Override
+    public void write(List<ProcessInstanceEvent> processInstanceEvents, List<ActivityInstanceEvent> activityInstanceEvents,
+                      List<VariableUpdateEvent> variableUpdateEvents) throws IOException {
+        ProcessInstanceEvent pi = processInstanceEvents.get(processInstanceEvents.size() - 1);
+        List<String> processInstanceColumns = Arrays.asList(
+                pi.getProcessInstanceId(), pi.getProcessInstanceId(), pi.getBusinessKey(), pi.getProcessDefinitionKey(),
+                pi.getProcessDefinitionId(), format(pi.getStartTime()), format(pi.getEndTime()), format(pi.getDurationInMillis()),
+                pi.getStartUserId(), pi.getStartActivityId(), pi.getEndActivityId(), pi.getSuperProcessInstanceId(),
+                pi.getSuperCaseInstanceId(), pi.getCaseInstanceId(), pi.getDeleteReason(), pi.getTenantId(), pi.getState());
+
+        // the export is a left join, so instances without variables still have one line
+        if(variableUpdateEvents.isEmpty()) {
+            writeLine(processInstanceColumns, Collections.nCopies(HEADER.size() - processInstanceColumns.size(), null));
+        }
+
+        for(VariableUpdateEvent vu : variableUpdateEvents) {
+            writeLine(processInstanceColumns, Arrays.asList(
+                    vu.getId(), vu.getProcessDefinitionKey(), vu.getProcessDefinitionId(), vu.getProcessInstanceId(),
+                    vu.getExecutionId(), vu.getActivityInstanceId(), vu.getCaseDefinitionKey(), vu.getCaseDefinitionId(),
+                    vu.getCaseInstanceId(), vu.getCaseExecutionId(), vu.getTaskId(), vu.getVariableName(),
+                    vu.getSerializerName(), String.valueOf(vu.getRevision()), null, format(vu.getDoubleValue()),
+                    format(vu.getLongValue()), vu.getTextValue(), null, vu.getTenantId()));
+        }
+    }
+
+    private String format(Object value) {
+        if(value == null) {
+            return null;
+        }
+        return value instanceof Date ? dateFormat.format((Date) value) : value.toString();
+    }
+
+    @SafeVarargs
+    private final void writeLine(List<String>... columnLists) throws IOException {
+        boolean first = true;
+        for(List<String> columns : columnLists) {
+            for(String column : columns) {
+                if(!first) {
+                    writer.write(delimiter);
+                }
+                if(column != null) {
+                    writer.write(column);
+                }
+                first = false;
+            }
+        }
+        writer.write("\n");
+    }
+
+    @Override
+    public void close() throws IOException {
+        writer.close();
+    }
+}
@@ -0,0 +1,345 @@
+package de.viadee.ki.sparkimporter.generator;
+
+import com.beust.jcommander.JCommander;
+import com.beust.jcommander.ParameterException;
+import de.viadee.ki.sparkimporter.events.ActivityInstanceEvent;
+import de.viadee.ki.sparkimporter.events.ProcessInstanceEvent;
+import de.viadee.ki.sparkimporter.events.VariableUpdateEvent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+
+/**
+ * Generates synthetic Camunda history data of arbitrary volume for load tests. The data is written either as CSV in
+ * the layout of the Camunda export used by the CSV import or as newline-delimited JSON with one file per Kafka topic
+ * as consumed by the Kafka import.
+ *
+ * The process instances are generated one after another and written immediately, so the memory needed does not
+ * depend on the number of process instances.
+ *
+ * Usage: mvn test-compile exec:java -Dexec.classpathScope=test
+ *   -Dexec.mainClass=de.viadee.ki.sparkimporter.generator.HistoryDataGenerator -Dexec.args="-o <output> -pi 1000000"
+ */
+public class HistoryDataGenerator {
+
+    private static final Logger LOG = LoggerFactory.getLogger(HistoryDataGenerator.class);
+
+    private static final String[] VARIABLE_TYPES = {"string", "long", "double", "boolean", "date"};
+
+    // instances of a skewed size are at most that much larger than the configured size
+    private static final double MAX_SIZE_FACTOR = 100.0;
+
+    private static final long START_TIME = 1514764800000L;
+    private static final long MAX_ACTIVITY_DURATION = 3600000L;
+
+    private final HistoryDataGeneratorArguments args;
+    private final Random random;
+
+    private final int jsonVariables;
+    private final int conflictingVariables;
+    private final String[] processDefinitionIds;
+    private final double[] processDefinitionDistribution;
+
+    public HistoryDataGenerator(HistoryDataGeneratorArguments args) {
+        this.args = args;
+        this.random = new Random(args.getSeed());
+        this.jsonVariables = (int) Math.round(args.getVariables() * args.getJsonVariableRatio());
+        this.conflictingVariables = (int) Math.round(args.getVariables() * args.getTypeConflictRatio());
+
+        // process definitions are chosen following a Zipf distribution, so with skew most instances belong to few definitions
+        this.processDefinitionIds = new String[args.getProcessDefinitions()];
+        this.processDefinitionDistribution = new double[args.getProcessDefinitions()];
+        double sum = 0;
+        for(int i = 0; i < processDefinitionIds.length; i++) {
+            processDefinitionIds[i] = processDefinitionKey(i) + ":1:" + uuid();
+            sum += 1.0 / Math.pow(i + 1, args.getSkew());
+            processDefinitionDistribution[i] = sum;
+        }
+        for(int i = 0; i < processDefinitionDistribution.length; i++) {
+            processDefinitionDistribution[i] /= sum;
+        }
+    }
+
+    public static void main(String[] arguments) throws IOException {
+        HistoryDataGeneratorArguments args = new HistoryDataGeneratorArguments();
+        final JCommander jCommander = JCommander.newBuilder().addObject(args).build();
+        try {
+            jCommander.parse(arguments);
+        } catch (final ParameterException e) {
+            LOG.error("Parsing of parameters failed. Error message: " + e.getMessage());
+            jCommander.usage();
+            System.exit(1);
+        }
+
+        LOG.info("Generating history data: " + args);
+        new HistoryDataGenerator(args).generate();
+    }
+
+    public void generate() throws IOException {
+        final long startMillis = System.currentTimeMillis();
+        long events = 0;
+
+        try (HistoryEventWriter writer = createWriter()) {
+            for(long i = 0; i < args.getProcessInstances(); i++) {
+                events += generateProcessInstance(i, writer);
+                if((i + 1) % 100000 == 0) {
+                    LOG.info("Generated " + (i + 1) + " process instances with " + events + " events.");
+                }
+            }
+        }
+
+        LOG.info("Generated " + args.getProcessInstances() + " process instances with " + events + " events into "
+                + args.getOutput() + " in " + (System.currentTimeMillis() - startMillis) / 1000 + " seconds.");
+    }
+
+    private HistoryEventWriter createWriter() throws IOException {
+        switch (args.getFormat()) {
+            case HistoryDataGeneratorArguments.FORMAT_CSV:
+                return new CsvHistoryEventWriter(args.getOutput(), args.getDelimiter());
+            case HistoryDataGeneratorArguments.FORMAT_JSON:
+                return new JsonHistoryEventWriter(args.getOutput());
+            default:
+                throw new IllegalArgumentException("Unknown output format " + args.getFormat() + ", must be csv or json.");
+        }
+    }
+
+    private int generateProcessInstance(long number, HistoryEventWriter writer) throws IOException {
+        double sizeFactor = sizeFactor();
+        int activities = Math.max(1, (int) Math.round(args.getActivities() * sizeFactor));
+        int revisions = Math.max(1, (int) Math.round(args.getRevisions() * sizeFactor));
+        boolean active = random.nextDouble() < args.getActiveRatio();
+
+        int processDefinition = processDefinition();
+        String processDefinitionKey = processDefinitionKey(processDefinition);
+        String processDefinitionId = processDefinitionIds[processDefinition];
+        String processInstanceId = uuid();
+        long sequenceCounter = 0;
+
+        // the instances start one minute after another
+        Date startTime = new Date(START_TIME + number * 60000L);
+
+        ProcessInstanceEvent start = new ProcessInstanceEvent();
+        start.setId(processInstanceId);
+        start.setProcessInstanceId(processInstanceId);
+        start.setExecutionId(processInstanceId);
+        start.setProcessDefinitionId(processDefinitionId);
+        start.setProcessDefinitionKey(processDefinitionKey);
+        start.setProcessDefinitionVersion(1);
+        start.setEventType("start");
+        start.setSequenceCounter(sequenceCounter++);
+        start.setStartTime(startTime);
+        start.setBusinessKey("bkey" + number);
+        start.setStartUserId("user" + random.nextInt(10));
+        start.setStartActivityId(activityId(0));
+        start.setState("ACTIVE");
+
+        List<ProcessInstanceEvent> processInstanceEvents = new ArrayList<>();
+        processInstanceEvents.add(start);
+
+        List<ActivityInstanceEvent> activityInstanceEvents = new ArrayList<>();
+        String[] activityInstanceIds = new String[activities];
+        long time = startTime.getTime();
+        for(int a = 0; a < activities; a++) {
+            activityInstanceIds[a] = uuid();
+            ActivityInstanceEvent activityStart = new ActivityInstanceEvent();
+            activityStart.setId(activityInstanceIds[a]);
+            activityStart.setActivityInstanceId(activityInstanceIds[a]);
+            activityStart.setParentActivityInstanceId(processInstanceId);
+            activityStart.setProcessInstanceId(processInstanceId);
+            activityStart.setExecutionId(processInstanceId);
+            activityStart.setProcessDefinitionId(processDefinitionId);
+            activityStart.setProcessDefinitionKey(processDefinitionKey);
+            activityStart.setActivityId(activityId(a));
+            activityStart.setActivityName("Activity " + a);
+            activityStart.setActivityType(a == 0 ? "startEvent" : (a == activities - 1 && !active ? "noneEndEvent" : (a % 2 == 0 ? "userTask" : "serviceTask")));
+            activityStart.setEventType("start");
+            activityStart.setSequenceCounter(sequenceCounter++);
+            activityStart.setStartTime(new Date(time));
+            activityInstanceEvents.add(activityStart);
+
+            // the last activity of an active instance has not been finished yet
+            if(!active || a < activities - 1) {
+                long duration = (long) (random.nextDouble() * MAX_ACTIVITY_DURATION);
+                ActivityInstanceEvent activityEnd = copyOf(activityStart);
+                activityEnd.setEventType("end");
+                activityEnd.setSequenceCounter(sequenceCounter++);
+                activityEnd.setEndTime(new Date(time + duration));
+                activityEnd.setDurationInMillis(duration);
+                activityEnd.setActivityInstanceState(1);
+                activityInstanceEvents.add(activityEnd);
+                time += duration;
+            }
+        }
+
+        List<VariableUpdateEvent> variableUpdateEvents = new ArrayList<>();
+        boolean typeConflict = random.nextBoolean();
+        for(int v = 0; v < args.getVariables(); v++) {
+            String variableInstanceId = uuid();
+            String type = variableType(v, typeConflict);
+            for(int r = 0; r < revisions; r++) {
+                int activity = (v + r) % activities;
+                VariableUpdateEvent update = new VariableUpdateEvent();
+                update.setId(uuid());
+                update.setProcessInstanceId(processInstanceId);
+                update.setExecutionId(processInstanceId);
+                update.setProcessDefinitionId(processDefinitionId);
+                update.setProcessDefinitionKey(processDefinitionKey);
+                update.setSequenceCounter(sequenceCounter++);
+                update.setActivityInstanceId(activityInstanceIds[activity]);
+                update.setTimestamp(new Date(startTime.getTime() + activity));
+                update.setRevision(r);
+                update.setVariableName(variableName(v));
+                update.setVariableInstanceId(variableInstanceId);
+                update.setSerializerName(type);
+                setValue(update, v, type);
+                variableUpdateEvents.add(update);
+            }
+        }
+
+        if(!active) {
+            ProcessInstanceEvent end = copyOf(start);
+            end.setEventType("end");
+            end.setSequenceCounter(sequenceCounter++);
+            end.setEndTime(new Date(time));
+            end.setDurationInMillis(time - startTime.getTime());
+            end.setEndActivityId(activityId(activities - 1));
+            end.setState("COMPLETED");
+            processInstanceEvents.add(end);
+        }
+
+        writer.write(processInstanceEvents, activityInstanceEvents, variableUpdateEvents);
+
+        return processInstanceEvents.size() + activityInstanceEvents.size() + variableUpdateEvents.size();
+    }
+
+    /**
+     * @return the type of the variable, the first variables are written with another type in instances with a type conflict
+     */
+    private String variableType(int variable, boolean typeConflict) {
+        if(isJsonVariable(variable)) {
+            return "string";
+        }
+        String type = VARIABLE_TYPES[variable % VARIABLE_TYPES.length];
+        if(typeConflict && variable < conflictingVariables) {
+            return type.equals("string") ? "long" : "string";
+        }
+        return type;
+    }
+
+    private boolean isJsonVariable(int variable) {
+        return variable >= args.getVariables() - jsonVariables;
+    }
+
+    private void setValue(VariableUpdateEvent update, int variable, String type) {
+        switch (type) {
+            case "long":
+                update.setLongValue((long) random.nextInt(10000));
+                break;
+            case "double":
+                update.setDoubleValue(Math.round(random.nextDouble() * 100000) / 100.0);
+                break;
+            case "boolean":
+                update.setLongValue((long) random.nextInt(2));
+                break;
+            case "date":
+                update.setLongValue(START_TIME + (long) random.nextInt(Integer.MAX_VALUE) * 1000L);
+                break;
+            default:
+                update.setTextValue(isJsonVariable(variable) ? jsonValue() : "value" + random.nextInt(100));
+        }
+    }
+
+    /**
+     * @return a JSON document with alternating text and number fields, a nested object as last field
+     */
+    private String jsonValue() {
+        StringBuilder sb = new StringBuilder("{");
+        for(int f = 0; f < args.getJsonFields(); f++) {
+            if(f > 0) {
+                sb.append(",");
+            }
+            sb.append("\"field").append(f).append("\":");
+            if(f == args.getJsonFields() - 1 && f > 1) {
+                sb.append("{\"name\":\"value").append(random.nextInt(100)).append("\"}");
+            } else if(f % 2 == 0) {
+                sb.append("\"value").append(random.nextInt(100)).append("\"");
+            } else {
+                sb.append(random.nextInt(1000));
+            }
+        }
+        return sb.append("}").toString();
+    }
+
+    /**
+     * @return 1 without skew, otherwise a Pareto distributed factor with shape 1/skew
+     */
+    private double sizeFactor() {
+        if(args.getSkew() <= 0) {
+            return 1.0;
+        }
+        return Math.min(MAX_SIZE_FACTOR, Math.pow(1.0 - random.nextDouble(), -args.getSkew()));
+    }
+
+    private int processDefinition() {
+        double r = random.nextDouble();
+        for(int i = 0; i < processDefinitionDistribution.length; i++) {
+            if(r < processDefinitionDistribution[i]) {
+                return i;
+            }
+        }
+        return processDefinitionDistribution.length - 1;
+    }
+
+    private ProcessInstanceEvent copyOf(ProcessInstanceEvent event) {
+        ProcessInstanceEvent copy = new ProcessInstanceEvent();
+        copy.setId(event.getId());
+        copy.setProcessInstanceId(event.getProcessInstanceId());
+        copy.setExecutionId(event.getExecutionId());
+        copy.setProcessDefinitionId(event.getProcessDefinitionId());
+        copy.setProcessDefinitionKey(event.getProcessDefinitionKey());
+        copy.setProcessDefinitionVersion(event.getProcessDefinitionVersion());
+        copy.setStartTime(event.getStartTime());
+        copy.setBusinessKey(event.getBusinessKey());
+        copy.setStartUserId(event.getStartUserId());
+        copy.setStartActivityId(event.getStartActivityId());
+        return copy;
+    }
+
+    private ActivityInstanceEvent copyOf(ActivityInstanceEvent event) {
+        ActivityInstanceEvent copy = new ActivityInstanceEvent();
+        copy.setId(event.getId());
+        copy.setActivityInstanceId(event.getActivityInstanceId());
+        copy.setParentActivityInstanceId(event.getParentActivityInstanceId());
+        copy.setProcessInstanceId(event.getProcessInstanceId());
+        copy.setExecutionId(event.getExecutionId());
+        copy.setProcessDefinitionId(event.getProcessDefinitionId());
+        copy.setProcessDefinitionKey(event.getProcessDefinitionKey());
+        copy.setActivityId(event.getActivityId());
+        copy.setActivityName(event.getActivityName());
+        copy.setActivityType(event.getActivityType());
+        copy.setStartTime(event.getStartTime());
+        return copy;
+    }
+
+    private String uuid() {
+        return new UUID(random.nextLong(), random.nextLong()).toString();
+    }
+
+    private static String processDefinitionKey(int processDefinition) {
+        return "process" + processDefinition;
+    }
+
+    private static String activityId(int activity) {
+        return "activity" + activity;
+    }
+
+    private static String variableName(int variable) {
+        return "var" + variable;
+    }
+}
@@ -0,0 +1,142 @@
+package de.viadee.ki.sparkimporter.generator;
+
+import com.beust.jcommander.Parameter;
+
+/**
+ * Configures command line parameters of the history data generator.
+ */
+public class HistoryDataGeneratorArguments {
+
+	public static final String FORMAT_CSV = "csv";
+	public static final String FORMAT_JSON = "json";
+
+	@Parameter(names = { "--output",
+			"-o" }, required = true, description = "Target file (csv) or target folder with one file per Kafka topic (json).")
+	private String output;
+
+	@Parameter(names = { "--format",
+			"-f" }, required = false, description = "csv for the Camunda export layout or json for newline-delimited JSON per Kafka topic.")
+	private String format = FORMAT_CSV;
+
+	@Parameter(names = { "--delimiter",
+			"-d" }, required = false, description = "Field delimiter of the CSV file.")
+	private String delimiter = ";";
+
+	@Parameter(names = { "--process-instances",
+			"-pi" }, required = false, description = "Number of process instances to generate.")
+	private long processInstances = 1000;
+
+	@Parameter(names = { "--process-definitions",
+			"-pd" }, required = false, description = "Number of process definitions the process instances are spread over.")
+	private int processDefinitions = 3;
+
+	@Parameter(names = { "--variables",
+			"-v" }, required = false, description = "Number of variables of each process instance.")
+	private int variables = 10;
+
+	@Parameter(names = { "--revisions",
+			"-r" }, required = false, description = "Number of revisions of each variable.")
+	private int revisions = 2;
+
+	@Parameter(names = { "--activities",
+			"-a" }, required = false, description = "Number of activity instances of each process instance.")
+	private int activities = 5;
+
+	@Parameter(names = { "--json-variable-ratio",
+			"-jr" }, required = false, description = "Share of the variables containing a JSON document.")
+	private double jsonVariableRatio = 0.1;
+
+	@Parameter(names = { "--json-fields",
+			"-jf" }, required = false, description = "Number of fields of the JSON documents.")
+	private int jsonFields = 5;
+
+	@Parameter(names = { "--type-conflict-ratio",
+			"-tr" }, required = false, description = "Share of the variables which are written with a conflicting type in half of the process instances.")
+	private double typeConflictRatio = 0.0;
+
+	@Parameter(names = { "--skew",
+			"-sk" }, required = false, description = "Skew of the process instance sizes and of the distribution over process definitions. 0 means uniform, 1 is heavily skewed.")
+	private double skew = 0.0;
+
+	@Parameter(names = { "--active-ratio",
+			"-ar" }, required = false, description = "Share of process instances which are still active.")
+	private double activeRatio = 0.1;
+
+	@Parameter(names = { "--seed",
+			"-s" }, required = false, description = "Seed of the random generator, the same seed creates the same data.")
+	private long seed = 42;
+
+	public String getOutput() {
+		return output;
+	}
+
+	public String getFormat() {
+		return format;
+	}
+
+	public String getDelimiter() {
+		return delimiter;
+	}
+
+	public long getProcessInstances() {
+		return processInstances;
+	}
+
+	public int getProcessDefinitions() {
+		return processDefinitions;
+	}
+
+	public int getVariables() {
+		return variables;
+	}
+
+	public int getRevisions() {
+		return revisions;
+	}
+
+	public int getActivities() {
+		return activities;
+	}
+
+	public double getJsonVariableRatio() {
+		return jsonVariableRatio;
+	}
+
+	public int getJsonFields() {
+		return jsonFields;
+	}
+
+	public double getTypeConflictRatio() {
+		return typeConflictRatio;
+	}
+
+	public double getSkew() {
+		return skew;
+	}
+
+	public double getActiveRatio() {
+		return activeRatio;
+	}
+
+	public long getSeed() {
+		return seed;
+	}
+
+	@Override
+	public String toString() {
+		return "HistoryDataGeneratorArguments{" + "output='" + output + '\''
+				+ ", format='" + format + '\''
+				+ ", delimiter='" + delimiter + '\''
+				+ ", processInstances=" + processInstances
+				+ ", processDefinitions=" + processDefinitions
+				+ ", variables=" + variables
+				+ ", revisions=" + revisions
+				+ ", activities=" + activities
+				+ ", jsonVariableRatio=" + jsonVariableRatio
+				+ ", jsonFields=" + jsonFields
+				+ ", typeConflictRatio=" + typeConflictRatio
+				+ ", skew=" + skew
+				+ ", activeRatio=" + activeRatio
+				+ ", seed=" + seed + '}';
+	}
+}
@@ -0,0 +1,21 @@
+package de.viadee.ki.sparkimporter.generator;
+
+import de.viadee.ki.sparkimporter.events.ActivityInstanceEvent;
+import de.viadee.ki.sparkimporter.events.ProcessInstanceEvent;
+import de.viadee.ki.sparkimporter.events.VariableUpdateEvent;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Writes the generated events of one process instance after another.
+ */
+public interface HistoryEventWriter extends Closeable {
+
+    /**
+     * @param processInstanceEvents the events of the process instance, the last one contains its current state
+     */
+    void write(List<ProcessInstanceEvent> processInstanceEvents, List<ActivityInstanceEvent> activityInstanceEvents,
+               List<VariableUpdateEvent> variableUpdateEvents) throws IOException;
+}
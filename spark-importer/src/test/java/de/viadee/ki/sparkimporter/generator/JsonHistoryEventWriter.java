@@ -0,0 +1,63 @@
+package de.viadee.ki.sparkimporter.generator;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import de.viadee.ki.sparkimporter.events.ActivityInstanceEvent;
+import de.viadee.ki.sparkimporter.events.HistoryEvent;
+import de.viadee.ki.sparkimporter.events.ProcessInstanceEvent;
+import de.viadee.ki.sparkimporter.events.VariableUpdateEvent;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+
+/**
+ * Writes the events as newline-delimited JSON into one file per Kafka topic, the same layout as the
+ * integration_test_file_kafka_stream_*.json test files.
+ */
+public class JsonHistoryEventWriter implements HistoryEventWriter {
+
+    public static final String TOPIC_PROCESS_INSTANCE = "processInstance";
+    public static final String TOPIC_ACTIVITY_INSTANCE = "activityInstance";
+    public static final String TOPIC_VARIABLE_UPDATE = "variableUpdate";
+
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    private final BufferedWriter processInstanceWriter;
+    private final BufferedWriter activityInstanceWriter;
+    private final BufferedWriter variableUpdateWriter;
+
+    public JsonHistoryEventWriter(String targetFolder) throws IOException {
+        Path folder = Paths.get(targetFolder);
+        Files.createDirectories(folder);
+        processInstanceWriter = Files.newBufferedWriter(folder.resolve(TOPIC_PROCESS_INSTANCE + ".json"), StandardCharsets.UTF_8);
+        activityInstanceWriter = Files.newBufferedWriter(folder.resolve(TOPIC_ACTIVITY_INSTANCE + ".json"), StandardCharsets.UTF_8);
+        variableUpdateWriter = Files.newBufferedWriter(folder.resolve(TOPIC_VARIABLE_UPDATE + ".json"), StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public void write(List<ProcessInstanceEvent> processInstanceEvents, List<ActivityInstanceEvent> activityInstanceEvents,
+                      List<VariableUpdateEvent> variableUpdateEvents) throws IOException {
+        writeEvents(processInstanceWriter, processInstanceEvents);
+        writeEvents(activityInstanceWriter, activityInstanceEvents);
+        writeEvents(variableUpdateWriter, variableUpdateEvents);
+    }
+
+    private void writeEvents(Writer writer, List<? extends HistoryEvent> events) throws IOException {
+        for(HistoryEvent event : events) {
+            writer.write(mapper.writeValueAsString(event));
+            writer.write("\n");
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        processInstanceWriter.close();
+        activityInstanceWriter.close();
+        variableUpdateWriter.close();
+    }
+}
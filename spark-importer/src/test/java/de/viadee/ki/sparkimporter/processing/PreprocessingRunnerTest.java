@@ -0,0 +1,144 @@
+package de.viadee.ki.sparkimporter.processing;
+
+import de.viadee.ki.sparkimporter.processing.interfaces.PreprocessingStepInterface;
+import de.viadee.ki.sparkimporter.processing.steps.PipelineStep;
+import de.viadee.ki.sparkimporter.util.SparkImporterVariables;
+import org.apache.spark.SparkConf;
+import org.apache.spark.sql.Dataset;
+import org.apache.spark.sql.Row;
+import org.apache.spark.sql.SparkSession;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.apache.spark.sql.functions.lit;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class PreprocessingRunnerTest {
+
+    private static SparkSession sparkSession;
+
+    private static Dataset<Row> initialDataset;
+
+    // scheduler pool each step has run in
+    private static final Map<String, String> schedulerPools = new ConcurrentHashMap<>();
+
+    @BeforeClass
+    public static void setUpBeforeClass() {
+        SparkConf sparkConf = new SparkConf();
+        sparkConf.setMaster("local[2]");
+        sparkSession = SparkSession.builder().config(sparkConf).getOrCreate();
+        initialDataset = sparkSession.range(10).toDF();
+    }
+
+    @AfterClass
+    public static void tearDownAfterClass() {
+        sparkSession.close();
+    }
+
+    @Before
+    public void setUp() {
+        schedulerPools.clear();
+    }
+
+    @Test
+    public void testChain() {
+        Dataset<Row> result = run(
+                step("A", "", addColumn("a")),
+                step("B", "A", addColumn("b"))
+        );
+
+        assertEquals(Arrays.asList("id", "a", "b"), Arrays.asList(result.columns()));
+    }
+
+    @Test
+    public void testBranchesAreJoined() {
+        // D gets the result of its primary predecessor B passed in and the one of C from the helper datasets
+        Dataset<Row> result = run(
+                step("A", "", addColumn("a")),
+                step("B", "A", addColumn("b")),
+                step("C", "A", addColumn("c")),
+                step("D", "B,C", (dataSet, writeStepResultIntoFile, dataLevel, parameters) -> {
+                    Dataset<Row> c = PreprocessingRunner.helper_datasets.get("C_" + dataLevel);
+                    return dataSet.join(c.select("id", "c"), "id");
+                })
+        );
+
+        assertEquals(Arrays.asList("id", "a", "b", "c"), Arrays.asList(result.columns()));
+        assertEquals(10, result.count());
+    }
+
+    @Test
+    public void testBranchesRunInOwnSchedulerPools() {
+        run(
+                step("A", "", addColumn("a")),
+                step("B", "A", addColumn("b")),
+                step("C", "A", addColumn("c")),
+                step("D", "B,C", addColumn("d"))
+        );
+
+        // a chain continues in the pool of its first step, every further branch gets its own pool
+        assertEquals(schedulerPools.get("A"), schedulerPools.get("B"));
+        assertNotEquals(schedulerPools.get("B"), schedulerPools.get("C"));
+        assertEquals(schedulerPools.get("B"), schedulerPools.get("D"));
+        assertTrue(schedulerPools.get("C").startsWith(PreprocessingRunner.SCHEDULER_POOL_PREFIX));
+    }
+
+    @Test
+    public void testResultOfLastStepIsReturnedForSeveralSinks() {
+        Dataset<Row> result = run(
+                step("A", "", addColumn("a")),
+                step("B", "A", addColumn("b")),
+                step("C", "A", addColumn("c"))
+        );
+
+        assertEquals(Arrays.asList("id", "a", "c"), Arrays.asList(result.columns()));
+    }
+
+    @Test
+    public void testMissingResultOfPredecessorFailsRun() {
+        try {
+            run(
+                    step("A", "", (dataSet, writeStepResultIntoFile, dataLevel, parameters) -> null),
+                    step("B", "", addColumn("b")),
+                    step("C", "A,B", addColumn("c"))
+            );
+            fail("The run should fail as step C has no input.");
+        } catch (IllegalStateException e) {
+            assertTrue(e.getMessage().contains("'A'"));
+        }
+    }
+
+    private static Dataset<Row> run(PipelineStep... steps) {
+        PreprocessingRunner preprocessingRunner = new PreprocessingRunner();
+        for(PipelineStep step : steps) {
+            preprocessingRunner.addPreprocessorStep(step);
+        }
+        return preprocessingRunner.run(initialDataset, SparkImporterVariables.DATA_LEVEL_PROCESS);
+    }
+
+    private static PipelineStep step(String id, String dependsOn, PreprocessingStepInterface preprocessingStep) {
+        PreprocessingStepInterface recordingStep = (dataSet, writeStepResultIntoFile, dataLevel, parameters) -> {
+            String schedulerPool = SparkSession.builder().getOrCreate().sparkContext().getLocalProperty("spark.scheduler.pool");
+            if(schedulerPool != null) {
+                schedulerPools.put(id, schedulerPool);
+            }
+            return preprocessingStep.runPreprocessingStep(dataSet, writeStepResultIntoFile, dataLevel, parameters);
+        };
+        PipelineStep step = new PipelineStep(recordingStep, dependsOn);
+        step.setId(id);
+        return step;
+    }
+
+    private static PreprocessingStepInterface addColumn(String column) {
+        return (dataSet, writeStepResultIntoFile, dataLevel, parameters) -> dataSet.withColumn(column, lit(column));
+    }
+}
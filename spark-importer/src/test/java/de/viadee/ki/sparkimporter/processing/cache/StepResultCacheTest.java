@@ -0,0 +1,157 @@
+package de.viadee.ki.sparkimporter.processing.cache;
+
+import de.viadee.ki.sparkimporter.configuration.preprocessing.Step;
+import de.viadee.ki.sparkimporter.processing.PreprocessingRunner;
+import de.viadee.ki.sparkimporter.processing.steps.PipelineStep;
+import de.viadee.ki.sparkimporter.processing.steps.dataprocessing.TypeCastStep;
+import de.viadee.ki.sparkimporter.runner.SparkRunner;
+import de.viadee.ki.sparkimporter.util.SparkBroadcastHelper;
+import de.viadee.ki.sparkimporter.util.SparkImporterVariables;
+import org.apache.spark.SparkConf;
+import org.apache.spark.sql.Dataset;
+import org.apache.spark.sql.Row;
+import org.apache.spark.sql.SparkSession;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+public class StepResultCacheTest {
+
+    private static final long MAX_CACHE_SIZE_IN_MB = 100;
+
+    private static final long LAST_ACCESS_BEFORE = System.currentTimeMillis() - 3600 * 1000;
+
+    private static SparkSession sparkSession;
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private String cacheDirectory;
+
+    private String inputPath;
+
+    @BeforeClass
+    public static void setUpBeforeClass() {
+        SparkConf sparkConf = new SparkConf();
+        sparkConf.setMaster("local[2]");
+        sparkSession = SparkSession.builder().config(sparkConf).getOrCreate();
+    }
+
+    @AfterClass
+    public static void tearDownAfterClass() {
+        sparkSession.close();
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        cacheDirectory = temporaryFolder.newFolder("cache").getPath();
+        inputPath = temporaryFolder.newFile("input.csv").getPath();
+        SparkImporterVariables.setRunningMode(SparkRunner.RUNNING_MODE.CSV_IMPORT_AND_PROCESSING);
+        SparkImporterVariables.setWorkingDirectory(temporaryFolder.getRoot().getPath());
+        PreprocessingRunner.helper_datasets.clear();
+    }
+
+    @Test
+    public void testStoredResultIsLoaded() {
+        StepResultCache cache = createCache();
+        String key = cache.keyOfStep(cache.getInitialKey(), step(null));
+        assertFalse(cache.contains(key));
+
+        PreprocessingRunner.helper_datasets.put("helper", sparkSession.range(3).toDF());
+        SparkBroadcastHelper.getInstance().broadcastVariable(SparkBroadcastHelper.BROADCAST_VARIABLE.PROCESS_VARIABLES_ESCALATED, Collections.singletonMap("a", "string"));
+        cache.store(key, sparkSession.range(5).toDF(), SparkImporterVariables.DATA_LEVEL_PROCESS);
+
+        // a later run restores the result, the helper datasets and the broadcast variables
+        PreprocessingRunner.helper_datasets.clear();
+        SparkBroadcastHelper.getInstance().broadcastVariable(SparkBroadcastHelper.BROADCAST_VARIABLE.PROCESS_VARIABLES_ESCALATED, Collections.emptyMap());
+        StepResultCache laterCache = createCache();
+        assertTrue(laterCache.contains(key));
+
+        Dataset<Row> result = laterCache.load(key);
+
+        assertEquals(5, result.count());
+        assertEquals(3, PreprocessingRunner.helper_datasets.get("helper").count());
+        assertEquals(Collections.singletonMap("a", "string"),
+                SparkBroadcastHelper.getInstance().getBroadcastVariable(SparkBroadcastHelper.BROADCAST_VARIABLE.PROCESS_VARIABLES_ESCALATED));
+    }
+
+    @Test
+    public void testChangedParametersMissCache() {
+        StepResultCache cache = createCache();
+        String key = cache.keyOfStep(cache.getInitialKey(), step(Collections.singletonMap("column", "a")));
+        cache.store(key, sparkSession.range(5).toDF(), SparkImporterVariables.DATA_LEVEL_PROCESS);
+
+        String changedKey = cache.keyOfStep(cache.getInitialKey(), step(Collections.singletonMap("column", "b")));
+
+        assertNotEquals(key, changedKey);
+        assertTrue(cache.contains(key));
+        assertFalse(cache.contains(changedKey));
+    }
+
+    @Test
+    public void testReferencedEntriesAreKeptWithDependentEntries() {
+        // the first entry contains the helper dataset and the broadcast variables, the second one references them
+        StepResultCache cache = createCache();
+        String firstKey = cache.keyOfStep(cache.getInitialKey(), step(null));
+        String secondKey = cache.keyOfStep(firstKey, step(null));
+        PreprocessingRunner.helper_datasets.put("helper", sparkSession.range(3).toDF());
+        cache.store(firstKey, sparkSession.range(5).toDF(), SparkImporterVariables.DATA_LEVEL_PROCESS);
+        cache.store(secondKey, sparkSession.range(6).toDF(), SparkImporterVariables.DATA_LEVEL_PROCESS);
+        assertFalse(new File(cacheDirectory, secondKey + "/helper").exists());
+
+        // an unrelated entry used more recently than both of them
+        String unrelatedKey = cache.keyOfStep(cache.getInitialKey(), step(Collections.singletonMap("column", "a")));
+        cache.store(unrelatedKey, sparkSession.range(7).toDF(), SparkImporterVariables.DATA_LEVEL_PROCESS);
+        setLastAccess(firstKey, LAST_ACCESS_BEFORE);
+        setLastAccess(secondKey, LAST_ACCESS_BEFORE);
+        setLastAccess(unrelatedKey, LAST_ACCESS_BEFORE + 1000);
+
+        // loading the second entry also marks the first one as used, so it is not evicted before the second one
+        StepResultCache laterCache = new StepResultCache(cacheDirectory, 0, inputPath, "", SparkImporterVariables.DATA_LEVEL_PROCESS);
+        laterCache.load(secondKey);
+        assertTrue(lastAccess(firstKey) > LAST_ACCESS_BEFORE + 1000);
+        assertTrue(lastAccess(secondKey) > LAST_ACCESS_BEFORE + 1000);
+
+        // storing the next step evicts all entries not used in this run, as the cache must not grow
+        String thirdKey = laterCache.keyOfStep(secondKey, step(null));
+        laterCache.store(thirdKey, sparkSession.range(8).toDF(), SparkImporterVariables.DATA_LEVEL_PROCESS);
+
+        assertFalse(new File(cacheDirectory, unrelatedKey).exists());
+        assertTrue(laterCache.contains(secondKey));
+        assertTrue(laterCache.contains(thirdKey));
+    }
+
+    private StepResultCache createCache() {
+        return new StepResultCache(cacheDirectory, MAX_CACHE_SIZE_IN_MB, inputPath, "", SparkImporterVariables.DATA_LEVEL_PROCESS);
+    }
+
+    private static PipelineStep step(Map<String, Object> parameters) {
+        Step step = new Step();
+        step.setId("TypeCastStep");
+        step.setClassName(TypeCastStep.class.getCanonicalName());
+        step.setParameters(parameters == null ? null : new HashMap<>(parameters));
+        return new PipelineStep(step);
+    }
+
+    private void setLastAccess(String key, long lastAccess) {
+        assertTrue(new File(cacheDirectory, key + "/_LAST_ACCESS").setLastModified(lastAccess));
+    }
+
+    private long lastAccess(String key) {
+        return new File(cacheDirectory, key + "/_LAST_ACCESS").lastModified();
+    }
+}
@@ -0,0 +1,96 @@
+package de.viadee.ki.sparkimporter.processing.steps;
+
+import de.viadee.ki.sparkimporter.exceptions.FaultyConfigurationException;
+import de.viadee.ki.sparkimporter.processing.interfaces.PreprocessingStepInterface;
+import org.apache.spark.sql.Dataset;
+import org.apache.spark.sql.Row;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+
+public class PipelineManagerTest {
+
+    @Test
+    public void testStepsAreOrderedAfterTheirPredecessors() throws FaultyConfigurationException {
+        // configured in an order in which D comes before its predecessors
+        PipelineManager pipelineManager = new PipelineManager(Arrays.asList(
+                step("D", "B,C"),
+                step("A", ""),
+                step("C", "A"),
+                step("B", "A")
+        ));
+
+        assertEquals(Arrays.asList("A", "C", "B", "D"), ids(pipelineManager.getOrderedPipeline()));
+    }
+
+    @Test
+    public void testSeveralStartingSteps() throws FaultyConfigurationException {
+        PipelineManager pipelineManager = new PipelineManager(Arrays.asList(
+                step("A", ""),
+                step("B", ""),
+                step("C", "A,B")
+        ));
+
+        assertEquals(Arrays.asList("A", "B", "C"), ids(pipelineManager.getOrderedPipeline()));
+    }
+
+    @Test(expected = FaultyConfigurationException.class)
+    public void testCircularDependency() throws FaultyConfigurationException {
+        new PipelineManager(Arrays.asList(
+                step("A", ""),
+                step("B", "A,D"),
+                step("C", "B"),
+                step("D", "C")
+        ));
+    }
+
+    @Test(expected = FaultyConfigurationException.class)
+    public void testUnknownPredecessor() throws FaultyConfigurationException {
+        new PipelineManager(Arrays.asList(
+                step("A", ""),
+                step("B", "X")
+        ));
+    }
+
+    @Test(expected = FaultyConfigurationException.class)
+    public void testDuplicateStepId() throws FaultyConfigurationException {
+        new PipelineManager(Arrays.asList(
+                step("A", ""),
+                step("A", "")
+        ));
+    }
+
+    @Test(expected = FaultyConfigurationException.class)
+    public void testNoStartingStep() throws FaultyConfigurationException {
+        new PipelineManager(Arrays.asList(
+                step("A", "B"),
+                step("B", "A")
+        ));
+    }
+
+    private static PipelineStep step(String id, String dependsOn) {
+        PipelineStep step = new PipelineStep(new NoOpStep(), dependsOn);
+        step.setId(id);
+        return step;
+    }
+
+    private static List<String> ids(List<PipelineStep> steps) {
+        List<String> ids = new ArrayList<>();
+        for(PipelineStep step : steps) {
+            ids.add(step.getId());
+        }
+        return ids;
+    }
+
+    private static class NoOpStep implements PreprocessingStepInterface {
+        @Override
+        public Dataset<Row> runPreprocessingStep(Dataset<Row> dataSet, boolean writeStepResultIntoFile, String dataLevel, Map<String, Object> parameters) {
+            return dataSet;
+        }
+    }
+}
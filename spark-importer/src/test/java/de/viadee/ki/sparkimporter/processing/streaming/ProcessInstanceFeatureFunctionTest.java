@@ -0,0 +1,224 @@
+package de.viadee.ki.sparkimporter.processing.streaming;
+
+import de.viadee.ki.sparkimporter.util.SparkImporterVariables;
+import org.apache.spark.sql.Row;
+import org.apache.spark.sql.catalyst.expressions.GenericRowWithSchema;
+import org.apache.spark.sql.streaming.GroupState;
+import org.apache.spark.sql.types.DataTypes;
+import org.apache.spark.sql.types.StructField;
+import org.apache.spark.sql.types.StructType;
+import org.junit.Before;
+import org.junit.Test;
+import scala.Option;
+
+import java.sql.Date;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ProcessInstanceFeatureFunctionTest {
+
+    private static final String PROCESS_INSTANCE_ID = "4711";
+
+    private static final long TIMEOUT = 60000;
+
+    private static final String[] COLUMNS = {
+            SparkImporterVariables.VAR_PROCESS_INSTANCE_ID,
+            SparkImporterVariables.VAR_STATE,
+            "business_key_",
+            SparkImporterVariables.VAR_PROCESS_INSTANCE_VARIABLE_NAME,
+            SparkImporterVariables.VAR_PROCESS_INSTANCE_VARIABLE_TYPE,
+            SparkImporterVariables.VAR_PROCESS_INSTANCE_VARIABLE_REVISION,
+            SparkImporterVariables.VAR_LONG,
+            SparkImporterVariables.VAR_TEXT,
+            SparkImporterVariables.VAR_TIMESTAMP
+    };
+
+    private static final StructType INPUT_SCHEMA = createInputSchema();
+
+    private ProcessInstanceFeatureFunction featureFunction;
+
+    private TestGroupState state;
+
+    @Before
+    public void setUp() {
+        featureFunction = new ProcessInstanceFeatureFunction(COLUMNS, Arrays.asList("a", "b"), TIMEOUT);
+        state = new TestGroupState();
+    }
+
+    @Test
+    public void testVariableUpdatesAreMerged() {
+        call(processRow(SparkImporterVariables.PROCESS_STATE_ACTIVE, "key"), variableRow("a", "1", 1, 1000));
+        Row features = call(variableRow("a", "2", 2, 2000), variableRow("b", "x", 1, 2000));
+
+        assertEquals(SparkImporterVariables.PROCESS_STATE_ACTIVE, features.getAs(SparkImporterVariables.VAR_STATE));
+        assertEquals("key", features.getAs("business_key_"));
+        assertEquals("2", features.getAs("a"));
+        assertEquals("x", features.getAs("b"));
+        assertEquals(TIMEOUT, state.timeoutDuration);
+    }
+
+    @Test
+    public void testOlderRevisionIsIgnored() {
+        call(variableRow("a", "2", 2, 2000));
+        Row features = call(variableRow("a", "1", 1, 3000));
+
+        assertEquals("2", features.getAs("a"));
+    }
+
+    @Test
+    public void testLateVariableUpdateIsMergedIntoEndedProcessInstance() {
+        call(processRow(SparkImporterVariables.PROCESS_STATE_ACTIVE, "key"), variableRow("a", "1", 1, 1000));
+        call(processRow(SparkImporterVariables.PROCESS_STATE_COMPLETED, null));
+
+        // the state of the ended process instance is kept until the timeout
+        assertTrue(state.exists());
+
+        Row features = call(variableRow("b", "x", 1, 3000));
+
+        assertEquals(SparkImporterVariables.PROCESS_STATE_COMPLETED, features.getAs(SparkImporterVariables.VAR_STATE));
+        assertEquals("key", features.getAs("business_key_"));
+        assertEquals("1", features.getAs("a"));
+        assertEquals("x", features.getAs("b"));
+    }
+
+    @Test
+    public void testUnknownVariableIsIgnored() {
+        Row features = call(variableRow("c", "1", 1, 1000));
+
+        assertFalse(Arrays.asList(features.schema().fieldNames()).contains("c"));
+        assertNull(features.getAs("a"));
+    }
+
+    @Test
+    public void testStateIsRemovedOnTimeout() {
+        call(processRow(SparkImporterVariables.PROCESS_STATE_COMPLETED, "key"));
+        state.timedOut = true;
+
+        Iterator<Row> rows = featureFunction.call(PROCESS_INSTANCE_ID, Collections.emptyIterator(), state);
+
+        assertFalse(rows.hasNext());
+        assertFalse(state.exists());
+    }
+
+    private Row call(Row... rows) {
+        Iterator<Row> features = featureFunction.call(PROCESS_INSTANCE_ID, Arrays.asList(rows).iterator(), state);
+        Row featureRow = features.next();
+        assertFalse(features.hasNext());
+        return toRowWithSchema(featureRow);
+    }
+
+    /**
+     * @return the row with the output schema, so its values can be accessed by column name
+     */
+    private Row toRowWithSchema(Row row) {
+        Object[] values = new Object[row.length()];
+        for(int i = 0; i < values.length; i++) {
+            values[i] = row.get(i);
+        }
+        return new GenericRowWithSchema(values, featureFunction.getOutputSchema());
+    }
+
+    private static Row processRow(String processState, String businessKey) {
+        return new GenericRowWithSchema(new Object[]{PROCESS_INSTANCE_ID, processState, businessKey, null, null, null, null, null, null}, INPUT_SCHEMA);
+    }
+
+    private static Row variableRow(String name, String value, long revision, long timestamp) {
+        return new GenericRowWithSchema(new Object[]{PROCESS_INSTANCE_ID, null, null, name, "string", String.valueOf(revision), null, value, String.valueOf(timestamp)}, INPUT_SCHEMA);
+    }
+
+    private static StructType createInputSchema() {
+        List<StructField> fields = new ArrayList<>();
+        for(String column : COLUMNS) {
+            fields.add(DataTypes.createStructField(column, DataTypes.StringType, true));
+        }
+        return DataTypes.createStructType(fields);
+    }
+
+    /**
+     * Group state as kept by Spark between the micro-batches of a single process instance.
+     */
+    private static class TestGroupState implements GroupState<ProcessInstanceFeatureState> {
+
+        private ProcessInstanceFeatureState value = null;
+        private boolean timedOut = false;
+        private long timeoutDuration = -1;
+
+        @Override
+        public boolean exists() {
+            return value != null;
+        }
+
+        @Override
+        public ProcessInstanceFeatureState get() {
+            return value;
+        }
+
+        @Override
+        public Option<ProcessInstanceFeatureState> getOption() {
+            return Option.apply(value);
+        }
+
+        @Override
+        public void update(ProcessInstanceFeatureState newValue) {
+            value = newValue;
+        }
+
+        @Override
+        public void remove() {
+            value = null;
+        }
+
+        @Override
+        public boolean hasTimedOut() {
+            return timedOut;
+        }
+
+        @Override
+        public void setTimeoutDuration(long durationMs) {
+            timeoutDuration = durationMs;
+        }
+
+        @Override
+        public void setTimeoutDuration(String duration) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void setTimeoutTimestamp(long timestampMs) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void setTimeoutTimestamp(long timestampMs, String additionalDuration) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void setTimeoutTimestamp(Date timestamp) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void setTimeoutTimestamp(Date timestamp, String additionalDuration) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public long getCurrentWatermarkMs() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public long getCurrentProcessingTimeMs() {
+            return System.currentTimeMillis();
+        }
+    }
+}